@@ -0,0 +1,245 @@
+package io.github.spencerpark.jupyter.channels;
+
+import io.github.spencerpark.jupyter.messages.Message;
+import io.github.spencerpark.jupyter.messages.MessageType;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publishes messages from a dedicated sender thread. Threads publishing output only add the
+ * message to a lock-free queue, serializing, signing and sending it happens on the sender
+ * thread. Messages are sent in the order they were queued so a {@code status: idle} queued after
+ * a cell's outputs is always sent after them.
+ * <p>
+ * The number of queued messages is bounded. What happens to a message published when the queue
+ * is full depends on the {@link OverflowPolicy}. Status messages always make it into the queue,
+ * frontends rely on them to track whether the kernel is busy.
+ */
+public class AsyncPublisher {
+    public enum OverflowPolicy {
+        /**
+         * Block the publishing thread until there is room in the queue. Output is never lost
+         * but a cell printing faster than the frontend can keep up is slowed down to its pace.
+         */
+        BLOCK,
+
+        /**
+         * Drop the message. The publishing thread never waits on the sender.
+         */
+        DROP
+    }
+
+    private static final Logger LOGGER = Logger.getLogger("AsyncPublisher");
+
+    private static class Entry {
+        private final Message<?> message;
+        // True if the entry holds one of the queue's slots.
+        private final boolean counted;
+        private final CountDownLatch barrier;
+
+        private Entry(Message<?> message, boolean counted, CountDownLatch barrier) {
+            this.message = message;
+            this.counted = counted;
+            this.barrier = barrier;
+        }
+    }
+
+    private final Consumer<Message<?>> sink;
+    private final OverflowPolicy policy;
+    private final int capacity;
+
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final Semaphore slots;
+    private final Thread sender;
+    private final AtomicBoolean senderParked = new AtomicBoolean(false);
+
+    private volatile boolean running;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean warnedFull = false;
+
+    /**
+     * @param sink          sends a message, only ever invoked from the sender thread
+     * @param capacity      the maximum number of messages waiting to be sent
+     * @param policy        what to do with messages published while the queue is full
+     * @param threadFactory the factory for the sender thread
+     */
+    public AsyncPublisher(Consumer<Message<?>> sink, int capacity, OverflowPolicy policy, ThreadFactory threadFactory) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be > 0 but was " + capacity);
+
+        this.sink = sink;
+        this.policy = policy;
+        this.capacity = capacity;
+        this.slots = new Semaphore(capacity);
+
+        this.sender = threadFactory.newThread(this::work);
+
+        this.running = true;
+        this.sender.start();
+    }
+
+    private void work() {
+        while (true) {
+            Entry entry = this.queue.poll();
+            if (entry == null) {
+                if (!this.running)
+                    break;
+
+                // Announce that the sender is about to park and check again so that an entry
+                // added in between is not missed.
+                this.senderParked.set(true);
+                if (this.queue.isEmpty() && this.running)
+                    LockSupport.park(this);
+                this.senderParked.set(false);
+                continue;
+            }
+
+            if (entry.counted)
+                this.slots.release();
+
+            if (entry.barrier != null) {
+                entry.barrier.countDown();
+                continue;
+            }
+
+            try {
+                this.sink.accept(entry.message);
+                this.published.incrementAndGet();
+            } catch (Throwable t) {
+                LOGGER.log(Level.SEVERE, "Failed to publish " + entry.message.getHeader().getType().getName() + " message.", t);
+            }
+        }
+    }
+
+    private void enqueue(Entry entry) {
+        this.queue.offer(entry);
+        if (this.senderParked.get())
+            LockSupport.unpark(this.sender);
+    }
+
+    /**
+     * Queue a message to be sent after all previously queued messages.
+     *
+     * @param message the message to publish
+     *
+     * @return true if the message was queued, false if it was dropped
+     */
+    public boolean publish(Message<?> message) {
+        if (!this.running) {
+            LOGGER.log(Level.WARNING, "Publisher is closed, dropping " + message.getHeader().getType().getName() + " message.");
+            this.dropped.incrementAndGet();
+            return false;
+        }
+
+        boolean counted = true;
+        if (!this.slots.tryAcquire()) {
+            if (message.getHeader().getType() == MessageType.PUBLISH_STATUS) {
+                // Status may go over capacity, it is small and the frontend needs it.
+                counted = false;
+            } else if (this.policy == OverflowPolicy.DROP) {
+                if (!this.warnedFull) {
+                    this.warnedFull = true;
+                    LOGGER.log(Level.WARNING, "Publish queue is full (" + this.capacity + "), dropping output.");
+                }
+                this.dropped.incrementAndGet();
+                return false;
+            } else {
+                try {
+                    this.slots.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    this.dropped.incrementAndGet();
+                    return false;
+                }
+            }
+        } else {
+            this.warnedFull = false;
+        }
+
+        this.enqueue(new Entry(message, counted, null));
+        return true;
+    }
+
+    /**
+     * Wait until every message queued before this call has been sent.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the {@code timeout}
+     *
+     * @return true if the messages were sent, false if the wait timed out or was interrupted
+     */
+    public boolean awaitSent(long timeout, TimeUnit unit) {
+        if (Thread.currentThread() == this.sender)
+            return this.queue.isEmpty();
+
+        CountDownLatch barrier = new CountDownLatch(1);
+        this.enqueue(new Entry(null, false, barrier));
+        try {
+            return barrier.await(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return the number of messages waiting to be sent.
+     */
+    public int getQueueDepth() {
+        return this.capacity - this.slots.availablePermits();
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return this.policy;
+    }
+
+    public long getPublishedCount() {
+        return this.published.get();
+    }
+
+    public long getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Stop accepting new messages and wait for the ones already queued to be sent.
+     *
+     * @param timeout the maximum time to wait for the queue to drain
+     * @param unit    the unit of the {@code timeout}
+     *
+     * @return true if the sender finished, false if it was still sending when the wait timed out
+     */
+    public boolean close(long timeout, TimeUnit unit) {
+        if (this.running) {
+            this.running = false;
+            LockSupport.unpark(this.sender);
+        }
+
+        if (Thread.currentThread() == this.sender)
+            return false;
+
+        try {
+            this.sender.join(unit.toMillis(timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !this.sender.isAlive();
+    }
+}
@@ -0,0 +1,88 @@
+package io.github.spencerpark.jupyter.channels;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A {@link Reader} that decodes characters straight out of a {@link ByteBuffer}. Unlike
+ * {@code new String(bytes, charset)} followed by a {@link java.io.StringReader}, the decoded
+ * text is never materialized in full, characters are decoded directly into the buffer supplied
+ * by the consumer (typically a {@link com.google.gson.stream.JsonReader}).
+ * <p>
+ * Malformed input is replaced with the charset's replacement character, matching the behaviour
+ * of the {@link String} constructors.
+ */
+public class ByteBufferReader extends Reader {
+    private final ByteBuffer in;
+    private final CharsetDecoder decoder;
+
+    // A character that was decoded but didn't fit in the caller's buffer. Only ever
+    // the low half of a surrogate pair.
+    private final CharBuffer spill;
+    private boolean flushed;
+
+    /**
+     * Create a reader over the remaining bytes in {@code in}. The position of {@code in} is
+     * not modified, the reader works on a view of the buffer.
+     *
+     * @param in      the bytes to decode
+     * @param charset the charset that the bytes are encoded with
+     */
+    public ByteBufferReader(ByteBuffer in, Charset charset) {
+        this.in = in.duplicate();
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.spill = CharBuffer.allocate(2);
+        this.spill.flip();
+        this.flushed = false;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if (len == 0)
+            return 0;
+
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+
+        if (this.spill.hasRemaining()) {
+            out.put(this.spill.get());
+            if (!out.hasRemaining())
+                return 1;
+        }
+
+        if (!this.flushed) {
+            CoderResult result = this.decoder.decode(this.in, out, true);
+
+            // Overflow without any progress means the next character is a surrogate
+            // pair and there is only room for one half of it.
+            if (result.isOverflow() && out.position() == off) {
+                this.spill.clear();
+                this.decoder.decode(this.in, this.spill, true);
+                this.spill.flip();
+                out.put(this.spill.get());
+            }
+        }
+
+        if (!this.in.hasRemaining() && !this.flushed && out.hasRemaining()) {
+            this.decoder.flush(out);
+            this.flushed = true;
+        }
+
+        int read = out.position() - off;
+        return read == 0 ? -1 : read;
+    }
+
+    @Override
+    public boolean ready() {
+        return this.spill.hasRemaining() || this.in.hasRemaining();
+    }
+
+    @Override
+    public void close() { }
+}
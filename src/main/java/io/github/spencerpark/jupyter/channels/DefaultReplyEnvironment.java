@@ -9,6 +9,7 @@ import io.github.spencerpark.jupyter.messages.reply.ErrorReply;
 
 import java.util.Deque;
 import java.util.LinkedList;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class DefaultReplyEnvironment implements ReplyEnvironment {
     private final JupyterSocket shell;
@@ -16,8 +17,16 @@ public class DefaultReplyEnvironment implements ReplyEnvironment {
 
     private final MessageContext context;
 
-    private Deque<Runnable> deferred = new LinkedList<>();
-    private boolean defer = false;
+    // A lock rather than a monitor so that a virtual thread publishing output parks instead of
+    // pinning its carrier thread.
+    private final ReentrantLock deferLock = new ReentrantLock();
+
+    // Guarded by the deferLock
+    private final Deque<Runnable> deferred = new LinkedList<>();
+    // Guarded by the deferLock. The thread that called defer(), only its next publish or reply
+    // is deferred. Output published by other threads, such as the timers that flush buffered
+    // output, is sent right away and never takes the deferral meant for the handler.
+    private Thread deferring = null;
 
     public DefaultReplyEnvironment(JupyterSocket shell, JupyterSocket iopub, MessageContext context) {
         this.shell = shell;
@@ -39,42 +48,68 @@ public class DefaultReplyEnvironment implements ReplyEnvironment {
 
     @Override
     public void publish(Message<?> msg) {
-        if (defer) {
-            deferred.push(() -> iopub.sendMessage(msg));
-            this.defer = false;
-        } else {
+        if (!this.deferIfRequested(() -> iopub.sendMessage(msg)))
             iopub.sendMessage(msg);
-        }
     }
 
     @Override
     public void reply(Message<?> msg) {
-        if (defer) {
-            deferred.push(() -> shell.sendMessage(msg));
-            this.defer = false;
-        } else {
+        if (!this.deferIfRequested(() -> shell.sendMessage(msg)))
             shell.sendMessage(msg);
+    }
+
+    private boolean deferIfRequested(Runnable send) {
+        this.deferLock.lock();
+        try {
+            if (this.deferring != Thread.currentThread())
+                return false;
+            this.deferred.push(send);
+            this.deferring = null;
+            return true;
+        } finally {
+            this.deferLock.unlock();
         }
     }
 
     @Override
     public ReplyEnvironment defer() {
-        this.defer = true;
+        this.deferLock.lock();
+        try {
+            this.deferring = Thread.currentThread();
+        } finally {
+            this.deferLock.unlock();
+        }
         return this;
     }
 
     @Override
     public void defer(Runnable action) {
-        this.deferred.push(action);
+        this.deferLock.lock();
+        try {
+            this.deferred.push(action);
+        } finally {
+            this.deferLock.unlock();
+        }
     }
 
     @Override
     public void resolveDeferrals() {
-        if (this.defer)
-            throw new IllegalStateException("Reply environment is in defer mode but a resolution was request.");
+        Runnable next;
+        while ((next = this.nextDeferral()) != null)
+            next.run();
+    }
 
-        while (!deferred.isEmpty())
-            deferred.pop().run();
+    // The deferred actions run without holding the lock so that other threads may keep
+    // publishing while they send.
+    private Runnable nextDeferral() {
+        this.deferLock.lock();
+        try {
+            if (this.deferring != null)
+                throw new IllegalStateException("Reply environment is in defer mode but a resolution was request.");
+            return this.deferred.poll();
+        } finally {
+            this.deferLock.unlock();
+        }
     }
 
     @Override
@@ -0,0 +1,176 @@
+package io.github.spencerpark.jupyter.channels;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An executor that runs submitted tasks one at a time, in order, on a dedicated thread. The
+ * number of tasks waiting to run is bounded by the capacity of the queue. When the queue is
+ * full {@link #execute(Runnable)} rejects the task right away rather than blocking the submitting
+ * thread, which is usually reading a socket that other messages (such as heartbeats and
+ * interrupts) also arrive on. The shell channel answers a rejected {@code execute_request}
+ * with an error reply.
+ * <p>
+ * Used by a {@link JupyterConnection} to take {@code execute_request}s off of the thread reading
+ * the shell socket so that other requests are still answered while a cell is running.
+ */
+public class ExecutionScheduler implements HandlerExecutor {
+    private static final Runnable STOP = () -> { };
+
+    private final Logger logger;
+
+    private final BlockingQueue<Runnable> queue;
+    // Tasks that were accepted and have not started yet
+    private final AtomicInteger queued = new AtomicInteger();
+    private final int capacity;
+    private final Thread worker;
+
+    private volatile boolean running;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile int maxQueueDepth;
+
+    /**
+     * Create a scheduler that runs tasks on a thread from the {@code threadFactory}. With a
+     * {@link HandlerExecutors#virtualThreadFactory(String) virtual thread} a cell blocked waiting
+     * on input does not hold on to an OS thread.
+     *
+     * @param name          the name of the scheduler, used for logging
+     * @param capacity      the maximum number of tasks waiting to run
+     * @param threadFactory the factory for the thread that runs the tasks
+     */
+    public ExecutionScheduler(String name, int capacity, ThreadFactory threadFactory) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be > 0 but was " + capacity);
+
+        this.logger = Logger.getLogger("ExecutionScheduler-" + name);
+
+        this.queue = new LinkedBlockingQueue<>();
+        this.capacity = capacity;
+
+        this.worker = threadFactory.newThread(this::work);
+
+        this.running = true;
+        this.worker.start();
+    }
+
+    public ExecutionScheduler(String name, int capacity) {
+        this(name, capacity, HandlerExecutors.platformThreadFactory(name));
+    }
+
+    private void work() {
+        while (true) {
+            Runnable task;
+            try {
+                task = this.queue.take();
+            } catch (InterruptedException e) {
+                // Interrupts aimed at a running task may leak out, they don't stop the scheduler.
+                continue;
+            }
+
+            if (task == STOP)
+                break;
+
+            this.queued.decrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                this.logger.log(Level.SEVERE, "Scheduled task failed.", t);
+            } finally {
+                this.completed.incrementAndGet();
+            }
+        }
+
+        this.logger.info("Execution scheduler stopped.");
+    }
+
+    /**
+     * Queue a task to run after all previously submitted tasks. Never blocks.
+     *
+     * @param task the task to run
+     *
+     * @throws RejectedExecutionException if the scheduler is shutdown or the queue is full
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (!this.running)
+            throw new RejectedExecutionException("Execution scheduler is shutdown.");
+
+        int waiting;
+        do {
+            waiting = this.queued.get();
+            if (waiting >= this.capacity) {
+                this.rejected.incrementAndGet();
+                this.logger.log(Level.WARNING, "Execution queue is full (" + this.capacity + "), rejecting the task.");
+                throw new RejectedExecutionException("The execution queue is full, " + this.capacity + " requests are already waiting to run.");
+            }
+        } while (!this.queued.compareAndSet(waiting, waiting + 1));
+
+        this.submitted.incrementAndGet();
+        this.queue.offer(task);
+
+        int depth = this.queue.size();
+        if (depth > this.maxQueueDepth)
+            this.maxQueueDepth = depth;
+    }
+
+    /**
+     * @return the number of tasks waiting to run, not including the one that is currently running.
+     */
+    public int getQueueDepth() {
+        return this.queue.size();
+    }
+
+    /**
+     * @return the largest {@link #getQueueDepth() queue depth} observed right after a submission.
+     */
+    public int getMaxQueueDepth() {
+        return this.maxQueueDepth;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public long getSubmittedCount() {
+        return this.submitted.get();
+    }
+
+    public long getCompletedCount() {
+        return this.completed.get();
+    }
+
+    /**
+     * @return the number of tasks that were rejected because the queue was full.
+     */
+    public long getRejectedCount() {
+        return this.rejected.get();
+    }
+
+    /**
+     * @return true if a task is running or waiting to run.
+     */
+    public boolean isBusy() {
+        return this.completed.get() < this.submitted.get();
+    }
+
+    /**
+     * Stop accepting new tasks. Tasks that are already queued still run before the scheduler thread
+     * stops.
+     */
+    @Override
+    public void shutdown() {
+        if (!this.running)
+            return;
+        this.running = false;
+        this.queue.offer(STOP);
+    }
+}
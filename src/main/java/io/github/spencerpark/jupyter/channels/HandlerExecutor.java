@@ -0,0 +1,17 @@
+package io.github.spencerpark.jupyter.channels;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs message handlers on behalf of a {@link JupyterConnection}. See {@link HandlerExecutors}
+ * for the common implementations.
+ * <p>
+ * A connection takes ownership of the executors it is given and {@link #shutdown() shuts them
+ * down} when it is closed.
+ */
+public interface HandlerExecutor extends Executor {
+    /**
+     * Stop accepting new handlers. Handlers that were already submitted are still run.
+     */
+    public void shutdown();
+}
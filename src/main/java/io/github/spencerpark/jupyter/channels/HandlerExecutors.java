@@ -0,0 +1,362 @@
+package io.github.spencerpark.jupyter.channels;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Factories for the {@link HandlerExecutor}s used by a {@link JupyterConnection}.
+ * <p>
+ * Virtual threads are looked up reflectively so that they may be used when running on Java 21+
+ * while the library still runs on Java 8. A handler blocked on a virtual thread (for example
+ * waiting for input from the frontend in {@link StdinChannel#getInput}) parks without holding
+ * on to an OS thread.
+ */
+public final class HandlerExecutors {
+    private static final Logger LOGGER = Logger.getLogger("HandlerExecutors");
+
+    private static final HandlerExecutor DIRECT = new HandlerExecutor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() { }
+    };
+
+    // Set while a shared thread is being created, see isCreatingSharedThread()
+    private static final ThreadLocal<Boolean> CREATING_SHARED_THREAD = new ThreadLocal<>();
+
+    private static class SchedulerHolder {
+        private static final ScheduledExecutorService SCHEDULER;
+
+        static {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, sharedThreadFactory("Jupyter-timer"));
+            scheduler.setRemoveOnCancelPolicy(true);
+            SCHEDULER = scheduler;
+        }
+    }
+
+    private static final Method THREAD_OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builderClass.getMethod("name", String.class, long.class);
+            factory = builderClass.getMethod("factory");
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            ofVirtual = null;
+        }
+        THREAD_OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_FACTORY = factory;
+    }
+
+    private HandlerExecutors() { }
+
+    /**
+     * @return true if the running JVM supports virtual threads.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return THREAD_OF_VIRTUAL != null;
+    }
+
+    /**
+     * Create a factory for named platform threads. The threads are daemon threads so that
+     * they do not keep the JVM alive after the connection is closed.
+     *
+     * @param name the name of the threads. If more than one is created they are suffixed with
+     *             {@code -0}, {@code -1}, etc.
+     *
+     * @return the thread factory
+     */
+    public static ThreadFactory platformThreadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            int id = count.getAndIncrement();
+            Thread thread = new Thread(r, id == 0 ? name : name + "-" + id);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Create a factory for named daemon platform threads that are shared by every connection,
+     * like {@link #platformThreadFactory(String)}. Such a thread is usually created by whichever
+     * execution first needs it but outlives that execution, see {@link #isCreatingSharedThread()}.
+     *
+     * @param name the name of the threads
+     *
+     * @return the thread factory
+     */
+    public static ThreadFactory sharedThreadFactory(String name) {
+        ThreadFactory factory = platformThreadFactory(name);
+        return r -> {
+            CREATING_SHARED_THREAD.set(Boolean.TRUE);
+            try {
+                return factory.newThread(r);
+            } finally {
+                CREATING_SHARED_THREAD.remove();
+            }
+        };
+    }
+
+    /**
+     * @return true while the calling thread is creating a thread with a {@link
+     *         #sharedThreadFactory(String) shared thread factory}. An {@link InheritableThreadLocal}
+     *         holding state of a single execution should not pass it on to such a thread, the
+     *         thread would otherwise keep that state reachable for as long as the JVM runs.
+     */
+    public static boolean isCreatingSharedThread() {
+        return CREATING_SHARED_THREAD.get() != null;
+    }
+
+    /**
+     * The scheduler for the timers of the library, for example the timers that flush buffered
+     * output or expire input requests. All timers share a single thread so the tasks must be
+     * short and must not block. The scheduler must not be shut down.
+     *
+     * @return the shared scheduler
+     */
+    public static ScheduledExecutorService sharedScheduler() {
+        return SchedulerHolder.SCHEDULER;
+    }
+
+    /**
+     * Create a factory for named virtual threads, falling back to {@link #platformThreadFactory(String)
+     * platform threads} if virtual threads are not supported by the running JVM.
+     *
+     * @param name the prefix for the name of the threads, they are suffixed with {@code -0},
+     *             {@code -1}, etc.
+     *
+     * @return the thread factory
+     */
+    public static ThreadFactory virtualThreadFactory(String name) {
+        if (THREAD_OF_VIRTUAL != null) {
+            try {
+                Object builder = THREAD_OF_VIRTUAL.invoke(null);
+                builder = BUILDER_NAME.invoke(builder, name + "-", 0L);
+                return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Could not create a virtual thread factory, using platform threads.", e);
+            }
+        } else {
+            LOGGER.log(Level.INFO, "Virtual threads are not supported by this JVM, using platform threads.");
+        }
+        return platformThreadFactory(name);
+    }
+
+    /**
+     * @return an executor that runs handlers on the thread that submits them. For shell and control
+     *         handlers this is the thread reading from the socket.
+     */
+    public static HandlerExecutor direct() {
+        return DIRECT;
+    }
+
+    /**
+     * Create an executor that runs handlers, in order, on a single thread.
+     *
+     * @param threadFactory the factory for the thread that runs the handlers
+     *
+     * @return the executor
+     */
+    public static HandlerExecutor singleThread(ThreadFactory threadFactory) {
+        return wrap(Executors.newSingleThreadExecutor(threadFactory));
+    }
+
+    /**
+     * Create an executor that runs handlers, in order, on a single daemon platform thread.
+     *
+     * @param name the name of the thread
+     *
+     * @return the executor
+     */
+    public static HandlerExecutor singleThread(String name) {
+        return singleThread(platformThreadFactory(name));
+    }
+
+    /**
+     * Create an executor that runs handlers, in order, on a virtual thread if the running JVM
+     * supports them and on a daemon platform thread otherwise.
+     *
+     * @param name the name of the thread
+     *
+     * @return the executor
+     */
+    public static HandlerExecutor singleVirtualThread(String name) {
+        return singleThread(isVirtualThreadSupported() ? virtualThreadFactory(name) : platformThreadFactory(name));
+    }
+
+    /**
+     * Create an executor that runs handlers, in order and one at a time, on threads borrowed from
+     * a {@code shared} executor. Many connections may each have their own ordered lane on one
+     * bounded pool. After each handler the lane gives its thread back to the pool so a busy lane
+     * doesn't starve the others, handlers that block for a long time still hold on to a thread of
+     * the pool while they run.
+     *
+     * @param shared the executor to borrow threads from. It is not shut down with the lane.
+     *
+     * @return the executor
+     */
+    public static HandlerExecutor serial(Executor shared) {
+        return new HandlerExecutor() {
+            private final ReentrantLock lock = new ReentrantLock();
+            // Guarded by the lock
+            private final Queue<Runnable> tasks = new ArrayDeque<>();
+            // Guarded by the lock, true while a task of this lane is submitted to the shared executor
+            private boolean scheduled = false;
+            private volatile boolean running = true;
+
+            @Override
+            public void execute(Runnable command) {
+                if (!this.running)
+                    throw new RejectedExecutionException("Handler executor is shutdown.");
+
+                this.lock.lock();
+                try {
+                    this.tasks.add(command);
+                    if (this.scheduled)
+                        return;
+                    this.scheduled = true;
+                } finally {
+                    this.lock.unlock();
+                }
+                this.schedule();
+            }
+
+            private void schedule() {
+                try {
+                    shared.execute(this::runNext);
+                } catch (RejectedExecutionException e) {
+                    this.lock.lock();
+                    try {
+                        this.tasks.clear();
+                        this.scheduled = false;
+                    } finally {
+                        this.lock.unlock();
+                    }
+                    throw e;
+                }
+            }
+
+            private void runNext() {
+                Runnable task;
+                this.lock.lock();
+                try {
+                    task = this.tasks.poll();
+                } finally {
+                    this.lock.unlock();
+                }
+
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    LOGGER.log(Level.SEVERE, "Handler failed.", t);
+                }
+
+                this.lock.lock();
+                try {
+                    if (this.tasks.isEmpty()) {
+                        this.scheduled = false;
+                        return;
+                    }
+                } finally {
+                    this.lock.unlock();
+                }
+                this.schedule();
+            }
+
+            @Override
+            public void shutdown() {
+                this.running = false;
+            }
+        };
+    }
+
+    /**
+     * Create an executor that starts a new thread for each handler. Handlers are <strong>not</strong>
+     * run in order and so this executor should only be used for handlers that may run concurrently.
+     *
+     * @param threadFactory the factory for the threads that run the handlers
+     *
+     * @return the executor
+     */
+    public static HandlerExecutor threadPerTask(ThreadFactory threadFactory) {
+        return new HandlerExecutor() {
+            private volatile boolean running = true;
+
+            @Override
+            public void execute(Runnable command) {
+                if (!this.running)
+                    throw new RejectedExecutionException("Handler executor is shutdown.");
+                threadFactory.newThread(command).start();
+            }
+
+            @Override
+            public void shutdown() {
+                this.running = false;
+            }
+        };
+    }
+
+    /**
+     * Create an executor that starts a new virtual thread for each handler. Like
+     * {@link #threadPerTask(ThreadFactory)} handlers are not run in order. Combine with an
+     * {@link ExecutionScheduler} backed by a {@link #virtualThreadFactory(String) virtual thread}
+     * to keep executions ordered.
+     * <p>
+     * Falls back to a cached pool of daemon platform threads if virtual threads are not supported.
+     *
+     * @param name the prefix for the name of the threads
+     *
+     * @return the executor
+     */
+    public static HandlerExecutor virtualThreadPerTask(String name) {
+        if (!isVirtualThreadSupported()) {
+            LOGGER.log(Level.INFO, "Virtual threads are not supported by this JVM, using a platform thread pool.");
+            return wrap(Executors.newCachedThreadPool(platformThreadFactory(name)));
+        }
+
+        return threadPerTask(virtualThreadFactory(name));
+    }
+
+    /**
+     * Adapt an {@link ExecutorService} into a {@link HandlerExecutor}.
+     *
+     * @param executor the executor to run handlers on
+     *
+     * @return a handler executor that shuts down the {@code executor} when it is shutdown
+     */
+    public static HandlerExecutor wrap(ExecutorService executor) {
+        return new HandlerExecutor() {
+            @Override
+            public void execute(Runnable command) {
+                executor.execute(command);
+            }
+
+            @Override
+            public void shutdown() {
+                executor.shutdown();
+            }
+        };
+    }
+}
@@ -6,32 +6,109 @@ import org.zeromq.SocketType;
 import org.zeromq.ZMQ;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class HeartbeatChannel extends JupyterSocket {
     private static final long HB_DEFAULT_SLEEP_MS = 500;
+    private static final long HB_CLOSE_TIMEOUT_MS = 5000;
 
     private static final AtomicInteger HEARTBEAT_ID = new AtomicInteger();
 
     private final long sleep;
+    private final boolean useEchoDevice;
     private volatile Loop pulse;
+    private volatile boolean ownsPulse;
 
-    public HeartbeatChannel(ZMQ.Context context, HMACGenerator hmacGenerator, long sleep) {
+    private final AtomicLong pingCount = new AtomicLong();
+    private volatile long lastPingNanos;
+    private volatile boolean hasPinged;
+    private volatile long lastEchoLatencyNanos;
+    private volatile long maxEchoLatencyNanos;
+
+    private HeartbeatChannel(ZMQ.Context context, HMACGenerator hmacGenerator, long sleep, boolean useEchoDevice) {
         super(context, SocketType.REP, hmacGenerator, Logger.getLogger("HeartbeatChannel"));
         this.sleep = sleep;
+        this.useEchoDevice = useEchoDevice;
+    }
+
+    public HeartbeatChannel(ZMQ.Context context, HMACGenerator hmacGenerator, long sleep) {
+        this(context, hmacGenerator, sleep, false);
+    }
+
+    /**
+     * Create a heartbeat channel.
+     *
+     * @param context       the context to create the socket in
+     * @param hmacGenerator the generator for signing messages
+     * @param useEchoDevice if true the pings are echoed by a dedicated device thread that blocks
+     *                      on the socket (see {@link ReactorLoop}) and replies as soon as a ping
+     *                      arrives. Otherwise a loop polls the socket every
+     *                      {@value #HB_DEFAULT_SLEEP_MS}ms.
+     */
+    public HeartbeatChannel(ZMQ.Context context, HMACGenerator hmacGenerator, boolean useEchoDevice) {
+        this(context, hmacGenerator, HB_DEFAULT_SLEEP_MS, useEchoDevice);
     }
 
     public HeartbeatChannel(ZMQ.Context context, HMACGenerator hmacGenerator) {
         this(context, hmacGenerator, HB_DEFAULT_SLEEP_MS);
     }
 
+    /**
+     * @return the number of pings that have been echoed back to the frontend.
+     */
+    public long getPingCount() {
+        return this.pingCount.get();
+    }
+
+    /**
+     * The echo latency is measured from the moment the channel's loop found the ping waiting on
+     * the socket, before any handler ran, until the echo was sent. On a shared reactor this
+     * includes the time spent in the handlers of other sockets that were ready at the same time.
+     * Time the ping spent in the socket before the loop polled it is not included, a ping that
+     * isn't picked up at all shows in {@link #getNanosSinceLastPing()} instead.
+     *
+     * @return the echo latency of the most recent ping, in nanoseconds. {@code 0} if no pings
+     *         have been echoed.
+     */
+    public long getLastEchoLatencyNanos() {
+        return this.lastEchoLatencyNanos;
+    }
+
+    /**
+     * @return the longest {@link #getLastEchoLatencyNanos() echo latency}, in nanoseconds, since
+     *         the channel was bound or the metrics were last {@link #resetMetrics() reset}.
+     */
+    public long getMaxEchoLatencyNanos() {
+        return this.maxEchoLatencyNanos;
+    }
+
+    /**
+     * @return the time since the last ping was received, in nanoseconds, or {@code -1} if a
+     *         ping has never been received. A growing value while a frontend is connected
+     *         means pings are not being picked up. Not affected by {@link #resetMetrics()}.
+     */
+    public long getNanosSinceLastPing() {
+        return this.hasPinged ? System.nanoTime() - this.lastPingNanos : -1;
+    }
+
+    /**
+     * Reset the {@link #getPingCount() ping count} and the echo latencies. The
+     * {@link #getNanosSinceLastPing() time since the last ping} describes the liveness of the
+     * frontend rather than an accumulated metric and is kept.
+     */
+    public void resetMetrics() {
+        this.pingCount.set(0);
+        this.lastEchoLatencyNanos = 0;
+        this.maxEchoLatencyNanos = 0;
+    }
+
     private boolean isBound() {
         return this.pulse != null;
     }
 
-    @Override
-    public void bind(KernelConnectionProperties connProps) {
+    private String bindAddress(KernelConnectionProperties connProps) {
         if (this.isBound())
             throw new IllegalStateException("Heartbeat channel already bound");
 
@@ -41,24 +118,28 @@ public class HeartbeatChannel extends JupyterSocket {
         logger.log(Level.INFO, String.format("Binding %s to %s.", channelThreadName, addr));
         super.bind(addr);
 
-        ZMQ.Poller poller = super.ctx.poller(1);
-        poller.register(this, ZMQ.Poller.POLLIN);
-
-        this.pulse = new Loop(channelThreadName, this.sleep, () -> {
-            int events = poller.poll(0);
-            if (events > 0) {
-                byte[] msg = this.recv();
-                if (msg == null) {
-                    //Error during receive, just continue
-                    super.logger.log(Level.SEVERE, "Poll returned 1 event but could not read the echo string");
-                    return;
-                }
-                if (!this.send(msg)) {
-                    super.logger.log(Level.SEVERE, "Could not send heartbeat reply");
-                }
-                super.logger.log(Level.FINEST, "Heartbeat pulse");
-            }
-        });
+        return channelThreadName;
+    }
+
+    @Override
+    public void bind(KernelConnectionProperties connProps) {
+        String channelThreadName = this.bindAddress(connProps);
+
+        if (this.useEchoDevice) {
+            ReactorLoop device = new ReactorLoop(channelThreadName, super.ctx);
+            device.register(this, () -> this.echo(device.getPollReadyNanos()));
+            this.pulse = device;
+        } else {
+            ZMQ.Poller poller = super.ctx.poller(1);
+            poller.register(this, ZMQ.Poller.POLLIN);
+
+            this.pulse = new Loop(channelThreadName, this.sleep, () -> {
+                int events = poller.poll(0);
+                if (events > 0)
+                    this.echo(System.nanoTime());
+            });
+        }
+        this.ownsPulse = true;
         this.pulse.onClose(() -> {
             logger.log(Level.INFO, channelThreadName + " shutdown.");
             this.pulse = null;
@@ -67,19 +148,67 @@ public class HeartbeatChannel extends JupyterSocket {
         logger.log(Level.INFO, "Polling on " + channelThreadName);
     }
 
+    @Override
+    public void bind(KernelConnectionProperties connProps, ReactorLoop reactor) {
+        String channelThreadName = this.bindAddress(connProps);
+
+        reactor.register(this, () -> this.echo(reactor.getPollReadyNanos()));
+        this.pulse = reactor;
+        this.ownsPulse = false;
+
+        logger.log(Level.INFO, channelThreadName + " registered with " + reactor.getName());
+    }
+
+    /**
+     * @param readyNanos the time the loop found the ping waiting
+     */
+    private void echo(long readyNanos) {
+        byte[] msg = this.recv();
+        if (msg == null) {
+            //Error during receive, just continue
+            super.logger.log(Level.SEVERE, "Poll returned 1 event but could not read the echo string");
+            return;
+        }
+        if (!this.send(msg)) {
+            super.logger.log(Level.SEVERE, "Could not send heartbeat reply");
+            return;
+        }
+
+        long latency = System.nanoTime() - readyNanos;
+        this.lastPingNanos = readyNanos;
+        this.hasPinged = true;
+        this.lastEchoLatencyNanos = latency;
+        if (latency > this.maxEchoLatencyNanos)
+            this.maxEchoLatencyNanos = latency;
+        this.pingCount.incrementAndGet();
+    }
+
     @Override
     public void close() {
-        if (this.isBound())
-            this.pulse.shutdown();
+        Loop pulse = this.pulse;
+        if (pulse != null && this.ownsPulse) {
+            pulse.shutdown();
+
+            // The echo device is blocked in a poll on this socket, let it release the
+            // socket before closing it.
+            if (pulse instanceof ReactorLoop && !((ReactorLoop) pulse).inLoop()) {
+                try {
+                    pulse.join(HB_CLOSE_TIMEOUT_MS);
+                } catch (InterruptedException ignored) { }
+            }
+        } else {
+            this.pulse = null;
+        }
 
         super.close();
     }
 
     @Override
     public void waitUntilClose() {
-        if (this.pulse != null) {
+        Loop pulse = this.pulse;
+        if (pulse != null && this.ownsPulse) {
             try {
-                this.pulse.join();
+                pulse.join();
             } catch (InterruptedException ignored) { }
         }
     }
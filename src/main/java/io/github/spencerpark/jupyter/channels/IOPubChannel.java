@@ -2,15 +2,33 @@ package io.github.spencerpark.jupyter.channels;
 
 import io.github.spencerpark.jupyter.kernel.KernelConnectionProperties;
 import io.github.spencerpark.jupyter.messages.HMACGenerator;
+import io.github.spencerpark.jupyter.messages.Message;
 import org.zeromq.SocketType;
 import org.zeromq.ZMQ;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class IOPubChannel extends JupyterSocket {
+    /**
+     * Stream coalescing is off by default. Output written through {@link JupyterOutputStream}
+     * is already batched by the {@link io.github.spencerpark.jupyter.kernel.JupyterIO#setFlushPolicy(int, long, TimeUnit)
+     * flush policy}, holding it back again here would only add latency.
+     */
+    public static final long DEFAULT_STREAM_WINDOW_MS = 0;
+    public static final int DEFAULT_STREAM_MAX_CHARS = 64 * 1024;
+
+    private static final AtomicInteger SENDER_ID = new AtomicInteger();
+    private static final long SENDER_CLOSE_TIMEOUT_MS = 5000;
+
+    private volatile StreamCoalescer coalescer;
+    private volatile AsyncPublisher publisher;
+
     public IOPubChannel(ZMQ.Context context, HMACGenerator hmacGenerator) {
         super(context, SocketType.PUB, hmacGenerator, Logger.getLogger("IOPubChannel"));
+        this.setStreamCoalescing(DEFAULT_STREAM_WINDOW_MS, TimeUnit.MILLISECONDS);
     }
 
     @Override
@@ -20,4 +38,130 @@ public class IOPubChannel extends JupyterSocket {
         logger.log(Level.INFO, String.format("Binding iopub to %s.", addr));
         super.bind(addr);
     }
+
+    /**
+     * Configure how {@code stream} messages are merged before they are published. Consecutive
+     * stream messages for the same parent and stream name are sent as one message if they are
+     * published within {@code window} of the first one, unless they add up to more than
+     * {@code maxChars} characters first. Any other message sends the held stream output before
+     * itself so the order of outputs is preserved.
+     * <p>
+     * Coalescing is {@link #DEFAULT_STREAM_WINDOW_MS off by default}. It is meant for kernels
+     * that publish many small stream messages directly, for example with
+     * {@link ShellReplyEnvironment#writeToStdOut(String)}. The window adds to the latency of the
+     * {@link JupyterOutputStream} flush policy for output written to the standard streams, so
+     * the two should be chosen together.
+     *
+     * @param window   how long to hold stream output back waiting for more, or {@code 0} to
+     *                 publish every stream message as is
+     * @param unit     the unit of the {@code window}
+     * @param maxChars the size at which held stream output is sent without waiting for the window
+     */
+    public void setStreamCoalescing(long window, TimeUnit unit, int maxChars) {
+        StreamCoalescer previous = this.coalescer;
+        this.coalescer = window > 0
+                ? new StreamCoalescer(this::publish, window, unit, maxChars)
+                : null;
+        if (previous != null)
+            previous.flush();
+    }
+
+    /**
+     * Like {@link #setStreamCoalescing(long, TimeUnit, int)} sending held output once it reaches
+     * {@value #DEFAULT_STREAM_MAX_CHARS} characters.
+     */
+    public void setStreamCoalescing(long window, TimeUnit unit) {
+        this.setStreamCoalescing(window, unit, DEFAULT_STREAM_MAX_CHARS);
+    }
+
+    /**
+     * Send messages from a dedicated sender thread instead of on the thread that publishes them.
+     * Publishing a message then only queues it, serializing, signing and sending it is left to the
+     * sender. Messages are sent in the order that they are published.
+     * <p>
+     * Should be enabled before the connection is {@link JupyterConnection#connect() connected}.
+     *
+     * @param capacity the maximum number of messages waiting to be sent
+     * @param policy   what to do when a message is published while the queue is full. Status
+     *                 messages are always queued.
+     */
+    public void enableAsyncSending(int capacity, AsyncPublisher.OverflowPolicy policy) {
+        AsyncPublisher previous = this.publisher;
+        this.publisher = new AsyncPublisher(this::sendNow, capacity, policy,
+                HandlerExecutors.platformThreadFactory("IOPubChannel-sender-" + SENDER_ID.getAndIncrement()));
+        if (previous != null)
+            previous.close(SENDER_CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Go back to sending messages on the thread that publishes them. Messages that are already
+     * queued are sent first.
+     */
+    public void disableAsyncSending() {
+        AsyncPublisher previous = this.publisher;
+        this.publisher = null;
+        if (previous != null)
+            previous.close(SENDER_CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the publisher sending messages when {@link #enableAsyncSending(int, AsyncPublisher.OverflowPolicy)
+     *         async sending} is enabled, otherwise {@code null}.
+     */
+    public AsyncPublisher getAsyncPublisher() {
+        return this.publisher;
+    }
+
+    @Override
+    public void sendMessage(Message<?> message) {
+        StreamCoalescer coalescer = this.coalescer;
+        if (coalescer != null)
+            coalescer.accept(message);
+        else
+            this.publish(message);
+    }
+
+    /**
+     * Send any stream output that is being held back. With async sending enabled this also
+     * waits for the sender to catch up with everything published before the call.
+     */
+    public void flush() {
+        StreamCoalescer coalescer = this.coalescer;
+        if (coalescer != null)
+            coalescer.flush();
+
+        AsyncPublisher publisher = this.publisher;
+        if (publisher != null && !publisher.awaitSent(SENDER_CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+            logger.log(Level.WARNING, "Timed out waiting for iopub messages to be sent.");
+    }
+
+    private void publish(Message<?> message) {
+        AsyncPublisher publisher = this.publisher;
+        if (publisher != null)
+            publisher.publish(message);
+        else
+            this.sendNow(message);
+    }
+
+    private void sendNow(Message<?> message) {
+        super.sendMessage(message);
+    }
+
+    @Override
+    public void close() {
+        try {
+            StreamCoalescer coalescer = this.coalescer;
+            if (coalescer != null)
+                coalescer.flush();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to publish remaining stream output.", e);
+        }
+
+        // The sender must be done with the socket before it is closed.
+        AsyncPublisher publisher = this.publisher;
+        if (publisher != null && !publisher.close(SENDER_CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+            logger.log(Level.WARNING, "Timed out waiting for the iopub sender to finish.");
+
+        super.close();
+    }
 }
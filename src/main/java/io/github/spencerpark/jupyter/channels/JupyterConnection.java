@@ -4,21 +4,70 @@ import io.github.spencerpark.jupyter.kernel.KernelConnectionProperties;
 import io.github.spencerpark.jupyter.messages.Message;
 import io.github.spencerpark.jupyter.messages.MessageContext;
 import io.github.spencerpark.jupyter.messages.HMACGenerator;
+import io.github.spencerpark.jupyter.messages.MessageIdGenerator;
 import io.github.spencerpark.jupyter.messages.MessageType;
 import io.github.spencerpark.jupyter.messages.publish.PublishStatus;
 import org.zeromq.ZMQ;
 
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class JupyterConnection {
+    /**
+     * The strategy used by the shell and control channels to wait for incoming messages.
+     */
+    public enum IOMode {
+        /**
+         * Each channel polls its socket without blocking and sleeps between polls. This
+         * is the original behaviour and trades dispatch latency for simplicity.
+         */
+        POLLING,
+
+        /**
+         * Each channel blocks in a poll on its socket (see {@link ReactorLoop}) and is
+         * woken up as soon as a message arrives or the channel is shutdown. The heartbeat
+         * is echoed by its own device thread.
+         */
+        REACTOR,
+
+        /**
+         * A single {@link ReactorLoop} owns the heartbeat, shell, control and stdin sockets
+         * and dispatches handlers to the {@link #setShellExecutor(HandlerExecutor) shell} and
+         * {@link #setControlExecutor(HandlerExecutor) control} executors. By default each of
+         * those runs on a virtual thread when the JVM supports them.
+         */
+        MULTIPLEXED
+    }
+
+    private static final Logger LOGGER = Logger.getLogger("JupyterConnection");
+    private static final AtomicInteger CONNECTION_ID = new AtomicInteger();
+    private static final long REACTOR_CLOSE_TIMEOUT_MS = 5000;
+
     private final KernelConnectionProperties connProps;
+    private final IOMode ioMode;
 
     private boolean isConnected = false;
     private final ZMQ.Context ctx;
+    private final boolean ownsContext;
+    private final ReactorLoop reactor;
+    private final boolean ownsReactor;
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final CountDownLatch closedLatch = new CountDownLatch(1);
+    private final List<Runnable> closeListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<WireTrace>> wireTraceListeners = new CopyOnWriteArrayList<>();
 
     protected final HeartbeatChannel heartbeat;
     protected final ShellChannel shell;
@@ -26,47 +75,360 @@ public class JupyterConnection {
     protected final StdinChannel stdin;
     protected final IOPubChannel iopub;
 
-    private final Map<MessageType, ShellHandler> handlers;
+    // Indexed by MessageType#getId()
+    private final ShellHandler[] handlers;
+    private final ShellHandler[] controlHandlers;
 
-    public JupyterConnection(KernelConnectionProperties connProps) throws NoSuchAlgorithmException, InvalidKeyException {
+    private volatile HandlerExecutor shellExecutor;
+    private volatile HandlerExecutor controlExecutor;
+    private volatile ExecutionScheduler executionScheduler;
+    private volatile OutputRateLimiter outputRateLimiter;
+    private volatile MessageIdGenerator idGenerator;
+
+    private final ReentrantLock executionLock = new ReentrantLock();
+    // Guarded by the execution lock. Execute requests that were received and have not finished.
+    private final List<ShellReplyEnvironment> executions = new ArrayList<>();
+
+    private JupyterConnection(KernelConnectionProperties connProps, IOMode ioMode, ZMQ.Context ctx, boolean ownsContext, ReactorLoop sharedReactor) throws NoSuchAlgorithmException, InvalidKeyException {
         this.connProps = connProps;
-        this.ctx = ZMQ.context(1);
+        this.ioMode = ioMode;
+        this.ctx = ctx;
+        this.ownsContext = ownsContext;
 
         HMACGenerator hmacGenerator = connProps.createHMACGenerator();
 
-        this.heartbeat = new HeartbeatChannel(this.ctx, hmacGenerator);
+        this.heartbeat = new HeartbeatChannel(this.ctx, hmacGenerator, ioMode == IOMode.REACTOR);
         this.shell = new ShellChannel(this.ctx, hmacGenerator, false, this);
         this.control = new ShellChannel(this.ctx, hmacGenerator, true, this);
         this.stdin = new StdinChannel(this.ctx, hmacGenerator);
         this.iopub = new IOPubChannel(this.ctx, hmacGenerator);
 
-        this.handlers = new HashMap<>();
+        if (sharedReactor != null) {
+            this.reactor = sharedReactor;
+            this.ownsReactor = false;
+        } else {
+            if (ioMode == IOMode.MULTIPLEXED) {
+                ReactorLoop reactor = new ReactorLoop("Jupyter-IO-" + CONNECTION_ID.getAndIncrement(), this.ctx);
+                // The reactor is the only thread reading the sockets, don't let a bad message take it down.
+                reactor.onError(t -> {
+                    LOGGER.log(Level.SEVERE, "Error in " + reactor.getName() + ".", t);
+                    return 0;
+                });
+                this.reactor = reactor;
+            } else {
+                this.reactor = null;
+            }
+            this.ownsReactor = true;
+        }
+
+        this.handlers = new ShellHandler[MessageType.getTypeCount()];
+        this.controlHandlers = new ShellHandler[MessageType.getTypeCount()];
+
+        // Every session gets its own prefix, even when many share a JVM
+        this.setIdGenerator(MessageIdGenerator.sequential());
+    }
+
+    public JupyterConnection(KernelConnectionProperties connProps, IOMode ioMode) throws NoSuchAlgorithmException, InvalidKeyException {
+        this(connProps, ioMode, ZMQ.context(1), true, null);
+    }
+
+    /**
+     * Create a {@link IOMode#MULTIPLEXED multiplexed} connection that shares a context and
+     * reactor with other connections in the same JVM. The connection does not own either of them,
+     * closing the connection unregisters and closes its sockets but leaves the context open and the
+     * reactor running. The caller is responsible for starting the reactor and for closing both once
+     * all connections using them are closed.
+     *
+     * @param connProps the properties of the connection, including the ports to bind to
+     * @param ctx       the shared context to create the sockets in
+     * @param reactor   the shared reactor to register the sockets with
+     *
+     * @throws NoSuchAlgorithmException if the signature scheme in the {@code connProps} is not supported
+     * @throws InvalidKeyException      if the key in the {@code connProps} is not valid for the signature scheme
+     */
+    public JupyterConnection(KernelConnectionProperties connProps, ZMQ.Context ctx, ReactorLoop reactor) throws NoSuchAlgorithmException, InvalidKeyException {
+        this(connProps, IOMode.MULTIPLEXED, ctx, false, reactor);
+    }
+
+    public JupyterConnection(KernelConnectionProperties connProps) throws NoSuchAlgorithmException, InvalidKeyException {
+        this(connProps, IOMode.POLLING);
     }
 
     public void connect() {
         if (!isConnected) {
-            forEachSocket(s -> s.bind(this.connProps));
+            if (this.reactor != null) {
+                // The reactor must stay free to answer heartbeats so shell handlers (which
+                // may evaluate code for a long time) get their own thread unless told otherwise.
+                // A reactor may serve many connections so virtual threads are preferred, they
+                // don't cost an OS thread per connection.
+                if (this.shellExecutor == null)
+                    this.shellExecutor = HandlerExecutors.singleVirtualThread(this.reactor.getName() + "-shell");
+                // Control messages get a lane of their own so they are never queued behind
+                // a shell handler.
+                if (this.controlExecutor == null)
+                    this.controlExecutor = HandlerExecutors.singleVirtualThread(this.reactor.getName() + "-control");
+
+                forEachSocket(s -> s.bind(this.connProps, this.reactor));
+                if (this.ownsReactor)
+                    this.reactor.start();
+            } else {
+                forEachSocket(s -> s.bind(this.connProps));
+            }
             PublishStatus publishStatus = PublishStatus.STARTING;
             this.getIOPub().sendMessage(new Message<>(null, PublishStatus.MESSAGE_TYPE, publishStatus));
             this.isConnected = true;
         }
     }
 
+    public IOMode getIOMode() {
+        return this.ioMode;
+    }
+
+    public HeartbeatChannel getHeartbeat() {
+        return this.heartbeat;
+    }
+
     public IOPubChannel getIOPub() {
         return this.iopub;
     }
 
+    /**
+     * Set the executor that runs shell handlers. By default handlers run directly on the thread
+     * reading the shell socket except in {@link IOMode#MULTIPLEXED} mode where a dedicated worker
+     * thread, virtual if possible, is used so that evaluating code does not stall the other sockets.
+     * <p>
+     * The executor should run tasks in the order that they are submitted, messages on the shell
+     * channel are expected to be handled in order. Unordered executors such as
+     * {@link HandlerExecutors#virtualThreadPerTask(String)} should be paired with an
+     * {@link #setExecutionScheduler(ExecutionScheduler) execution scheduler}.
+     * <p>
+     * The connection takes ownership of the executor and shuts it down when it is closed.
+     *
+     * @param executor the executor to run shell handlers on. Must be set before {@link #connect()}.
+     */
+    public void setShellExecutor(HandlerExecutor executor) {
+        this.shellExecutor = executor;
+    }
+
+    public HandlerExecutor getShellExecutor() {
+        HandlerExecutor executor = this.shellExecutor;
+        return executor != null ? executor : HandlerExecutors.direct();
+    }
+
+    /**
+     * Get the executor that runs shell handlers for a specific type of message. This is the
+     * {@link #setExecutionScheduler(ExecutionScheduler) execution scheduler} for {@code execute_request}s
+     * if one is set and the {@link #getShellExecutor() shell executor} otherwise.
+     *
+     * @param type the type of the message to handle
+     *
+     * @return the executor to run the handler on
+     */
+    public HandlerExecutor getShellExecutor(MessageType<?> type) {
+        ExecutionScheduler scheduler = this.executionScheduler;
+        if (scheduler != null && type == MessageType.EXECUTE_REQUEST)
+            return scheduler;
+        return this.getShellExecutor();
+    }
+
+    /**
+     * Run {@code execute_request}s on a scheduler instead of the {@link #setShellExecutor(HandlerExecutor)
+     * shell executor}. The thread reading the shell socket hands execute requests off to the
+     * scheduler's ordered queue and is free to keep answering other requests such as
+     * {@code complete_request}, {@code inspect_request} and {@code comm_info_request} while a
+     * cell is running. Those handlers may therefore run concurrently with {@code eval}.
+     * <p>
+     * The connection takes ownership of the scheduler and shuts it down when it is closed.
+     *
+     * @param scheduler the scheduler to run execute requests on or {@code null} to run them
+     *                  on the shell executor. Must be set before {@link #connect()}.
+     */
+    public void setExecutionScheduler(ExecutionScheduler scheduler) {
+        this.executionScheduler = scheduler;
+    }
+
+    public ExecutionScheduler getExecutionScheduler() {
+        return this.executionScheduler;
+    }
+
+    /**
+     * Set the executor that runs control handlers. By default handlers run directly on the thread
+     * reading the control socket except in {@link IOMode#MULTIPLEXED} mode where a dedicated worker
+     * thread, virtual if possible, is used. In either case control handlers never share a thread with shell handlers
+     * which allows messages such as {@code interrupt_request} to be handled while a shell handler
+     * is busy.
+     * <p>
+     * The connection takes ownership of the executor and shuts it down when it is closed.
+     *
+     * @param executor the executor to run control handlers on. Must be set before {@link #connect()}.
+     */
+    public void setControlExecutor(HandlerExecutor executor) {
+        this.controlExecutor = executor;
+    }
+
+    public HandlerExecutor getControlExecutor() {
+        HandlerExecutor executor = this.controlExecutor;
+        return executor != null ? executor : HandlerExecutors.direct();
+    }
+
     public <T> void setHandler(MessageType<T> type, ShellHandler<T> handler) {
-        this.handlers.put(type, handler);
+        this.handlers[type.getId()] = handler;
     }
 
     @SuppressWarnings("unchecked")
     public <T> ShellHandler<T> getHandler(MessageType<T> type) {
-        return this.handlers.get(type);
+        return type == null ? null : this.handlers[type.getId()];
+    }
+
+    /**
+     * Set a handler for messages received on the control channel. Control messages are looked
+     * up here first before falling back to the handlers {@link #setHandler(MessageType, ShellHandler)
+     * shared} with the shell channel.
+     *
+     * @param type    the type of message to handle
+     * @param handler the handler to invoke, on the {@link #setControlExecutor(HandlerExecutor) control executor}
+     * @param <T>     the type of the message content
+     */
+    public <T> void setControlHandler(MessageType<T> type, ShellHandler<T> handler) {
+        this.controlHandlers[type.getId()] = handler;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> ShellHandler<T> getControlHandler(MessageType<T> type) {
+        if (type == null)
+            return null;
+        ShellHandler<T> handler = this.controlHandlers[type.getId()];
+        return handler != null ? handler : this.handlers[type.getId()];
+    }
+
+    /**
+     * Limit the rate at which handlers may publish stream output. The limiter is shared by all
+     * reply environments so the limit applies to the connection as a whole. Stream messages are
+     * counted before they are {@link IOPubChannel#setStreamCoalescing(long, java.util.concurrent.TimeUnit, int)
+     * coalesced}.
+     *
+     * @param limiter the limiter to apply or {@code null} to publish all output
+     */
+    public void setOutputRateLimiter(OutputRateLimiter limiter) {
+        this.outputRateLimiter = limiter;
+    }
+
+    public OutputRateLimiter getOutputRateLimiter() {
+        return this.outputRateLimiter;
+    }
+
+    /**
+     * Record a summary of every message that goes through the shell, control, stdin and iopub
+     * channels. The trace may be set at any time, for example to start tracing a misbehaving
+     * kernel and {@link WireTrace#dump() dump} the recent traffic.
+     *
+     * @param trace the trace to record to or {@code null} to stop tracing
+     */
+    public void setWireTrace(WireTrace trace) {
+        this.shell.setWireTrace(trace);
+        this.control.setWireTrace(trace);
+        this.stdin.setWireTrace(trace);
+        this.iopub.setWireTrace(trace);
+        this.wireTraceListeners.forEach(l -> l.accept(trace));
+    }
+
+    public WireTrace getWireTrace() {
+        return this.shell.getWireTrace();
+    }
+
+    /**
+     * Register a callback to run each time the {@link #setWireTrace(WireTrace) wire trace} is set.
+     * The callback is also run right away with the current trace.
+     *
+     * @param listener the callback to run with the new trace, which is {@code null} when tracing
+     *                 is stopped
+     */
+    public void onWireTraceChanged(Consumer<WireTrace> listener) {
+        this.wireTraceListeners.add(listener);
+        listener.accept(this.getWireTrace());
+    }
+
+    /**
+     * Set the generator for the ids of the messages sent in reply to the messages this connection
+     * receives. By default each connection has its own {@link MessageIdGenerator#sequential()
+     * sequential} generator with a prefix chosen when the connection is created.
+     *
+     * @param generator the generator to use
+     */
+    public void setIdGenerator(MessageIdGenerator generator) {
+        if (generator == null)
+            throw new NullPointerException("generator");
+        this.idGenerator = generator;
+        this.shell.setIdGenerator(generator);
+        this.control.setIdGenerator(generator);
+        this.stdin.setIdGenerator(generator);
+    }
+
+    public MessageIdGenerator getIdGenerator() {
+        return this.idGenerator;
     }
 
     public ShellReplyEnvironment prepareReplyEnv(ShellChannel shell, MessageContext context) {
-        return new ShellReplyEnvironment(shell, this.stdin, this.iopub, context);
+        return new ShellReplyEnvironment(shell, this.stdin, this.iopub, context, this.outputRateLimiter);
+    }
+
+    void executionReceived(ShellReplyEnvironment env) {
+        this.executionLock.lock();
+        try {
+            this.executions.add(env);
+        } finally {
+            this.executionLock.unlock();
+        }
+    }
+
+    /**
+     * @return false if the execution was aborted by an interrupt while it was queued and must
+     *         not run.
+     */
+    boolean startExecution(ShellReplyEnvironment env) {
+        this.executionLock.lock();
+        try {
+            if (!this.executions.contains(env))
+                return false;
+            env.executionStarted = true;
+            return true;
+        } finally {
+            this.executionLock.unlock();
+        }
+    }
+
+    void finishExecution(ShellReplyEnvironment env) {
+        this.executionLock.lock();
+        try {
+            this.executions.remove(env);
+        } finally {
+            this.executionLock.unlock();
+        }
+    }
+
+    /**
+     * Apply an {@code interrupt_request} to the execute requests that were received before it.
+     * An execution that is running has its {@link ShellReplyEnvironment#isInterruptRequested()
+     * interrupt flag} set and one that is still queued is aborted, it is answered with an error
+     * without running its handler.
+     * <p>
+     * The channels call this as soon as they read an interrupt request, before its handler runs.
+     */
+    void interruptExecutions() {
+        this.executionLock.lock();
+        try {
+            Iterator<ShellReplyEnvironment> it = this.executions.iterator();
+            while (it.hasNext()) {
+                ShellReplyEnvironment env = it.next();
+                if (env.executionStarted) {
+                    env.requestInterrupt();
+                } else {
+                    it.remove();
+                }
+            }
+        } finally {
+            this.executionLock.unlock();
+        }
     }
 
     private void forEachSocket(Consumer<JupyterSocket> consumer) {
@@ -77,12 +439,91 @@ public class JupyterConnection {
         consumer.accept(this.iopub);
     }
 
+    /**
+     * Register a callback to run after the connection is {@link #close() closed}.
+     *
+     * @param listener the callback to run, on the thread that closed the connection
+     */
+    public void onClose(Runnable listener) {
+        this.closeListeners.add(listener);
+    }
+
+    public boolean isClosed() {
+        return this.closed.get();
+    }
+
     public void close() {
-        forEachSocket(JupyterSocket::close);
-        this.ctx.close();
+        if (!this.closed.compareAndSet(false, true))
+            return;
+
+        if (this.reactor != null && !this.ownsReactor) {
+            this.detachFromSharedReactor();
+        } else {
+            if (this.reactor != null) {
+                // Let the reactor finish up with the sockets before they are closed from under it.
+                this.reactor.shutdown();
+                if (!this.reactor.inLoop()) {
+                    try {
+                        this.reactor.join(REACTOR_CLOSE_TIMEOUT_MS);
+                    } catch (InterruptedException ignored) { }
+                }
+            }
+
+            forEachSocket(JupyterSocket::close);
+        }
+
+        if (this.shellExecutor != null)
+            this.shellExecutor.shutdown();
+        if (this.controlExecutor != null)
+            this.controlExecutor.shutdown();
+        if (this.executionScheduler != null)
+            this.executionScheduler.shutdown();
+
+        if (this.ownsContext)
+            this.ctx.close();
+
+        this.closedLatch.countDown();
+        this.closeListeners.forEach(Runnable::run);
+    }
+
+    private void detachFromSharedReactor() {
+        // The shared reactor may be in the middle of a poll on the sockets so they are
+        // unregistered and closed on the reactor thread.
+        CountDownLatch detached = new CountDownLatch(1);
+        Runnable detach = () -> {
+            forEachSocket(s -> {
+                this.reactor.unregister(s);
+                s.close();
+            });
+            detached.countDown();
+        };
+
+        if (this.reactor.inLoop() || !this.reactor.isRunning()) {
+            detach.run();
+            return;
+        }
+
+        this.reactor.doNext(detach);
+        try {
+            if (!detached.await(REACTOR_CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                LOGGER.log(Level.WARNING, "Timed out waiting for " + this.reactor.getName() + " to release the connection's sockets.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     public void waitUntilClose() {
         forEachSocket(JupyterSocket::waitUntilClose);
+
+        // Sockets registered with a reactor share its thread, a shared reactor outlives
+        // the connection so wait for the connection itself to close.
+        if (this.reactor != null) {
+            try {
+                if (this.ownsReactor)
+                    this.reactor.join();
+                else
+                    this.closedLatch.await();
+            } catch (InterruptedException ignored) { }
+        }
     }
 }
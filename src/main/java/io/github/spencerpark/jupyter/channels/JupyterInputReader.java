@@ -0,0 +1,167 @@
+package io.github.spencerpark.jupyter.channels;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A reader over the input from the frontend. The lines the frontend sends back are already
+ * strings so unlike reading through a {@link JupyterInputStream} wrapped in an {@link
+ * java.io.InputStreamReader}, nothing is encoded just to be decoded again and reads copy
+ * characters straight out of the line. {@link #readLine()} hands back the line from the frontend
+ * as is.
+ * <p>
+ * A read waiting for the frontend fails with an {@link InterruptedIOException} under the same
+ * conditions as the {@link JupyterInputStream}.
+ */
+public class JupyterInputReader extends Reader {
+    private volatile ShellReplyEnvironment env;
+    private volatile boolean enabled;
+    private volatile Runnable beforeRequest;
+    private volatile long timeoutNanos = 0;
+
+    private final ReentrantLock readLock = new ReentrantLock();
+
+    // Guarded by the read lock
+    private String line = null;
+    private int linePos = 0;
+
+    public JupyterInputReader(ShellReplyEnvironment env, boolean enabled) {
+        this.env = env;
+        this.enabled = enabled;
+    }
+
+    public JupyterInputReader() {
+        this(null, false);
+    }
+
+    public void setEnv(ShellReplyEnvironment env) {
+        this.env = env;
+    }
+
+    public void retractEnv(ShellReplyEnvironment env) {
+        if (this.env == env)
+            this.env = null;
+    }
+
+    public boolean isAttached() {
+        return this.env != null;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @see JupyterInputStream#setBeforeRequest(Runnable)
+     */
+    public void setBeforeRequest(Runnable beforeRequest) {
+        this.beforeRequest = beforeRequest;
+    }
+
+    /**
+     * @see JupyterInputStream#setReadTimeout(long, TimeUnit)
+     */
+    public void setReadTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0)
+            throw new IllegalArgumentException("timeout must be >= 0 but was " + timeout);
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    public long getReadTimeout(TimeUnit unit) {
+        return unit.convert(this.timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Guarded by the read lock
+    private boolean fill() throws IOException {
+        if (this.line != null && this.linePos < this.line.length())
+            return true;
+
+        this.line = null;
+        ShellReplyEnvironment env = this.env;
+        if (env == null || !this.enabled)
+            return false;
+
+        this.line = JupyterInputStream.requestLine(env, this.timeoutNanos, this.beforeRequest);
+        this.linePos = 0;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        this.readLock.lock();
+        try {
+            if (!this.fill())
+                return -1;
+            return this.line.charAt(this.linePos++);
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public int read(char[] into, int off, int len) throws IOException {
+        Objects.requireNonNull(into, "Target buffer cannot be null");
+        if (off < 0 || len < 0 || len > into.length - off)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+
+        this.readLock.lock();
+        try {
+            if (!this.fill())
+                return -1;
+
+            // Only take what is buffered so that there is no extra blocking read.
+            int amount = Math.min(this.line.length() - this.linePos, len);
+            this.line.getChars(this.linePos, this.linePos + amount, into, off);
+            this.linePos += amount;
+
+            return amount;
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /**
+     * Read the rest of the current line or, if nothing is buffered, the next line from the
+     * frontend.
+     *
+     * @return the line without the line separator or null if the end of the input was reached
+     */
+    public String readLine() throws IOException {
+        this.readLock.lock();
+        try {
+            if (!this.fill())
+                return null;
+
+            String rest = this.line.substring(this.linePos);
+            this.line = null;
+
+            String separator = System.lineSeparator();
+            return rest.endsWith(separator) ? rest.substring(0, rest.length() - separator.length()) : rest;
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean ready() {
+        this.readLock.lock();
+        try {
+            return this.line != null && this.linePos < this.line.length();
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() { }
+}
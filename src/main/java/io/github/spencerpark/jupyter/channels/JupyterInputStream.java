@@ -1,14 +1,39 @@
 package io.github.spencerpark.jupyter.channels;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.charset.Charset;
 import java.util.Objects;
-
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An input stream that asks the frontend for a line of input each time its buffer runs dry.
+ * <p>
+ * Reads copy as much of the buffered line as fits and only ask the frontend for more when
+ * nothing is buffered. A read waiting for the frontend fails with an {@link
+ * InterruptedIOException} if the thread is interrupted, the request is {@link
+ * ShellReplyEnvironment#cancelInputRequests() cancelled} or the {@link
+ * #setReadTimeout(long, TimeUnit) read timeout} runs out.
+ */
 public class JupyterInputStream extends InputStream {
     private final Charset encoding;
 
-    private ShellReplyEnvironment env;
-    private boolean enabled;
+    private volatile ShellReplyEnvironment env;
+    private volatile boolean enabled;
+    private volatile Runnable beforeRequest;
+    private volatile long timeoutNanos = 0;
+
+    // A lock rather than a monitor so that a virtual thread waiting for input parks instead of
+    // pinning its carrier thread.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Guarded by the lock
     private byte[] data = null;
     private int bufferPos = 0;
 
@@ -31,6 +56,30 @@ public class JupyterInputStream extends InputStream {
         this.env = env;
     }
 
+    /**
+     * @param beforeRequest called each time right before input is requested from the frontend,
+     *                      for example to flush a prompt that was written to the output. May be
+     *                      null.
+     */
+    public void setBeforeRequest(Runnable beforeRequest) {
+        this.beforeRequest = beforeRequest;
+    }
+
+    /**
+     * @param timeout how long a read waits for the frontend before failing, or {@code 0} to
+     *                wait as long as it takes
+     * @param unit    the unit of the {@code timeout}
+     */
+    public void setReadTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0)
+            throw new IllegalArgumentException("timeout must be >= 0 but was " + timeout);
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    public long getReadTimeout(TimeUnit unit) {
+        return unit.convert(this.timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
     public void setEnabled(boolean enabled) {
         this.enabled = enabled;
     }
@@ -52,39 +101,67 @@ public class JupyterInputStream extends InputStream {
         return enabled;
     }
 
-    private byte[] readFromFrontend() {
-        if (this.enabled)
-            return this.env.readFromStdIn().getBytes(this.encoding);
-        return new byte[0];
+    /**
+     * Ask the frontend for a line of input and wait for it.
+     *
+     * @return the line including a line separator
+     */
+    static String requestLine(ShellReplyEnvironment env, long timeoutNanos, Runnable beforeRequest) throws IOException {
+        if (beforeRequest != null)
+            beforeRequest.run();
+
+        CompletableFuture<String> input = timeoutNanos > 0
+                ? env.requestInput("", false, timeoutNanos, TimeUnit.NANOSECONDS)
+                : env.requestInput("", false);
+        try {
+            return input.get() + System.lineSeparator();
+        } catch (InterruptedException e) {
+            input.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for input.");
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("The input request was cancelled.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException)
+                throw new InterruptedIOException(e.getCause().getMessage());
+            throw new IOException("Failed to read input from the frontend.", e.getCause());
+        }
+    }
+
+    /**
+     * Make sure there is buffered data, asking the frontend for more if the buffer is empty.
+     * Guarded by the lock.
+     *
+     * @return false if the end of the stream was reached
+     */
+    private boolean fill() throws IOException {
+        if (this.data != null && this.bufferPos < this.data.length)
+            return true;
+
+        this.data = null;
+        ShellReplyEnvironment env = this.env;
+        if (env == null || !this.enabled)
+            return false;
+
+        this.data = requestLine(env, this.timeoutNanos, this.beforeRequest).getBytes(this.encoding);
+        this.bufferPos = 0;
+        return true;
     }
 
     @Override
-    public synchronized int read() {
-        if (this.data == null) {
-            if (this.env != null) {
-                //Buffer is empty and there is an environment to read from so
-                //ask the frontend for input
-                this.data = this.readFromFrontend();
-                this.bufferPos = 0;
-            } else {
+    public int read() throws IOException {
+        this.lock.lock();
+        try {
+            if (!this.fill())
                 return -1;
-            }
+            return this.data[this.bufferPos++] & 0xFF;
+        } finally {
+            this.lock.unlock();
         }
-        if (this.bufferPos >= this.data.length) {
-            this.data = null;
-            if (this.env != null && this.enabled) {
-                this.data = this.readFromFrontend();
-                this.bufferPos = 0;
-            } else {
-                return -1;
-            }
-        }
-
-        return this.data[this.bufferPos++];
     }
 
     @Override
-    public int read(byte[] into, int intoOffset, int len) {
+    public int read(byte[] into, int intoOffset, int len) throws IOException {
         Objects.requireNonNull(into, "Target buffer cannot be null");
 
         if (intoOffset < 0)
@@ -99,50 +176,29 @@ public class JupyterInputStream extends InputStream {
         if (len == 0)
             return 0;
 
-        // If the first read "ends" then the entire read "ends". Otherwise
-        // any extra we can batch into this read is great!
-        int c = this.read();
-        if (c == -1)
-            return -1;
-
-        // Save the first read character, the rest will start at `intoOffset + 1`.
-        into[intoOffset] = (byte) c;
-
-        // Check how much we can read without blocking.
-        int available = this.available();
-
-        // If no extra characters are available immediately then we will stop here
-        // with only the single first character read.
-        if (available <= 0)
-            return 1;
-
-        // If the entire `len` is available in the buffer then that is how much
-        // we will read. Otherwise we only want to read the amount available so that
-        // there is no extra blocking read.
-        int amountToTakeFromBuffer = Math.min(available, len);
-
-        System.arraycopy(
-                // Copy from the buffered data starting at the current position.
-                this.data, this.bufferPos,
-                // Copy into the given buffer starting at `intoOffset + 1` because
-                // we already read a single character. Don't worry about indexing
-                // issues as these were checked at the start.
-                into, intoOffset + 1,
-                // Copy whatever amount we decided we could take without blocking
-                // while remaining <= `len`.
-                amountToTakeFromBuffer
-        );
+        this.lock.lock();
+        try {
+            if (!this.fill())
+                return -1;
 
-        // Make sure to mark the amount we have taken from the buffer.
-        this.bufferPos += amountToTakeFromBuffer;
+            // Only take what is buffered so that there is no extra blocking read.
+            int amount = Math.min(this.data.length - this.bufferPos, len);
+            System.arraycopy(this.data, this.bufferPos, into, intoOffset, amount);
+            this.bufferPos += amount;
 
-        // We have read what we copied into the buffer plus the initial single
-        // character that was read.
-        return amountToTakeFromBuffer + 1;
+            return amount;
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     @Override
     public int available() {
-        return (this.data != null ? this.data.length : 0) - this.bufferPos;
+        this.lock.lock();
+        try {
+            return this.data != null ? this.data.length - this.bufferPos : 0;
+        } finally {
+            this.lock.unlock();
+        }
     }
 }
@@ -1,16 +1,80 @@
 package io.github.spencerpark.jupyter.channels;
 
-import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
 
-public class JupyterOutputStream extends ByteArrayOutputStream {
-    private static final int INITIAL_BUFFER_CAP = 1024;
+/**
+ * A utf-8 output stream that publishes what is written to it each time it is flushed.
+ * <p>
+ * Bytes are staged in a fixed size chunk and decoded into the pending text whenever the chunk
+ * fills up or the stream is flushed so the stream never holds more than one chunk of bytes no
+ * matter how much is written between flushes. The decoder keeps its state between flushes, a
+ * multi-byte character that is split across two flushes is published in one piece with the
+ * second flush. The chunk and the pending text are reused for the lifetime of the stream.
+ * <p>
+ * Output may also be published without an explicit flush by setting a {@link
+ * #setFlushPolicy(int, long, TimeUnit) flush policy}, once enough output is buffered or when
+ * the oldest buffered output has waited long enough. Without a flush threshold the output is
+ * still published once {@link #DEFAULT_FLUSH_LIMIT} characters are buffered.
+ * <p>
+ * The publish callback runs without holding the lock that writers take, so a slow publish does
+ * not hold up other threads printing to the stream. Output is still published in the order it
+ * was written and {@link #flush()} returns only after everything written before it is published.
+ */
+public class JupyterOutputStream extends OutputStream {
+    /**
+     * The number of characters that may be buffered before they are published when the flush
+     * policy does not set a threshold.
+     */
+    public static final int DEFAULT_FLUSH_LIMIT = 64 * 1024;
 
-    private ShellReplyEnvironment env;
+    private static final int CHUNK_SIZE = 8 * 1024;
+    // Don't hold on to the text buffer after publishing an unusually large amount of output.
+    private static final int PENDING_RETAIN_LIMIT = 64 * 1024;
+
+    private static final class Publication {
+        private final ShellReplyEnvironment env;
+        private final String text;
+
+        private Publication(ShellReplyEnvironment env, String text) {
+            this.env = env;
+            this.text = text;
+        }
+    }
+
+    private volatile ShellReplyEnvironment env;
     private final BiConsumer<ShellReplyEnvironment, String> write;
 
+    // A lock rather than a monitor so that a virtual thread waiting to print parks instead of
+    // pinning its carrier thread.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Guarded by the lock. In write mode, holds the bytes that are not yet decoded.
+    private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+    private final CharBuffer decoded = CharBuffer.allocate(CHUNK_SIZE);
+    private final CharsetDecoder decoder = JupyterSocket.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private StringBuilder pending = new StringBuilder();
+    private int flushThreshold = 0;
+    private long maxLatencyNanos = 0;
+    private ScheduledFuture<?> scheduledFlush;
+
+    // Offered to while holding the lock so it is in the order the output was written, and only
+    // drained while holding the publish lock so it is published in that same order.
+    private final Queue<Publication> outbox = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock publishLock = new ReentrantLock();
+
     public JupyterOutputStream(ShellReplyEnvironment env, BiConsumer<ShellReplyEnvironment, String> write) {
-        super(INITIAL_BUFFER_CAP);
         this.env = env;
         this.write = write;
     }
@@ -19,27 +83,228 @@ public class JupyterOutputStream extends ByteArrayOutputStream {
         this(null, write);
     }
 
+    /**
+     * Attach the stream to a new environment. Output buffered for the previous environment is
+     * published to it first.
+     *
+     * @param env the environment to publish to
+     */
     public void setEnv(ShellReplyEnvironment env) {
-        this.env = env;
+        this.lock.lock();
+        try {
+            if (this.env != env && this.env != null)
+                this.takePending();
+            this.env = env;
+        } finally {
+            this.lock.unlock();
+        }
+        this.drain();
     }
 
+    /**
+     * Publish what is buffered and detach the stream if it is attached to {@code env}.
+     *
+     * @param env the environment to detach from
+     */
     public void retractEnv(ShellReplyEnvironment env) {
-        if (this.env == env)
-            this.env = null;
+        this.lock.lock();
+        try {
+            if (this.env == env) {
+                this.takePending();
+                this.env = null;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        this.drain();
+    }
+
+    /**
+     * Publish output without waiting for an explicit {@link #flush()}.
+     *
+     * @param flushThreshold publish as soon as this much output is buffered, or {@code 0} to
+     *                       publish once {@link #DEFAULT_FLUSH_LIMIT} characters are buffered
+     * @param maxLatency     publish buffered output at most this long after it was written, or
+     *                       {@code 0} to wait for an explicit flush
+     * @param unit           the unit of {@code maxLatency}
+     */
+    public void setFlushPolicy(int flushThreshold, long maxLatency, TimeUnit unit) {
+        if (flushThreshold < 0)
+            throw new IllegalArgumentException("flushThreshold must be >= 0 but was " + flushThreshold);
+        if (maxLatency < 0)
+            throw new IllegalArgumentException("maxLatency must be >= 0 but was " + maxLatency);
+
+        this.lock.lock();
+        try {
+            this.flushThreshold = flushThreshold;
+            this.maxLatencyNanos = unit.toNanos(maxLatency);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int getFlushThreshold() {
+        return this.flushThreshold;
+    }
+
+    public long getMaxLatency(TimeUnit unit) {
+        return unit.convert(this.maxLatencyNanos, TimeUnit.NANOSECONDS);
     }
 
     public boolean isAttached() {
         return this.env != null;
     }
 
+    @Override
+    public void write(int b) {
+        this.lock.lock();
+        try {
+            if (!this.chunk.hasRemaining())
+                this.decodeChunk();
+            this.chunk.put((byte) b);
+            this.afterWrite();
+        } finally {
+            this.lock.unlock();
+        }
+        if (!this.outbox.isEmpty())
+            this.drain();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+
+        // A large write is published in pieces of at most the flush limit as it is decoded.
+        do {
+            this.lock.lock();
+            try {
+                int limit = this.flushLimit();
+                while (len > 0 && this.pending.length() < limit) {
+                    if (!this.chunk.hasRemaining())
+                        this.decodeChunk();
+                    int n = Math.min(len, this.chunk.remaining());
+                    this.chunk.put(b, off, n);
+                    off += n;
+                    len -= n;
+                }
+                this.afterWrite();
+            } finally {
+                this.lock.unlock();
+            }
+            if (!this.outbox.isEmpty())
+                this.drain();
+        } while (len > 0);
+    }
+
+    // Guarded by the lock
+    private int flushLimit() {
+        return this.flushThreshold > 0 ? this.flushThreshold : DEFAULT_FLUSH_LIMIT;
+    }
+
+    // Guarded by the lock
+    private void afterWrite() {
+        if (this.chunk.position() + this.pending.length() >= this.flushLimit()) {
+            this.takePending();
+        } else if (this.maxLatencyNanos > 0 && this.scheduledFlush == null) {
+            this.scheduledFlush = HandlerExecutors.sharedScheduler().schedule(this::flushExpired, this.maxLatencyNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void flushExpired() {
+        this.lock.lock();
+        try {
+            // A flush since this task was scheduled already published the output
+            if (this.scheduledFlush == null)
+                return;
+            this.scheduledFlush = null;
+            this.takePending();
+        } finally {
+            this.lock.unlock();
+        }
+        this.drain();
+    }
+
+    /**
+     * Decode as much of the chunk as possible into the pending text. An incomplete character at
+     * the end of the chunk is moved to the front to be completed by the next write.
+     */
+    private void decodeChunk() {
+        this.chunk.flip();
+        while (true) {
+            // Always reports underflow or overflow, errors are replaced.
+            boolean overflow = this.decoder.decode(this.chunk, this.decoded, false).isOverflow();
+            this.decoded.flip();
+            this.pending.append(this.decoded);
+            this.decoded.clear();
+            if (!overflow)
+                break;
+        }
+        this.chunk.compact();
+    }
+
+    /**
+     * @return the amount of output waiting for the next flush. This is the number of characters
+     *         already decoded plus the number of bytes that are not decoded yet.
+     */
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.chunk.position() + this.pending.length();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
     @Override
     public void flush() {
-        if (this.env != null) {
-            String contents = new String(super.buf, 0, super.count, JupyterSocket.UTF_8);
-            if (!contents.isEmpty())
-                this.write.accept(this.env, contents);
+        this.lock.lock();
+        try {
+            this.takePending();
+        } finally {
+            this.lock.unlock();
+        }
+        this.drain();
+    }
+
+    /**
+     * Publish everything in the outbox, in order. Must not be called while holding the lock.
+     * Waits for a publish that is already running on another thread so that the output taken by
+     * the caller is published by the time this returns.
+     */
+    private void drain() {
+        this.publishLock.lock();
+        try {
+            Publication next;
+            while ((next = this.outbox.poll()) != null)
+                this.write.accept(next.env, next.text);
+        } finally {
+            this.publishLock.unlock();
+        }
+    }
+
+    // Guarded by the lock. Moves the buffered output to the outbox to be published by drain().
+    private void takePending() {
+        if (this.scheduledFlush != null) {
+            this.scheduledFlush.cancel(false);
+            this.scheduledFlush = null;
         }
 
-        super.reset();
+        this.decodeChunk();
+
+        ShellReplyEnvironment env = this.env;
+        if (env != null && this.pending.length() > 0)
+            this.outbox.offer(new Publication(env, this.pending.toString()));
+
+        if (this.pending.capacity() > PENDING_RETAIN_LIMIT)
+            this.pending = new StringBuilder();
+        else
+            this.pending.setLength(0);
+
+        // Output without an environment is dropped, along with any partial character.
+        if (env == null) {
+            this.chunk.clear();
+            this.decoder.reset();
+        }
     }
 }
@@ -2,8 +2,6 @@ package io.github.spencerpark.jupyter.channels;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
 import com.google.gson.reflect.TypeToken;
 import io.github.spencerpark.jupyter.kernel.ExpressionValue;
 import io.github.spencerpark.jupyter.kernel.KernelConnectionProperties;
@@ -15,10 +13,14 @@ import io.github.spencerpark.jupyter.messages.reply.ErrorReply;
 import io.github.spencerpark.jupyter.messages.request.HistoryRequest;
 import org.zeromq.SocketType;
 import org.zeromq.ZMQ;
+import org.zeromq.ZMQException;
 
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public abstract class JupyterSocket extends ZMQ.Socket {
@@ -35,16 +37,14 @@ public abstract class JupyterSocket extends ZMQ.Socket {
             .registerTypeAdapter(ExpressionValue.class, ExpressionValueAdapter.INSTANCE)
             .create();
     private static final Gson gson = new GsonBuilder()
-            .registerTypeAdapter(KernelTimestamp.class, KernelTimestampAdapter.INSTANCE)
-            .registerTypeAdapter(Header.class, HeaderAdapter.INSTANCE)
-            .registerTypeAdapter(MessageType.class, MessageTypeAdapter.INSTANCE)
-            .registerTypeAdapter(PublishStatus.class, PublishStatusAdapter.INSTANCE)
             .registerTypeAdapter(HistoryRequest.class, HistoryRequestAdapter.INSTANCE)
             .registerTypeHierarchyAdapter(ReplyType.class, new ReplyTypeAdapter(replyGson))
+            // Streaming adapters for the headers and common contents, takes precedence over the above
+            .registerTypeAdapterFactory(MessageContentAdapterFactory.INSTANCE)
             //.setPrettyPrinting()
             .create();
-    private static final JsonParser json = new JsonParser();
     private static final byte[] EMPTY_JSON_OBJECT = "{}".getBytes(UTF_8);
+    private static final int SEND_BUFFER_RETAIN_LIMIT = 256 * 1024;
     private static final Type JSON_OBJ_AS_MAP = new TypeToken<Map<String, Object>>() {
     }.getType();
 
@@ -55,10 +55,30 @@ public abstract class JupyterSocket extends ZMQ.Socket {
     protected final Logger logger;
     protected boolean closed;
 
+    // A lock rather than a monitor so that a virtual thread waiting on the socket parks
+    // instead of pinning its carrier thread.
+    private final ReentrantLock ioLock = new ReentrantLock();
+
+    // Guarded by the ioLock, set by recvFrame.
+    private boolean lastFrameHasMore;
+
+    // Guarded by the ioLock, reused for encoding each outgoing message.
+    private final Utf8Buffer sendBuffer = new Utf8Buffer();
+
+    // Guarded by the ioLock, the hex encoded signature of the message being sent.
+    private final byte[] signatureBuffer;
+
+    // Guarded by the ioLock
+    private final StatusMessageEncoder statusEncoder = new StatusMessageEncoder();
+
+    private volatile WireTrace wireTrace;
+    private volatile MessageIdGenerator idGenerator;
+
     protected JupyterSocket(ZMQ.Context context, SocketType type, HMACGenerator hmacGenerator, Logger logger) {
         super(context, type);
         this.ctx = context;
         this.hmacGenerator = hmacGenerator;
+        this.signatureBuffer = new byte[hmacGenerator.getSignatureLength()];
         logger.setParent(JUPYTER_LOGGER);
         this.logger = logger;
         this.closed = false;
@@ -66,53 +86,147 @@ public abstract class JupyterSocket extends ZMQ.Socket {
 
     public abstract void bind(KernelConnectionProperties connProps);
 
-    public synchronized Message<?> readMessage() {
+    /**
+     * Bind the socket and register it with a shared {@link ReactorLoop} instead of
+     * starting a dedicated loop for it. Sockets that never read incoming messages have
+     * nothing to register and are simply {@link #bind(KernelConnectionProperties) bound}.
+     *
+     * @param connProps the connection properties to bind with
+     * @param reactor   the reactor that owns reading from this socket. The caller is
+     *                  responsible for starting and stopping it.
+     */
+    public void bind(KernelConnectionProperties connProps, ReactorLoop reactor) {
+        this.bind(connProps);
+    }
+
+    /**
+     * Record a summary of every message sent and received by this socket in the {@code trace}.
+     *
+     * @param trace the trace to record to or null to stop recording
+     */
+    public void setWireTrace(WireTrace trace) {
+        this.wireTrace = trace;
+    }
+
+    public WireTrace getWireTrace() {
+        return this.wireTrace;
+    }
+
+    /**
+     * Give the messages read from this socket an {@link Message#setIdGenerator(MessageIdGenerator)
+     * id generator} for the replies to them.
+     *
+     * @param idGenerator the generator or {@code null} to use the shared generator
+     */
+    public void setIdGenerator(MessageIdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+
+    public Message<?> readMessage() {
+        this.ioLock.lock();
+        try {
+            return this.doReadMessage();
+        } finally {
+            this.ioLock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Message<?> doReadMessage() {
         if (this.closed)
             return null;
 
-        List<byte[]> identities = new LinkedList<>();
-        byte[] identity = super.recv();
-        while (!Arrays.equals(IDENTITY_BLOB_DELIMITER, identity)) {
-            identities.add(identity);
-            identity = super.recv();
+        // Frames are read as zmq messages rather than byte arrays so that they can be
+        // decoded in place. Only the (small) identities are copied out.
+        List<byte[]> identities = new ArrayList<>(1);
+        ByteBuffer identity = this.recvFrame();
+        while (!isIdentityBlobDelimiter(identity)) {
+            byte[] id = new byte[identity.remaining()];
+            identity.get(id);
+            identities.add(id);
+            identity = this.recvFrame();
         }
 
         //A hex string
-        String receivedSig = super.recvStr();
-
-        byte[] headerRaw = super.recv();
-        byte[] parentHeaderRaw = super.recv();
-        byte[] metadataRaw = super.recv();
-        byte[] contentRaw = super.recv();
+        ByteBuffer receivedSig = this.recvFrame();
 
-        List<byte[]> blobs = new LinkedList<>();
-        while (super.hasReceiveMore()) blobs.add(super.recv());
+        ByteBuffer headerRaw = this.recvFrame();
+        ByteBuffer parentHeaderRaw = this.recvFrame();
+        ByteBuffer metadataRaw = this.recvFrame();
+        ByteBuffer contentRaw = this.recvFrame();
 
-        String calculatedSig = this.hmacGenerator.calculateSignature(headerRaw, parentHeaderRaw, metadataRaw, contentRaw);
+        List<ByteBuffer> blobs = Collections.emptyList();
+        if (this.lastFrameHasMore) {
+            blobs = new ArrayList<>(2);
+            while (this.lastFrameHasMore)
+                blobs.add(this.recvFrame().asReadOnlyBuffer());
+        }
 
-        if (calculatedSig != null && !calculatedSig.equals(receivedSig))
+        if (!this.hmacGenerator.verifySignature(receivedSig, headerRaw, parentHeaderRaw, metadataRaw, contentRaw))
             throw new SecurityException("Message received had invalid signature");
 
-        Header<?> header = gson.fromJson(new String(headerRaw, UTF_8), Header.class);
+        Header<?> header = fromJson(headerRaw, Header.class);
+        header.setRawJson(headerRaw);
+
+        Header<?> parentHeader = isEmptyJsonObject(parentHeaderRaw)
+                ? null
+                : fromJson(parentHeaderRaw, Header.class);
+
+        Message<?> message;
+        if (ReplyType.class.isAssignableFrom(header.getType().getContentType())) {
+            // Replies are decoded right away, an error reply changes the type of the message.
+            Map<String, Object> metadata = fromJson(metadataRaw, JSON_OBJ_AS_MAP);
+            Object content = fromJson(contentRaw, header.getType().getContentType());
+            if (content instanceof ErrorReply)
+                header = new Header<>(header.getId(), header.getUsername(), header.getSessionId(), header.getTimestamp(), header.getType().error(), header.getVersion());
 
-        Header<?> parentHeader = null;
-        JsonElement parentHeaderJson = json.parse(new String(parentHeaderRaw, UTF_8));
-        if (parentHeaderJson.isJsonObject() && parentHeaderJson.getAsJsonObject().size() > 0)
-            parentHeader = gson.fromJson(parentHeaderJson, Header.class);
+            message = Message.withBlobBuffers(identities, (Header) header, parentHeader, metadata, content, blobs);
+        } else {
+            message = new LazyMessage<>(identities, header, parentHeader, metadataRaw, contentRaw, blobs, JupyterSocket::fromJson);
+        }
 
-        Map<String, Object> metadata = gson.fromJson(new String(metadataRaw, UTF_8), JSON_OBJ_AS_MAP);
-        Object content = gson.fromJson(new String(contentRaw, UTF_8), header.getType().getContentType());
-        if (content instanceof ErrorReply)
-            header = new Header<>(header.getId(), header.getUsername(), header.getSessionId(), header.getTimestamp(), header.getType().error(), header.getVersion());
+        message.setIdGenerator(this.idGenerator);
 
-        @SuppressWarnings("unchecked")
-        Message<?> message = new Message(identities, header, parentHeader, metadata, content, blobs);
+        WireTrace trace = this.wireTrace;
+        if (trace != null)
+            trace.record(WireTrace.Direction.RECEIVED, this.logger.getName(), header, parentHeader, contentRaw);
 
-        logger.finer(() -> "Received from " + super.base().getSocketOptx(zmq.ZMQ.ZMQ_LAST_ENDPOINT) + ":\n" + gson.toJson(message));
+        if (logger.isLoggable(Level.FINER))
+            logger.finer("Received from " + super.base().getSocketOptx(zmq.ZMQ.ZMQ_LAST_ENDPOINT) + ":\n" + gson.toJson(message));
 
         return message;
     }
 
+    private ByteBuffer recvFrame() {
+        zmq.Msg frame = super.base().recv(0);
+        if (frame == null)
+            throw new ZMQException("Could not receive message frame", super.base().errno());
+        this.lastFrameHasMore = frame.hasMore();
+        return frame.buf();
+    }
+
+    private static boolean isIdentityBlobDelimiter(ByteBuffer frame) {
+        return frame.remaining() == IDENTITY_BLOB_DELIMITER.length
+                && frame.equals(ByteBuffer.wrap(IDENTITY_BLOB_DELIMITER));
+    }
+
+    private static boolean isEmptyJsonObject(ByteBuffer json) {
+        int i = json.position();
+        int end = json.limit();
+        while (i < end && Character.isWhitespace(json.get(i))) i++;
+        if (i >= end || json.get(i++) != '{')
+            return false;
+        while (i < end && Character.isWhitespace(json.get(i))) i++;
+        if (i >= end || json.get(i++) != '}')
+            return false;
+        while (i < end && Character.isWhitespace(json.get(i))) i++;
+        return i == end;
+    }
+
+    private static <T> T fromJson(ByteBuffer json, Type type) {
+        return gson.fromJson(new ByteBufferReader(json, UTF_8), type);
+    }
+
     @SuppressWarnings("unchecked")
     public <T> Message<T> readMessage(MessageType<T> type) {
         Message<?> message = readMessage();
@@ -122,48 +236,122 @@ public abstract class JupyterSocket extends ZMQ.Socket {
         return (Message<T>) message;
     }
 
-    public synchronized void sendMessage(Message<?> message) {
+    public void sendMessage(Message<?> message) {
+        this.ioLock.lock();
+        try {
+            this.doSendMessage(message);
+        } finally {
+            this.ioLock.unlock();
+        }
+    }
+
+    private void doSendMessage(Message<?> message) {
         if (this.closed)
             return;
 
-        byte[] headerRaw = gson.toJson(message.getHeader()).getBytes(UTF_8);
-        byte[] parentHeaderRaw = message.hasParentHeader()
-                ? gson.toJson(message.getParentHeader()).getBytes(UTF_8)
-                : EMPTY_JSON_OBJECT;
-        byte[] metadata = message.hasMetadata()
-                ? gson.toJson(message.getMetadata()).getBytes(UTF_8)
-                : EMPTY_JSON_OBJECT;
-        byte[] content = gson.toJson(message.getContent()).getBytes(UTF_8);
+        // All four json parts are encoded back to back into the send buffer.
+        Utf8Buffer out = this.sendBuffer;
+        out.reset();
+
+        boolean isStatus = StatusMessageEncoder.canEncode(message);
+
+        ByteBuffer rawHeader = message.getHeader().getRawJson();
+        if (rawHeader != null)
+            out.write(rawHeader);
+        else if (isStatus)
+            this.statusEncoder.encodeHeader(out, message.getHeader());
+        else
+            gson.toJson(message.getHeader(), out);
+        int headerEnd = out.size();
+
+        // The parent is usually a received request, its json is copied over as is.
+        ByteBuffer rawParentHeader = message.hasParentHeader() ? message.getParentHeader().getRawJson() : null;
+        if (rawParentHeader != null)
+            out.write(rawParentHeader);
+        else if (message.hasParentHeader())
+            gson.toJson(message.getParentHeader(), out);
+        else
+            out.write(EMPTY_JSON_OBJECT);
+        int parentHeaderEnd = out.size();
 
-        String hmac = hmacGenerator.calculateSignature(headerRaw, parentHeaderRaw, metadata, content);
+        // A received message that is sent on as is doesn't need its content decoded
+        // just to encode it again.
+        ByteBuffer rawMetadata = message instanceof LazyMessage ? ((LazyMessage<?>) message).getRawMetadata() : null;
+        ByteBuffer rawContent = message instanceof LazyMessage ? ((LazyMessage<?>) message).getRawContent() : null;
 
-        logger.finer(() -> "Sending to " + super.base().getSocketOptx(zmq.ZMQ.ZMQ_LAST_ENDPOINT) + ":\n" + gson.toJson(message));
+        if (rawMetadata != null)
+            out.write(rawMetadata);
+        else if (message.hasMetadata())
+            gson.toJson(message.getMetadata(), out);
+        else
+            out.write(EMPTY_JSON_OBJECT);
+        int metadataEnd = out.size();
+
+        if (rawContent != null)
+            out.write(rawContent);
+        else if (isStatus)
+            this.statusEncoder.encodeContent(out, (PublishStatus) message.getContent());
+        else
+            gson.toJson(message.getContent(), out);
+        int contentEnd = out.size();
+
+        int hmacLength = hmacGenerator.calculateSignature(this.signatureBuffer, 0,
+                out.slice(0, headerEnd),
+                out.slice(headerEnd, parentHeaderEnd),
+                out.slice(parentHeaderEnd, metadataEnd),
+                out.slice(metadataEnd, contentEnd));
+
+        WireTrace trace = this.wireTrace;
+        if (trace != null)
+            trace.record(WireTrace.Direction.SENT, this.logger.getName(), message.getHeader(), message.getParentHeader(), out.slice(metadataEnd, contentEnd));
+
+        if (logger.isLoggable(Level.FINER))
+            logger.finer("Sending to " + super.base().getSocketOptx(zmq.ZMQ.ZMQ_LAST_ENDPOINT) + ":\n" + gson.toJson(message));
 
         message.getIdentities().forEach(super::sendMore);
         super.sendMore(IDENTITY_BLOB_DELIMITER);
-        super.sendMore(hmac.getBytes(ASCII));
-        super.sendMore(headerRaw);
-        super.sendMore(parentHeaderRaw);
-        super.sendMore(metadata);
-
-        if (message.getBlobs() == null)
-            super.send(content);
-        else {
-            super.sendMore(content);
-            //The last call needs to be a "send" call so as long as "blobs.hasNext()"
-            //there will be something sent later and so the call needs to be "sendMore"
-            Iterator<byte[]> blobs = message.getBlobs().iterator();
-            byte[] blob;
-            while (blobs.hasNext()) {
-                blob = blobs.next();
-                if (blobs.hasNext())
-                    super.sendMore(blob);
-                else
-                    super.send(blob);
-            }
+        super.send(this.signatureBuffer, 0, hmacLength, ZMQ.SNDMORE);
+
+        List<ByteBuffer> blobs = message.getBlobBuffers();
+        boolean hasBlobs = blobs != null && !blobs.isEmpty();
+
+        // zmq holds on to the frames until its I/O thread writes them out so they can't
+        // share the reused send buffer. Small messages are copied out of it but large
+        // messages take the buffer's array with them instead of copying it.
+        boolean handOff = contentEnd > SEND_BUFFER_RETAIN_LIMIT;
+        byte[] data = handOff ? out.detach() : out.array();
+
+        this.sendFrame(data, 0, headerEnd, ZMQ.SNDMORE, handOff);
+        this.sendFrame(data, headerEnd, parentHeaderEnd, ZMQ.SNDMORE, handOff);
+        this.sendFrame(data, parentHeaderEnd, metadataEnd, ZMQ.SNDMORE, handOff);
+        this.sendFrame(data, metadataEnd, contentEnd, hasBlobs ? ZMQ.SNDMORE : 0, handOff);
+
+        if (hasBlobs) {
+            //The last blob needs to be sent without SNDMORE to finish the message
+            int last = blobs.size() - 1;
+            for (int i = 0; i <= last; i++)
+                super.sendByteBuffer(frameView(blobs.get(i)), i < last ? ZMQ.SNDMORE : 0);
         }
     }
 
+    private void sendFrame(byte[] data, int from, int to, int flags, boolean handOff) {
+        if (handOff)
+            super.sendByteBuffer(frameView(ByteBuffer.wrap(data, from, to - from)), flags);
+        else
+            super.send(data, from, to - from, flags);
+    }
+
+    /**
+     * zmq reads a frame's buffer from index 0 to its capacity (and from the start of the backing
+     * array if it has one) rather than between its position and limit. Buffers that don't line up
+     * are sliced into a read only view that does.
+     */
+    private static ByteBuffer frameView(ByteBuffer buffer) {
+        if (buffer.position() == 0 && buffer.limit() == buffer.capacity() && (!buffer.hasArray() || buffer.arrayOffset() == 0))
+            return buffer;
+        return buffer.slice().asReadOnlyBuffer();
+    }
+
     @Override
     public void close() {
         super.close();
@@ -4,6 +4,7 @@ import java.util.Queue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.function.LongSupplier;
 import java.util.function.ToLongFunction;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class Loop extends Thread {
@@ -33,6 +34,27 @@ public class Loop extends Thread {
         this.logger = Logger.getLogger("Loop-" + name);
     }
 
+    /**
+     * Create a loop without a body. Subclasses using this constructor <strong>must</strong>
+     * override {@link #runLoopBody()}.
+     *
+     * @param name the name of the loop thread
+     */
+    protected Loop(String name) {
+        this(name, (LongSupplier) null);
+    }
+
+    /**
+     * Run a single iteration of the loop body.
+     *
+     * @return the amount of time (in milliseconds) to sleep before the next iteration. A
+     *         sleep of {@code 0} immediately runs the next iteration and a negative sleep stops
+     *         the loop.
+     */
+    protected long runLoopBody() {
+        return this.loopBody.getAsLong();
+    }
+
     public void onClose(Runnable callback) {
         if (this.onCloseCb != null) {
             Runnable oldCallback = this.onCloseCb;
@@ -75,7 +97,7 @@ public class Loop extends Thread {
             long sleep;
             try {
                 // Run the loop body
-                sleep = this.loopBody.getAsLong();
+                sleep = this.runLoopBody();
 
                 // Run all queued tasks
                 while ((next = this.runNextQueue.poll()) != null)
@@ -100,6 +122,15 @@ public class Loop extends Thread {
             }
         }
 
+        // Give anything queued before the loop was stopped a chance to run.
+        while ((next = this.runNextQueue.poll()) != null) {
+            try {
+                next.run();
+            } catch (Throwable t) {
+                this.logger.log(Level.WARNING, "Queued task failed during shutdown.", t);
+            }
+        }
+
         this.logger.info("Running loop shutdown callback.");
 
         if (this.onCloseCb != null)
@@ -119,6 +150,10 @@ public class Loop extends Thread {
         this.logger.info("Loop started.");
     }
 
+    public boolean isRunning() {
+        return this.running;
+    }
+
     public void shutdown() {
         this.running = false;
         this.logger.info("Loop shutdown.");
@@ -0,0 +1,254 @@
+package io.github.spencerpark.jupyter.channels;
+
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the rate at which stream output is published with a pair of token buckets, one
+ * counting messages and one counting bytes of UTF-8 encoded output, the size it has on the wire.
+ * Each bucket holds one second worth of tokens, but at least one, so short bursts are let through
+ * while a runaway loop is cut off after a second. Buckets refill continuously so a rate below
+ * one per second lets a message through every few seconds.
+ * <p>
+ * Output published while a limit is exceeded is dropped (or truncated if only part of it fits)
+ * and counted. Dropped output still drains the buckets so output stays limited for as long as
+ * it keeps coming in faster than the limit, and only resumes once the buckets have refilled to
+ * half of their capacity. The limiter reports a single {@link #claimNotice() notice} each time
+ * the limit is hit.
+ */
+public class OutputRateLimiter {
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private final double messagesPerSecond;
+    private final double bytesPerSecond;
+    private final double messageCapacity;
+    private final double byteCapacity;
+    private final LongSupplier clock;
+
+    // Guarded by this
+    private double messageTokens;
+    private double byteTokens;
+    private long lastRefill;
+    private boolean limited;
+    private boolean noticePending;
+    private long droppedMessages;
+    private long droppedBytes;
+
+    /**
+     * @param messagesPerSecond the maximum sustained number of stream messages per second, or
+     *                          {@code 0} for no limit
+     * @param bytesPerSecond    the maximum sustained number of bytes of UTF-8 encoded stream
+     *                          output per second, or {@code 0} for no limit
+     *
+     * @throws IllegalArgumentException if a rate is negative, infinite or not a number
+     */
+    public OutputRateLimiter(double messagesPerSecond, double bytesPerSecond) {
+        this(messagesPerSecond, bytesPerSecond, System::nanoTime);
+    }
+
+    OutputRateLimiter(double messagesPerSecond, double bytesPerSecond, LongSupplier clock) {
+        // NaN fails every comparison, the buckets would never hold a whole token.
+        if (!(messagesPerSecond >= 0) || Double.isInfinite(messagesPerSecond))
+            throw new IllegalArgumentException("messagesPerSecond must be finite and >= 0 but was " + messagesPerSecond);
+        if (!(bytesPerSecond >= 0) || Double.isInfinite(bytesPerSecond))
+            throw new IllegalArgumentException("bytesPerSecond must be finite and >= 0 but was " + bytesPerSecond);
+
+        this.messagesPerSecond = messagesPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.messageCapacity = Math.max(1, messagesPerSecond);
+        this.byteCapacity = Math.max(1, bytesPerSecond);
+        this.clock = clock;
+
+        this.messageTokens = this.messageCapacity;
+        this.byteTokens = this.byteCapacity;
+        this.lastRefill = clock.getAsLong();
+    }
+
+    private void refill() {
+        long now = this.clock.getAsLong();
+        double elapsed = (now - this.lastRefill) / NANOS_PER_SECOND;
+        this.lastRefill = now;
+
+        if (this.messagesPerSecond > 0)
+            this.messageTokens = Math.min(this.messageCapacity, this.messageTokens + elapsed * this.messagesPerSecond);
+        if (this.bytesPerSecond > 0)
+            this.byteTokens = Math.min(this.byteCapacity, this.byteTokens + elapsed * this.bytesPerSecond);
+    }
+
+    /**
+     * Ask to publish a message of {@code length} bytes of output.
+     *
+     * @param length the size of the message in bytes
+     *
+     * @return the number of bytes that may be published. Equal to {@code length} if the
+     *         whole message may be published, less than {@code length} if it must be truncated
+     *         and {@code 0} if it must be dropped.
+     */
+    public int admit(int length) {
+        return this.admit(length, IntUnaryOperator.identity());
+    }
+
+    /**
+     * Ask to publish a message with {@code text} as output. The text is counted by the size of
+     * its UTF-8 encoding and is only truncated between whole characters, a surrogate pair is
+     * never split.
+     *
+     * @param text the output in the message
+     *
+     * @return the number of {@code char}s at the start of the {@code text} that may be published.
+     *         Equal to {@code text.length()} if the whole message may be published and {@code 0}
+     *         if it must be dropped.
+     */
+    public int admit(String text) {
+        int length = utf8Length(text, text.length());
+        int allowed = this.admit(length, max -> utf8Length(text, utf8Prefix(text, max)));
+        return allowed == length ? text.length() : utf8Prefix(text, allowed);
+    }
+
+    /**
+     * @param fit rounds a number of bytes down to the nearest size that may actually be
+     *            published when the message must be truncated
+     */
+    private synchronized int admit(int length, IntUnaryOperator fit) {
+        this.refill();
+
+        if (this.limited && !this.hasRecovered()) {
+            this.consume(length);
+            this.drop(1, length);
+            return 0;
+        }
+
+        if (this.messagesPerSecond > 0 && this.messageTokens < 1) {
+            this.drop(1, length);
+            return 0;
+        }
+
+        int allowed = length;
+        if (this.bytesPerSecond > 0 && this.byteTokens < length)
+            allowed = fit.applyAsInt((int) Math.max(0, this.byteTokens));
+
+        // Nothing is published so nothing is charged
+        if (allowed == 0 && length > 0) {
+            this.drop(1, length);
+            return 0;
+        }
+
+        if (this.messagesPerSecond > 0)
+            this.messageTokens -= 1;
+        if (this.bytesPerSecond > 0)
+            this.byteTokens -= allowed;
+
+        if (allowed < length) {
+            this.drop(0, length - allowed);
+        } else {
+            this.limited = false;
+        }
+
+        return allowed;
+    }
+
+    private boolean hasRecovered() {
+        return (this.messagesPerSecond <= 0 || this.messageTokens >= this.messageCapacity / 2)
+                && (this.bytesPerSecond <= 0 || this.byteTokens >= this.byteCapacity / 2);
+    }
+
+    private void consume(int length) {
+        if (this.messagesPerSecond > 0)
+            this.messageTokens = Math.max(0, this.messageTokens - 1);
+        if (this.bytesPerSecond > 0)
+            this.byteTokens = Math.max(0, this.byteTokens - length);
+    }
+
+    private void drop(int messages, int bytes) {
+        this.droppedMessages += messages;
+        this.droppedBytes += bytes;
+        if (!this.limited) {
+            this.limited = true;
+            this.noticePending = true;
+        }
+    }
+
+    /**
+     * Check if the limit was hit since the last call. Returns true once per period of output
+     * being limited so that the caller can let the user know that output is missing.
+     *
+     * @return true if a notice should be published
+     */
+    public synchronized boolean claimNotice() {
+        boolean pending = this.noticePending;
+        this.noticePending = false;
+        return pending;
+    }
+
+    /**
+     * @return true if output is currently being dropped.
+     */
+    public synchronized boolean isLimited() {
+        return this.limited;
+    }
+
+    public double getMessagesPerSecond() {
+        return this.messagesPerSecond;
+    }
+
+    public double getBytesPerSecond() {
+        return this.bytesPerSecond;
+    }
+
+    /**
+     * @return the number of messages that were dropped entirely.
+     */
+    public synchronized long getDroppedMessageCount() {
+        return this.droppedMessages;
+    }
+
+    /**
+     * @return the number of bytes of output that were dropped, including the bytes cut off of
+     *         truncated messages.
+     */
+    public synchronized long getDroppedByteCount() {
+        return this.droppedBytes;
+    }
+
+    private static int utf8Size(String text, int i) {
+        char c = text.charAt(i);
+        if (c < 0x80)
+            return 1;
+        if (c < 0x800)
+            return 2;
+        if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1)))
+            return 4;
+        return 3;
+    }
+
+    /**
+     * @return the size of the UTF-8 encoding of the first {@code end} chars of the {@code text}.
+     */
+    static int utf8Length(String text, int end) {
+        int bytes = 0;
+        for (int i = 0; i < end; i++) {
+            int size = utf8Size(text, i);
+            bytes += size;
+            if (size == 4)
+                i++;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of chars at the start of the {@code text} whose UTF-8 encoding fits in
+     *         {@code maxBytes}, without splitting a surrogate pair.
+     */
+    static int utf8Prefix(String text, int maxBytes) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int size = utf8Size(text, i);
+            if (bytes + size > maxBytes)
+                return i;
+            bytes += size;
+            if (size == 4)
+                i++;
+        }
+        return text.length();
+    }
+}
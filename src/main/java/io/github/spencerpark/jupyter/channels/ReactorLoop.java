@@ -0,0 +1,207 @@
+package io.github.spencerpark.jupyter.channels;
+
+import org.zeromq.ZMQ;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An event driven {@link Loop}. Instead of polling without a timeout and sleeping between
+ * iterations, a reactor loop blocks in {@link ZMQ.Poller#poll(long)} until one of the registered
+ * sockets is readable. An internal wake-up pipe is registered alongside the sockets so that
+ * {@link #doNext(Runnable) queued tasks} and {@link #shutdown() shutdown requests} interrupt the
+ * poll immediately rather than waiting for the timeout.
+ * <p>
+ * Sockets registered with the reactor should only be read from the reactor thread.
+ */
+public class ReactorLoop extends Loop {
+    private static final long DEFAULT_POLL_TIMEOUT_MS = 1000;
+
+    private final Logger logger;
+
+    private final long pollTimeout;
+    private final ZMQ.Poller poller;
+    private final List<Runnable> handlers;
+
+    private final Pipe wakePipe;
+    private final ByteBuffer wakeSignal;
+    private final ByteBuffer wakeDrain;
+    private final AtomicBoolean wakePending;
+
+    // Only accessed from the reactor thread
+    private long pollReadyNanos;
+
+    public ReactorLoop(String name, ZMQ.Context context, long pollTimeout) {
+        super(name);
+
+        this.logger = Logger.getLogger("Loop-" + name);
+
+        this.pollTimeout = pollTimeout;
+        this.poller = context.poller();
+        this.handlers = new ArrayList<>();
+
+        try {
+            this.wakePipe = Pipe.open();
+            this.wakePipe.source().configureBlocking(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open the wake-up pipe for " + name, e);
+        }
+        this.wakeSignal = ByteBuffer.allocate(1);
+        this.wakeDrain = ByteBuffer.allocate(64);
+        this.wakePending = new AtomicBoolean(false);
+
+        this.setHandler(this.poller.register(this.wakePipe.source(), ZMQ.Poller.POLLIN), this::drainWakeups);
+
+        super.onClose(this::closeResources);
+    }
+
+    public ReactorLoop(String name, ZMQ.Context context) {
+        this(name, context, DEFAULT_POLL_TIMEOUT_MS);
+    }
+
+    /**
+     * Register a socket with the reactor. The {@code onReadable} callback is invoked on the
+     * reactor thread whenever the socket has a message waiting to be read. The callback
+     * is expected to read (at least) one message, if it is left in the socket the callback
+     * will be invoked again on the next iteration.
+     * <p>
+     * If the reactor is already running the registration is handed off to the reactor thread.
+     *
+     * @param socket     the socket to watch for incoming messages
+     * @param onReadable the callback to invoke when a message is ready to be read
+     */
+    public void register(ZMQ.Socket socket, Runnable onReadable) {
+        if (this.isRunning() && !this.inLoop()) {
+            this.doNext(() -> this.register(socket, onReadable));
+            return;
+        }
+
+        this.setHandler(this.poller.register(socket, ZMQ.Poller.POLLIN), onReadable);
+    }
+
+    /**
+     * Stop watching a socket that was {@link #register(ZMQ.Socket, Runnable) registered} with the
+     * reactor. Unregistering a socket that is not registered does nothing.
+     * <p>
+     * If called from outside of the reactor thread while it is running, the request is handed off
+     * to the reactor thread. The socket must not be closed until it has been unregistered.
+     *
+     * @param socket the socket to stop watching
+     */
+    public void unregister(ZMQ.Socket socket) {
+        if (this.isRunning() && !this.inLoop()) {
+            this.doNext(() -> this.unregister(socket));
+            return;
+        }
+
+        for (int i = 0; i < this.poller.getNext(); i++) {
+            ZMQ.PollItem item = this.poller.getItem(i);
+            if (item != null && item.getSocket() == socket) {
+                this.handlers.set(i, null);
+                this.poller.unregister(socket);
+                return;
+            }
+        }
+    }
+
+    private void setHandler(int index, Runnable handler) {
+        while (this.handlers.size() <= index)
+            this.handlers.add(null);
+        this.handlers.set(index, handler);
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the poll of the current iteration returned.
+     *         Handlers may use this to tell how long a message waited behind the handlers that
+     *         ran before them in the same iteration. Only meaningful on the reactor thread.
+     */
+    public long getPollReadyNanos() {
+        return this.pollReadyNanos;
+    }
+
+    /**
+     * @return true if the calling thread is this reactor's thread.
+     */
+    public boolean inLoop() {
+        return Thread.currentThread() == this;
+    }
+
+    /**
+     * Interrupt a blocking poll so that the loop runs another iteration as soon as possible.
+     * Multiple wake-ups before the reactor gets a chance to run are coalesced into one.
+     */
+    public void wakeup() {
+        if (!this.wakePending.compareAndSet(false, true))
+            return;
+
+        try {
+            synchronized (this.wakeSignal) {
+                this.wakeSignal.clear();
+                this.wakePipe.sink().write(this.wakeSignal);
+            }
+        } catch (IOException e) {
+            this.logger.log(Level.WARNING, "Could not wake up the reactor.", e);
+        }
+    }
+
+    private void drainWakeups() {
+        // Drain before clearing the flag. Clearing first lets a concurrent wakeup() write a byte
+        // that the drain then eats, leaving the flag set with nothing in the pipe so that every
+        // later wakeup() is skipped until the poll times out. A task queued while the flag is
+        // still set is run by Loop.run right after this iteration's body.
+        try {
+            while (true) {
+                this.wakeDrain.clear();
+                if (this.wakePipe.source().read(this.wakeDrain) <= 0)
+                    break;
+            }
+        } catch (IOException e) {
+            this.logger.log(Level.WARNING, "Could not drain the reactor wake-up pipe.", e);
+        }
+        this.wakePending.set(false);
+    }
+
+    @Override
+    protected long runLoopBody() {
+        int events = this.poller.poll(this.pollTimeout);
+        this.pollReadyNanos = System.nanoTime();
+        if (events > 0) {
+            for (int i = 0; i < this.handlers.size(); i++) {
+                Runnable handler = this.handlers.get(i);
+                if (handler != null && this.poller.pollin(i))
+                    handler.run();
+            }
+        }
+
+        // Never sleep, the poll above is what blocks.
+        return 0;
+    }
+
+    @Override
+    public void doNext(Runnable next) {
+        super.doNext(next);
+        this.wakeup();
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        this.wakeup();
+    }
+
+    private void closeResources() {
+        this.poller.close();
+        try {
+            this.wakePipe.source().close();
+            this.wakePipe.sink().close();
+        } catch (IOException e) {
+            this.logger.log(Level.WARNING, "Could not close the reactor wake-up pipe.", e);
+        }
+    }
+}
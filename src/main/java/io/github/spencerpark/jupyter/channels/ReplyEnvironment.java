@@ -31,6 +31,9 @@ public interface ReplyEnvironment {
      *      //Send the reply
      *      //Send the idle message
      * </pre>
+     * <p>
+     * Only the next send made by the thread that called this method is deferred.
+     * Messages sent by other threads in the meantime go out right away.
      *
      * @return this instance for call chaining
      */
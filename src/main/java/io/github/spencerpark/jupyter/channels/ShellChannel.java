@@ -3,18 +3,26 @@ package io.github.spencerpark.jupyter.channels;
 import io.github.spencerpark.jupyter.kernel.KernelConnectionProperties;
 import io.github.spencerpark.jupyter.messages.HMACGenerator;
 import io.github.spencerpark.jupyter.messages.Message;
+import io.github.spencerpark.jupyter.messages.MessageType;
+import io.github.spencerpark.jupyter.messages.reply.ErrorReply;
+import io.github.spencerpark.jupyter.messages.reply.ExecuteReply;
 import org.zeromq.SocketType;
 import org.zeromq.ZMQ;
 
+import java.util.Collections;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class ShellChannel extends JupyterSocket {
     private static final long SHELL_DEFAULT_LOOP_SLEEP_MS = 50;
+    private static final long SHELL_CLOSE_TIMEOUT_MS = 5000;
     private static final AtomicInteger SHELL_ID = new AtomicInteger();
 
     private volatile Loop ioloop;
+    private volatile boolean ownsLoop;
 
     private final boolean isControl;
     private final JupyterConnection connection;
@@ -35,9 +43,7 @@ public class ShellChannel extends JupyterSocket {
         return this.ioloop != null;
     }
 
-    @Override
-    @SuppressWarnings("unchecked")
-    public void bind(KernelConnectionProperties connProps) {
+    private String bindAddress(KernelConnectionProperties connProps) {
         if (this.isBound())
             throw new IllegalStateException("Shell channel already bound");
 
@@ -48,34 +54,28 @@ public class ShellChannel extends JupyterSocket {
         logger.log(Level.INFO, String.format("Binding %s to %s.", channelThreadName, addr));
         super.bind(addr);
 
-        ZMQ.Poller poller = super.ctx.poller(1);
-        poller.register(this, ZMQ.Poller.POLLIN);
-
-        this.ioloop = new Loop(channelThreadName, this.sleep, () -> {
-            int events = poller.poll(0);
-            if (events > 0) {
-                Message message = super.readMessage();
-
-                ShellHandler handler = connection.getHandler(message.getHeader().getType());
-                if (handler != null) {
-                    super.logger.info("Handling message: " + message.getHeader().getType().getName());
-                    ShellReplyEnvironment env = connection.prepareReplyEnv(this, message);
-                    try {
-                        handler.handle(env, message);
-                    } catch (Exception e) {
-                        super.logger.log(Level.SEVERE, "Unhandled exception handling " + message.getHeader().getType().getName() + ". " + e.getClass().getSimpleName() + " - " + e.getLocalizedMessage());
-                    } finally {
-                        env.resolveDeferrals();
-                    }
-                    if (env.isMarkedForShutdown()) {
-                        super.logger.info(channelThreadName + " shutting down connection as environment was marked for shutdown.");
-                        this.connection.close();
-                    }
-                } else {
-                    super.logger.log(Level.SEVERE, "Unhandled message: " + message.getHeader().getType().getName());
-                }
-            }
-        });
+        return channelThreadName;
+    }
+
+    @Override
+    public void bind(KernelConnectionProperties connProps) {
+        String channelThreadName = this.bindAddress(connProps);
+
+        if (this.connection.getIOMode() == JupyterConnection.IOMode.REACTOR) {
+            ReactorLoop reactor = new ReactorLoop(channelThreadName, super.ctx);
+            reactor.register(this, () -> this.handleNextMessage(channelThreadName));
+            this.ioloop = reactor;
+        } else {
+            ZMQ.Poller poller = super.ctx.poller(1);
+            poller.register(this, ZMQ.Poller.POLLIN);
+
+            this.ioloop = new Loop(channelThreadName, this.sleep, () -> {
+                int events = poller.poll(0);
+                if (events > 0)
+                    this.handleNextMessage(channelThreadName);
+            });
+        }
+        this.ownsLoop = true;
 
         this.ioloop.onClose(() -> {
             logger.log(Level.INFO, channelThreadName + " shutdown.");
@@ -87,19 +87,152 @@ public class ShellChannel extends JupyterSocket {
         logger.log(Level.INFO, "Polling on " + channelThreadName);
     }
 
+    @Override
+    public void bind(KernelConnectionProperties connProps, ReactorLoop reactor) {
+        String channelThreadName = this.bindAddress(connProps);
+
+        reactor.register(this, () -> this.handleNextMessage(channelThreadName));
+        this.ioloop = reactor;
+        this.ownsLoop = false;
+
+        logger.log(Level.INFO, channelThreadName + " registered with " + reactor.getName());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handleNextMessage(String channelThreadName) {
+        Message message = super.readMessage();
+        MessageType<?> type = message.getHeader().getType();
+
+        ShellHandler handler = this.isControl
+                ? connection.getControlHandler(type)
+                : connection.getHandler(type);
+        if (handler != null) {
+            if (super.logger.isLoggable(Level.FINE))
+                super.logger.fine("Handling message: " + type.getName());
+            ShellReplyEnvironment env = connection.prepareReplyEnv(this, message);
+
+            // The interrupt applies to the executions received before it, decide which those are
+            // now rather than when the handler gets to run.
+            if (type == MessageType.INTERRUPT_REQUEST)
+                this.connection.interruptExecutions();
+
+            boolean isExecution = this.isExecution(type);
+            if (isExecution)
+                this.connection.executionReceived(env);
+
+            HandlerExecutor executor = this.isControl
+                    ? connection.getControlExecutor()
+                    : connection.getShellExecutor(type);
+            try {
+                executor.execute(() -> this.runHandler(channelThreadName, handler, env, message));
+            } catch (RejectedExecutionException e) {
+                if (isExecution) {
+                    this.connection.finishExecution(env);
+                    if (!this.connection.isClosed()) {
+                        // The scheduler is full, tell the frontend rather than leaving it waiting.
+                        this.replyExecutionError(env, "ExecutionRejected", e.getMessage());
+                        return;
+                    }
+                }
+                super.logger.log(Level.SEVERE, "Handler executor rejected " + message.getHeader().getType().getName() + ". Is the connection closing?");
+            }
+        } else {
+            super.logger.log(Level.SEVERE, "Unhandled message: " + message.getHeader().getType().getName());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void runHandler(String channelThreadName, ShellHandler handler, ShellReplyEnvironment env, Message message) {
+        boolean isExecution = this.isExecution(message.getHeader().getType());
+        if (isExecution && !this.connection.startExecution(env)) {
+            this.replyExecutionError(env, "ExecutionAborted", "The kernel was interrupted before this request started executing.");
+            return;
+        }
+
+        try {
+            handler.handle(env, message);
+        } catch (Exception e) {
+            super.logger.log(Level.SEVERE, "Unhandled exception handling " + message.getHeader().getType().getName() + ". " + e.getClass().getSimpleName() + " - " + e.getLocalizedMessage());
+        } finally {
+            env.resolveDeferrals();
+            if (isExecution)
+                this.connection.finishExecution(env);
+        }
+        if (env.isMarkedForShutdown()) {
+            super.logger.info(channelThreadName + " shutting down connection as environment was marked for shutdown.");
+            this.connection.close();
+        }
+    }
+
+    private boolean isExecution(MessageType<?> type) {
+        return !this.isControl && type == MessageType.EXECUTE_REQUEST;
+    }
+
+    private void replyExecutionError(ShellReplyEnvironment env, String name, String message) {
+        env.setBusyDeferIdle();
+        env.replyError(ExecuteReply.MESSAGE_TYPE.error(), new ErrorReply(name, message, Collections.emptyList()));
+        env.resolveDeferrals();
+    }
+
+    @Override
+    public void sendMessage(Message<?> message) {
+        // The loop may be in the middle of a poll on this socket. The socket may only be
+        // used by one thread at a time so replies from handlers running on other threads
+        // are handed over to the loop to send.
+        Loop loop = this.ioloop;
+        if (loop == null || loop == Thread.currentThread() || !loop.isRunning()) {
+            super.sendMessage(message);
+            return;
+        }
+
+        AtomicBoolean sent = new AtomicBoolean(false);
+        Runnable send = () -> {
+            if (sent.compareAndSet(false, true))
+                super.sendMessage(message);
+        };
+        loop.doNext(send);
+
+        // The loop runs what is queued one last time when it stops. If it stopped before the
+        // reply was queued the reply would be lost, wait for the loop to let go of the socket
+        // and send it from here instead. The socket is only closed after the loop is done.
+        if (!loop.isRunning()) {
+            try {
+                loop.join(SHELL_CLOSE_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            send.run();
+        }
+    }
+
     @Override
     public void close() {
-        if (this.isBound())
-            this.ioloop.shutdown();
+        Loop loop = this.ioloop;
+        if (loop != null && this.ownsLoop) {
+            loop.shutdown();
+
+            // A reactor is blocked in a poll on this socket so let it wake up and
+            // release the socket before closing it.
+            if (loop instanceof ReactorLoop && !((ReactorLoop) loop).inLoop()) {
+                try {
+                    loop.join(SHELL_CLOSE_TIMEOUT_MS);
+                } catch (InterruptedException ignored) { }
+            }
+        } else {
+            // A shared reactor outlives this channel, whoever owns it is responsible for
+            // unregistering the socket before it is closed.
+            this.ioloop = null;
+        }
 
         super.close();
     }
 
     @Override
     public void waitUntilClose() {
-        if (this.ioloop != null) {
+        Loop loop = this.ioloop;
+        if (loop != null && this.ownsLoop) {
             try {
-                this.ioloop.join();
+                loop.join();
             } catch (InterruptedException ignored) { }
         }
     }
@@ -1,16 +1,69 @@
 package io.github.spencerpark.jupyter.channels;
 
+import io.github.spencerpark.jupyter.messages.Message;
 import io.github.spencerpark.jupyter.messages.MessageContext;
+import io.github.spencerpark.jupyter.messages.MessageType;
 import io.github.spencerpark.jupyter.messages.publish.PublishStream;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 public class ShellReplyEnvironment extends DefaultReplyEnvironment {
+    private static final String RATE_LIMIT_NOTICE = "Output rate exceeded, output is dropped until the rate drops below the limit.\n";
+
     private final StdinChannel stdin;
+    private final OutputRateLimiter outputRateLimiter;
 
     private boolean requestShutdown = false;
 
-    protected ShellReplyEnvironment(ShellChannel shell, StdinChannel stdin, JupyterSocket iopub, MessageContext context) {
+    // Only used by execute requests, see JupyterConnection#interruptExecutions()
+    private volatile boolean interruptRequested = false;
+    // Guarded by the connection's execution lock
+    boolean executionStarted = false;
+
+    protected ShellReplyEnvironment(ShellChannel shell, StdinChannel stdin, JupyterSocket iopub, MessageContext context, OutputRateLimiter outputRateLimiter) {
         super(shell, iopub, context);
         this.stdin = stdin;
+        this.outputRateLimiter = outputRateLimiter;
+    }
+
+    protected ShellReplyEnvironment(ShellChannel shell, StdinChannel stdin, JupyterSocket iopub, MessageContext context) {
+        this(shell, stdin, iopub, context, null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void publish(Message<?> msg) {
+        if (this.outputRateLimiter == null || msg.getHeader().getType() != MessageType.PUBLISH_STREAM) {
+            super.publish(msg);
+            return;
+        }
+
+        Message<PublishStream> streamMsg = (Message<PublishStream>) msg;
+        PublishStream stream = streamMsg.getContent();
+        String text = stream.getText();
+
+        int allowed = this.outputRateLimiter.admit(text);
+        if (0 < allowed && allowed < text.length()) {
+            streamMsg = new Message<>(msg.getIdentities(), streamMsg.getHeader(), msg.getParentHeader(),
+                    msg.hasMetadata() ? msg.getMetadata() : null,
+                    new PublishStream(stream.getStreamType(), text.substring(0, allowed)),
+                    null);
+        }
+        if (allowed > 0)
+            super.publish(streamMsg);
+
+        if (this.outputRateLimiter.claimNotice())
+            super.publish(new Message<>(super.getContext(), PublishStream.MESSAGE_TYPE,
+                    new PublishStream(PublishStream.StreamType.ERR, RATE_LIMIT_NOTICE)));
+    }
+
+    /**
+     * @return the limiter applied to stream output published through this environment or
+     *         {@code null} if output is not limited.
+     */
+    public OutputRateLimiter getOutputRateLimiter() {
+        return this.outputRateLimiter;
     }
 
     @Override
@@ -19,6 +72,19 @@ public class ShellReplyEnvironment extends DefaultReplyEnvironment {
         return this;
     }
 
+    /**
+     * @return true if the frontend asked to interrupt the execute request this environment is
+     *         replying to. Each execution has its own flag so an interrupt is never carried over to,
+     *         or lost by, the next execution.
+     */
+    public boolean isInterruptRequested() {
+        return this.interruptRequested;
+    }
+
+    void requestInterrupt() {
+        this.interruptRequested = true;
+    }
+
     public void markForShutdown() {
         this.requestShutdown = true;
     }
@@ -35,6 +101,29 @@ public class ShellReplyEnvironment extends DefaultReplyEnvironment {
         publish(new PublishStream(PublishStream.StreamType.ERR, msg));
     }
 
+    /**
+     * Ask the frontend for input without waiting for the answer, see
+     * {@link StdinChannel#requestInput(MessageContext, String, boolean)}.
+     */
+    public CompletableFuture<String> requestInput(String prompt, boolean isPassword) {
+        return this.stdin.requestInput(super.getContext(), prompt, isPassword);
+    }
+
+    /**
+     * Ask the frontend for input without waiting for the answer, see
+     * {@link StdinChannel#requestInput(MessageContext, String, boolean, long, TimeUnit)}.
+     */
+    public CompletableFuture<String> requestInput(String prompt, boolean isPassword, long timeout, TimeUnit unit) {
+        return this.stdin.requestInput(super.getContext(), prompt, isPassword, timeout, unit);
+    }
+
+    /**
+     * Drop the input requests that are still waiting for the frontend.
+     */
+    public void cancelInputRequests() {
+        this.stdin.cancelPendingInput();
+    }
+
     public String readFromStdIn(String prompt, boolean isPassword) {
         return this.stdin.getInput(super.getContext(), prompt, isPassword);
     }
@@ -0,0 +1,156 @@
+package io.github.spencerpark.jupyter.channels;
+
+import io.github.spencerpark.jupyter.messages.Header;
+import io.github.spencerpark.jupyter.messages.KernelTimestamp;
+import io.github.spencerpark.jupyter.messages.Message;
+import io.github.spencerpark.jupyter.messages.MessageType;
+import io.github.spencerpark.jupyter.messages.publish.PublishStatus;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes the header and content of {@code status} messages without going through gson. A
+ * busy/idle pair is published around every request so these are the most common messages sent
+ * by the kernel. Everything but the {@code msg_id}, {@code username}, {@code session} and
+ * {@code date} is written from pre-encoded bytes, and the content of each state is encoded once.
+ * <p>
+ * Not thread safe, each socket has its own encoder.
+ */
+final class StatusMessageEncoder {
+    private static final byte[] OPEN = ascii("{");
+    private static final byte[] MSG_ID = ascii("\"msg_id\":");
+    private static final byte[] USERNAME = ascii("\"username\":");
+    private static final byte[] SESSION = ascii("\"session\":");
+    private static final byte[] DATE = ascii("\"date\":");
+    private static final byte[] MSG_TYPE = ascii("\"msg_type\":\"" + MessageType.PUBLISH_STATUS.getName() + "\"");
+    private static final byte[] VERSION = ascii("\"version\":");
+    private static final byte[] CURRENT_VERSION = ascii("\"" + Header.PROTOCOL_VERISON + "\"");
+    private static final byte[] CLOSE = ascii("}");
+
+    private static final byte[] BUSY = ascii("{\"execution_state\":\"busy\"}");
+    private static final byte[] IDLE = ascii("{\"execution_state\":\"idle\"}");
+    private static final byte[] STARTING = ascii("{\"execution_state\":\"starting\"}");
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final char[] dateBuffer = new char[KernelTimestamp.FORMATTED_LENGTH];
+    private boolean needsComma;
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @param message the message that is about to be sent
+     *
+     * @return true if the message is a status message that this encoder can write.
+     */
+    static boolean canEncode(Message<?> message) {
+        return message.getHeader().getType() == MessageType.PUBLISH_STATUS
+                && message.getContent() instanceof PublishStatus
+                && ((PublishStatus) message.getContent()).getState() != null;
+    }
+
+    void encodeHeader(Utf8Buffer out, Header<?> header) {
+        out.write(OPEN);
+        this.needsComma = false;
+
+        this.writeStringField(out, MSG_ID, header.getId());
+        this.writeStringField(out, USERNAME, header.getUsername());
+        this.writeStringField(out, SESSION, header.getSessionId());
+
+        KernelTimestamp timestamp = header.getTimestamp();
+        if (timestamp != null) {
+            this.startField(out, DATE);
+            out.write('"');
+            try {
+                int length = timestamp.formatTo(this.dateBuffer, 0);
+                out.write(this.dateBuffer, 0, length);
+            } catch (IllegalArgumentException e) {
+                writeEscaped(out, timestamp.getDateString());
+            }
+            out.write('"');
+        }
+
+        this.startField(out, MSG_TYPE);
+
+        if (Header.PROTOCOL_VERISON.equals(header.getVersion())) {
+            this.startField(out, VERSION);
+            out.write(CURRENT_VERSION);
+        } else {
+            this.writeStringField(out, VERSION, header.getVersion());
+        }
+
+        out.write(CLOSE);
+    }
+
+    void encodeContent(Utf8Buffer out, PublishStatus status) {
+        switch (status.getState()) {
+            case BUSY:
+                out.write(BUSY);
+                break;
+            case IDLE:
+                out.write(IDLE);
+                break;
+            case STARTING:
+                out.write(STARTING);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown status " + status.getState());
+        }
+    }
+
+    private void startField(Utf8Buffer out, byte[] name) {
+        if (this.needsComma)
+            out.write(',');
+        this.needsComma = true;
+        out.write(name);
+    }
+
+    private void writeStringField(Utf8Buffer out, byte[] name, String value) {
+        // Like gson, null fields are left out.
+        if (value == null)
+            return;
+        this.startField(out, name);
+        out.write('"');
+        writeEscaped(out, value);
+        out.write('"');
+    }
+
+    private static void writeEscaped(Utf8Buffer out, String value) {
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029')
+                continue;
+
+            out.write(value, start, i - start);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    out.write("\\u");
+                    out.write(HEX[(c >> 12) & 0xF]);
+                    out.write(HEX[(c >> 8) & 0xF]);
+                    out.write(HEX[(c >> 4) & 0xF]);
+                    out.write(HEX[c & 0xF]);
+            }
+        }
+        out.write(value, start, length - start);
+    }
+}
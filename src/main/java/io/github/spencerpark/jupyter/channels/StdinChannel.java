@@ -2,6 +2,7 @@ package io.github.spencerpark.jupyter.channels;
 
 import io.github.spencerpark.jupyter.kernel.KernelConnectionProperties;
 import io.github.spencerpark.jupyter.messages.HMACGenerator;
+import io.github.spencerpark.jupyter.messages.Header;
 import io.github.spencerpark.jupyter.messages.Message;
 import io.github.spencerpark.jupyter.messages.MessageContext;
 import io.github.spencerpark.jupyter.messages.reply.InputReply;
@@ -9,24 +10,135 @@ import io.github.spencerpark.jupyter.messages.request.InputRequest;
 import org.zeromq.SocketType;
 import org.zeromq.ZMQ;
 
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * The stdin channel asks the frontend for input on behalf of an execution.
+ * <p>
+ * The socket is always read by a {@link ReactorLoop}, either the connection's shared reactor or
+ * one the channel starts for itself, so that a request for input never blocks the thread that
+ * asked for it. A channel that reads with its own reactor only starts it on the first request for
+ * input so a kernel that never asks for input doesn't pay for the extra thread. {@link #requestInput(MessageContext, String, boolean) Requests} are sent one at a
+ * time in the order they were made and each may be given a timeout. A request that is cancelled
+ * or times out before the frontend answers is dropped, a late reply to it is ignored rather than
+ * taken as the answer to the next request.
+ */
 public class StdinChannel extends JupyterSocket {
+    private static final long STDIN_CLOSE_TIMEOUT_MS = 5000;
+    private static final AtomicInteger STDIN_ID = new AtomicInteger();
+
+    private static final class PendingInput {
+        private final String requestId;
+        private final CompletableFuture<String> reply;
+
+        private PendingInput(String requestId, CompletableFuture<String> reply) {
+            this.requestId = requestId;
+            this.reply = reply;
+        }
+    }
+
+    private final ReentrantLock inputLock = new ReentrantLock();
+
+    private volatile ReactorLoop reactor;
+    private volatile boolean ownsReactor;
+    private volatile boolean closing;
+
+    // Guarded by the input lock, completes when the most recent request is answered or dropped.
+    private CompletableFuture<String> lastRequest = CompletableFuture.completedFuture(null);
+    // Every request that is not complete yet, queued or waiting for the frontend.
+    private final Queue<CompletableFuture<String>> outstanding = new ConcurrentLinkedQueue<>();
+    // Only accessed from the reactor thread
+    private PendingInput pending;
+
     public StdinChannel(ZMQ.Context context, HMACGenerator hmacGenerator) {
         super(context, SocketType.ROUTER, hmacGenerator, Logger.getLogger("StdinChannel"));
     }
 
-    @Override
-    public void bind(KernelConnectionProperties connProps) {
+    private void bindAddress(KernelConnectionProperties connProps) {
         String addr = JupyterSocket.formatAddress(connProps.getTransport(), connProps.getIp(), connProps.getStdinPort());
 
         logger.log(Level.INFO, String.format("Binding stdin to %s.", addr));
         super.bind(addr);
     }
 
+    @Override
+    public void bind(KernelConnectionProperties connProps) {
+        this.bindAddress(connProps);
+
+        // The reactor is started by the first request for input, see startReactor().
+        this.ownsReactor = true;
+    }
+
+    @Override
+    public void bind(KernelConnectionProperties connProps, ReactorLoop reactor) {
+        this.bindAddress(connProps);
+
+        reactor.register(this, this::receiveReply);
+        this.reactor = reactor;
+        this.ownsReactor = false;
+    }
+
     /**
-     * Ask the frontend for input.
+     * @return the reactor reading the socket, starting the channel's own reactor if this is the
+     *         first request for input. Null if the channel is closed.
+     */
+    private ReactorLoop startReactor() {
+        ReactorLoop reactor = this.reactor;
+        if (reactor != null || !this.ownsReactor)
+            return reactor;
+
+        this.inputLock.lock();
+        try {
+            if (this.reactor == null && !this.closing) {
+                String name = "Stdin-" + STDIN_ID.getAndIncrement();
+                reactor = new ReactorLoop(name, super.ctx);
+                reactor.register(this, this::receiveReply);
+                reactor.onClose(() -> logger.log(Level.INFO, name + " shutdown."));
+                this.reactor = reactor;
+
+                reactor.start();
+            }
+            return this.reactor;
+        } finally {
+            this.inputLock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void receiveReply() {
+        Message<?> message = super.readMessage();
+
+        if (message.getHeader().getType() != InputReply.MESSAGE_TYPE) {
+            super.logger.log(Level.WARNING, "Unexpected message on stdin: " + message.getHeader().getType().getName());
+            return;
+        }
+
+        PendingInput pending = this.pending;
+        Header<?> parent = message.getParentHeader();
+        if (pending == null || (parent != null && parent.getId() != null && !pending.requestId.equals(parent.getId()))) {
+            // The request was cancelled or timed out before the frontend answered it
+            super.logger.log(Level.FINE, "Dropping a reply to an input request that is no longer waiting.");
+            return;
+        }
+
+        this.pending = null;
+        pending.reply.complete(((Message<InputReply>) message).getContent().getValue());
+    }
+
+    /**
+     * Ask the frontend for input without waiting for the answer. The request is sent once every
+     * earlier request is answered, cancelled or timed out.
      * <p>
      * <strong>Do not ask for input if an execute request has `allow_stdin=False`</strong>
      *
@@ -36,16 +148,169 @@ public class StdinChannel extends JupyterSocket {
      *                          the frontend should obscure the user input (for example with password
      *                          dots or not echoing the input)
      *
-     * @return the input string from the frontend.
+     * @return a future completed with the input string from the frontend, without a line separator.
+     *         Cancelling the future drops the request.
      */
-    public synchronized String getInput(MessageContext context, String prompt, boolean isPasswordRequest) {
+    public CompletableFuture<String> requestInput(MessageContext context, String prompt, boolean isPasswordRequest) {
         InputRequest content = new InputRequest(prompt, isPasswordRequest);
         Message<InputRequest> request = new Message<>(context, InputRequest.MESSAGE_TYPE, content);
 
-        super.sendMessage(request);
+        ReactorLoop reactor = this.startReactor();
+        if (reactor == null || reactor.inLoop()) {
+            // Nothing else is reading from the socket (the reactor is busy running this call)
+            // so the reply is read directly.
+            CompletableFuture<String> reply = new CompletableFuture<>();
+            try {
+                reply.complete(this.readDirectly(request));
+            } catch (RuntimeException e) {
+                reply.completeExceptionally(e);
+            }
+            return reply;
+        }
+
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        this.outstanding.add(reply);
+        reply.whenComplete((value, err) -> this.outstanding.remove(reply));
+
+        CompletableFuture<String> previous;
+        this.inputLock.lock();
+        try {
+            previous = this.lastRequest;
+            this.lastRequest = reply;
+        } finally {
+            this.inputLock.unlock();
+        }
 
-        Message<InputReply> reply = super.readMessage(InputReply.MESSAGE_TYPE);
+        // The reactor owns the socket, ask it to send the request once the frontend is done with
+        // the previous one and to hand back the reply.
+        previous.whenComplete((value, err) -> reactor.doNext(() -> {
+            if (reply.isDone())
+                return;
+            this.pending = new PendingInput(request.getHeader().getId(), reply);
+            super.sendMessage(request);
+        }));
 
-        return reply.getContent().getValue() + System.lineSeparator();
+        return reply;
+    }
+
+    /**
+     * Like {@link #requestInput(MessageContext, String, boolean)} but the returned future is
+     * completed exceptionally with a {@link TimeoutException} if the frontend doesn't answer in
+     * time. The timeout includes the time spent waiting for earlier requests.
+     *
+     * @param timeout how long to wait for the answer
+     * @param unit    the unit of the {@code timeout}
+     */
+    public CompletableFuture<String> requestInput(MessageContext context, String prompt, boolean isPasswordRequest, long timeout, TimeUnit unit) {
+        CompletableFuture<String> reply = this.requestInput(context, prompt, isPasswordRequest);
+        if (reply.isDone())
+            return reply;
+
+        ScheduledFuture<?> expire = HandlerExecutors.sharedScheduler().schedule(
+                () -> reply.completeExceptionally(new TimeoutException("No input from the frontend within " + unit.toMillis(timeout) + "ms.")),
+                timeout, unit);
+        reply.whenComplete((value, err) -> expire.cancel(false));
+
+        return reply;
+    }
+
+    /**
+     * Drop every request that is still waiting for the frontend, for example because the
+     * execution that made them was interrupted. The futures are cancelled.
+     */
+    public void cancelPendingInput() {
+        CompletableFuture<String> reply;
+        while ((reply = this.outstanding.poll()) != null)
+            reply.cancel(false);
+    }
+
+    private String readDirectly(Message<InputRequest> request) {
+        this.inputLock.lock();
+        try {
+            super.sendMessage(request);
+            return super.readMessage(InputReply.MESSAGE_TYPE).getContent().getValue();
+        } finally {
+            this.inputLock.unlock();
+        }
+    }
+
+    /**
+     * Ask the frontend for input and wait for the answer.
+     * <p>
+     * <strong>Do not ask for input if an execute request has `allow_stdin=False`</strong>
+     *
+     * @param context           a message that the request with input was invoked by such as an execute request
+     * @param prompt            a prompt string for the front end to include with the input request
+     * @param isPasswordRequest a flag specifying if the input request is for a password, if so
+     *                          the frontend should obscure the user input (for example with password
+     *                          dots or not echoing the input)
+     *
+     * @return the input string from the frontend.
+     *
+     * @throws CancellationException if the request was {@link #cancelPendingInput() cancelled} or
+     *                               the calling thread was interrupted while waiting, in which case
+     *                               the interrupt flag is set again
+     */
+    public String getInput(MessageContext context, String prompt, boolean isPasswordRequest) {
+        CompletableFuture<String> reply = this.requestInput(context, prompt, isPasswordRequest);
+        try {
+            return reply.get() + System.lineSeparator();
+        } catch (InterruptedException e) {
+            reply.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for input.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException("Failed to read input from the frontend.", cause);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.closing = true;
+
+        CompletableFuture<String> reply;
+        while ((reply = this.outstanding.poll()) != null)
+            reply.completeExceptionally(new IllegalStateException("Stdin channel closed while waiting for input."));
+
+        ReactorLoop reactor;
+        if (this.ownsReactor) {
+            // Wait for a reactor that is being started by a request for input
+            this.inputLock.lock();
+            try {
+                reactor = this.reactor;
+            } finally {
+                this.inputLock.unlock();
+            }
+        } else {
+            reactor = this.reactor;
+        }
+
+        if (reactor != null && this.ownsReactor) {
+            reactor.shutdown();
+
+            // The reactor is blocked in a poll on this socket so let it wake up and release the
+            // socket before closing it.
+            if (!reactor.inLoop()) {
+                try {
+                    reactor.join(STDIN_CLOSE_TIMEOUT_MS);
+                } catch (InterruptedException ignored) { }
+            }
+        }
+        this.reactor = null;
+
+        super.close();
+    }
+
+    @Override
+    public void waitUntilClose() {
+        ReactorLoop reactor = this.reactor;
+        if (reactor != null && this.ownsReactor) {
+            try {
+                reactor.join();
+            } catch (InterruptedException ignored) { }
+        }
     }
 }
@@ -0,0 +1,170 @@
+package io.github.spencerpark.jupyter.channels;
+
+import io.github.spencerpark.jupyter.messages.Header;
+import io.github.spencerpark.jupyter.messages.Message;
+import io.github.spencerpark.jupyter.messages.MessageType;
+import io.github.spencerpark.jupyter.messages.publish.PublishStream;
+
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Merges consecutive {@code stream} messages into one before they are published. A stream
+ * message is held back for up to a time window and any following stream messages with the same
+ * parent and stream name are appended to it. The held message is sent when the window closes,
+ * when it grows past a size limit, or as soon as any other message is published so that streams
+ * are never reordered with respect to {@code display_data}, {@code execute_result}, {@code status}
+ * and so on.
+ * <p>
+ * Stream messages with metadata or buffers are passed through untouched.
+ */
+public class StreamCoalescer {
+    private static final Logger LOGGER = Logger.getLogger("StreamCoalescer");
+
+    private static class PendingStream {
+        private final Message<PublishStream> first;
+        private final StringBuilder text;
+
+        private PendingStream(Message<PublishStream> first) {
+            this.first = first;
+            this.text = new StringBuilder(first.getContent().getText());
+        }
+
+        private boolean canAppend(Message<PublishStream> message) {
+            return this.first.getContent().getStreamType() == message.getContent().getStreamType()
+                    && Objects.equals(parentId(this.first), parentId(message));
+        }
+
+        private Message<PublishStream> toMessage() {
+            PublishStream content = this.first.getContent();
+            if (this.text.length() == content.getText().length())
+                return this.first;
+
+            return new Message<>(
+                    this.first.getIdentities(),
+                    this.first.getHeader(),
+                    this.first.getParentHeader(),
+                    null,
+                    new PublishStream(content.getStreamType(), this.text.toString()),
+                    null);
+        }
+
+        private static String parentId(Message<?> message) {
+            Header<?> parent = message.getParentHeader();
+            return parent != null ? parent.getId() : null;
+        }
+    }
+
+    private final Consumer<Message<?>> sink;
+    private final long windowNanos;
+    private final int maxChars;
+
+    // Held while handing messages to the sink so that two threads can't reorder the pending
+    // stream and a message that is supposed to follow it.
+    private final ReentrantLock lock = new ReentrantLock();
+    private PendingStream pending;
+    private ScheduledFuture<?> scheduledFlush;
+
+    /**
+     * @param sink     where to send messages, the sink is only invoked by one thread at a time
+     * @param window   the longest time to hold back a stream message waiting for more output
+     * @param unit     the unit of the {@code window}
+     * @param maxChars the number of characters after which the pending stream message is sent
+     *                 without waiting for the window to close
+     */
+    public StreamCoalescer(Consumer<Message<?>> sink, long window, TimeUnit unit, int maxChars) {
+        this.sink = sink;
+        this.windowNanos = unit.toNanos(window);
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Publish a message, possibly holding it back to merge with following stream messages.
+     *
+     * @param message the message to publish
+     */
+    @SuppressWarnings("unchecked")
+    public void accept(Message<?> message) {
+        this.lock.lock();
+        try {
+            if (!isCoalescable(message)) {
+                this.flushPending();
+                this.sink.accept(message);
+                return;
+            }
+
+            Message<PublishStream> stream = (Message<PublishStream>) message;
+            if (this.pending != null && this.pending.canAppend(stream)) {
+                this.pending.text.append(stream.getContent().getText());
+            } else {
+                this.flushPending();
+                this.pending = new PendingStream(stream);
+                this.scheduledFlush = HandlerExecutors.sharedScheduler().schedule(this::flushExpired, this.windowNanos, TimeUnit.NANOSECONDS);
+            }
+
+            if (this.pending.text.length() >= this.maxChars)
+                this.flushPending();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Send the pending stream message, if any, right away.
+     */
+    public void flush() {
+        this.lock.lock();
+        try {
+            this.flushPending();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if a stream message is being held back.
+     */
+    public boolean hasPending() {
+        this.lock.lock();
+        try {
+            return this.pending != null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void flushExpired() {
+        try {
+            this.flush();
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to publish stream output.", e);
+        }
+    }
+
+    // Must hold the lock
+    private void flushPending() {
+        PendingStream pending = this.pending;
+        if (pending == null)
+            return;
+
+        this.pending = null;
+        if (this.scheduledFlush != null) {
+            this.scheduledFlush.cancel(false);
+            this.scheduledFlush = null;
+        }
+        this.sink.accept(pending.toMessage());
+    }
+
+    private static boolean isCoalescable(Message<?> message) {
+        if (message.getHeader().getType() != MessageType.PUBLISH_STREAM)
+            return false;
+        if (message.hasMetadata() && !message.getMetadata().isEmpty())
+            return false;
+        return message.getBlobBuffers() == null || message.getBlobBuffers().isEmpty();
+    }
+}
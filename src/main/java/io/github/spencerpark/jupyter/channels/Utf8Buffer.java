@@ -0,0 +1,219 @@
+package io.github.spencerpark.jupyter.channels;
+
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable buffer that UTF-8 encodes the characters written to it straight into its backing
+ * array. Serializing into a {@code Utf8Buffer} skips building the intermediate {@link String}
+ * and the copy made by {@link String#getBytes(java.nio.charset.Charset)}.
+ * <p>
+ * Unpaired surrogates are encoded as {@code '?'}, matching {@link String#getBytes(java.nio.charset.Charset)}.
+ * <p>
+ * The buffer is not thread safe.
+ */
+public class Utf8Buffer extends Writer {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final byte REPLACEMENT = '?';
+
+    private final int initialCapacity;
+    private byte[] buf;
+    private int size;
+
+    // The high half of a surrogate pair waiting on the low half, or 0.
+    private char highSurrogate;
+
+    public Utf8Buffer(int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+        this.buf = new byte[initialCapacity];
+        this.size = 0;
+    }
+
+    public Utf8Buffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > this.buf.length)
+            this.buf = Arrays.copyOf(this.buf, Math.max(capacity, this.buf.length << 1));
+    }
+
+    private void encode(char c) {
+        if (this.highSurrogate != 0) {
+            char high = this.highSurrogate;
+            this.highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int cp = Character.toCodePoint(high, c);
+                this.buf[this.size++] = (byte) (0xF0 | (cp >> 18));
+                this.buf[this.size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                this.buf[this.size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                this.buf[this.size++] = (byte) (0x80 | (cp & 0x3F));
+                return;
+            }
+            this.buf[this.size++] = REPLACEMENT;
+        }
+
+        if (c < 0x80) {
+            this.buf[this.size++] = (byte) c;
+        } else if (c < 0x800) {
+            this.buf[this.size++] = (byte) (0xC0 | (c >> 6));
+            this.buf[this.size++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            this.highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            this.buf[this.size++] = REPLACEMENT;
+        } else {
+            this.buf[this.size++] = (byte) (0xE0 | (c >> 12));
+            this.buf[this.size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            this.buf[this.size++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    @Override
+    public void write(int c) {
+        this.ensureCapacity(this.size + 4);
+        this.encode((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        this.ensureCapacity(this.size + len);
+        for (int i = off, end = off + len; i < end; i++) {
+            char c = cbuf[i];
+            if (c < 0x80 && this.highSurrogate == 0) {
+                this.buf[this.size++] = (byte) c;
+            } else {
+                // Room for this character plus everything after it as ascii
+                this.ensureCapacity(this.size + 4 + (end - i));
+                this.encode(c);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        this.ensureCapacity(this.size + len);
+        for (int i = off, end = off + len; i < end; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80 && this.highSurrogate == 0) {
+                this.buf[this.size++] = (byte) c;
+            } else {
+                this.ensureCapacity(this.size + 4 + (end - i));
+                this.encode(c);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str) {
+        this.write(str, 0, str.length());
+    }
+
+    @Override
+    public void write(char[] cbuf) {
+        this.write(cbuf, 0, cbuf.length);
+    }
+
+    /**
+     * Append raw bytes to the buffer. The bytes are expected to already be UTF-8 encoded.
+     *
+     * @param bytes the bytes to append
+     */
+    public void write(byte[] bytes) {
+        this.endCharacters();
+        this.ensureCapacity(this.size + bytes.length);
+        System.arraycopy(bytes, 0, this.buf, this.size, bytes.length);
+        this.size += bytes.length;
+    }
+
+    /**
+     * Append the remaining raw bytes in a buffer to this buffer. The bytes are expected to
+     * already be UTF-8 encoded. The position of {@code bytes} is not modified.
+     *
+     * @param bytes the bytes to append
+     */
+    public void write(ByteBuffer bytes) {
+        this.endCharacters();
+        int length = bytes.remaining();
+        this.ensureCapacity(this.size + length);
+        bytes.duplicate().get(this.buf, this.size, length);
+        this.size += length;
+    }
+
+    /**
+     * Finish writing characters, an unpaired high surrogate at the end of the input is
+     * encoded as a replacement character.
+     */
+    private void endCharacters() {
+        if (this.highSurrogate != 0) {
+            this.highSurrogate = 0;
+            this.ensureCapacity(this.size + 1);
+            this.buf[this.size++] = REPLACEMENT;
+        }
+    }
+
+    /**
+     * @return the number of encoded bytes in the buffer.
+     */
+    public int size() {
+        this.endCharacters();
+        return this.size;
+    }
+
+    public int capacity() {
+        return this.buf.length;
+    }
+
+    /**
+     * Get the backing array. Only the first {@link #size()} bytes are valid and the array is
+     * reused after the buffer is {@link #reset()}.
+     *
+     * @return the backing array
+     */
+    public byte[] array() {
+        this.endCharacters();
+        return this.buf;
+    }
+
+    /**
+     * Get a view of part of the buffer.
+     *
+     * @param from the index of the first byte, inclusive
+     * @param to   the index of the last byte, exclusive
+     *
+     * @return a buffer with its position at {@code from} and its limit at {@code to}, sharing
+     *         the backing array
+     */
+    public ByteBuffer slice(int from, int to) {
+        return ByteBuffer.wrap(this.array(), from, to - from);
+    }
+
+    /**
+     * Hand over the backing array, the buffer starts over with a new array of its initial
+     * capacity. Use this instead of copying the contents out of a large buffer when the buffer
+     * should not hold on to that much memory anyway.
+     *
+     * @return the backing array, only the first {@link #size()} bytes of which are valid
+     */
+    public byte[] detach() {
+        byte[] detached = this.array();
+        this.buf = new byte[this.initialCapacity];
+        this.size = 0;
+        return detached;
+    }
+
+    /**
+     * Discard the contents of the buffer, keeping the backing array.
+     */
+    public void reset() {
+        this.size = 0;
+        this.highSurrogate = 0;
+    }
+
+    @Override
+    public void flush() { }
+
+    @Override
+    public void close() { }
+}
@@ -0,0 +1,225 @@
+package io.github.spencerpark.jupyter.channels;
+
+import io.github.spencerpark.jupyter.messages.Header;
+import io.github.spencerpark.jupyter.messages.MessageType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A ring buffer of summaries of the most recent messages sent and received by a connection. Each
+ * summary holds the channel, message type, ids and the size of the content so recording one costs
+ * a single small allocation and never serializes the message. The full content of every
+ * {@code n}th message may optionally be kept as well by setting a {@code payloadSampleRate}.
+ * The content of {@code input_reply} messages is never kept as it may hold a password typed
+ * at a prompt.
+ * <p>
+ * Recording is lock free and may be done concurrently from any number of sockets. A
+ * {@link #snapshot() snapshot} taken while messages are being recorded may miss the entries that
+ * are being written at that moment.
+ */
+public class WireTrace {
+    public enum Direction {
+        SENT, RECEIVED
+    }
+
+    public static final class Entry {
+        private final long sequence;
+        private final long timestamp;
+        private final Direction direction;
+        private final String channel;
+        private final String type;
+        private final String id;
+        private final String parentId;
+        private final int contentSize;
+        private final String payload;
+
+        private Entry(long sequence, long timestamp, Direction direction, String channel, String type, String id, String parentId, int contentSize, String payload) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.direction = direction;
+            this.channel = channel;
+            this.type = type;
+            this.id = id;
+            this.parentId = parentId;
+            this.contentSize = contentSize;
+            this.payload = payload;
+        }
+
+        /**
+         * @return the position of this entry among all entries recorded by the trace.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return the time the message was sent or received in milliseconds since the epoch.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public Direction getDirection() {
+            return direction;
+        }
+
+        public String getChannel() {
+            return channel;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the id of the parent message or null if the message has no parent.
+         */
+        public String getParentId() {
+            return parentId;
+        }
+
+        /**
+         * @return the size of the encoded content in bytes.
+         */
+        public int getContentSize() {
+            return contentSize;
+        }
+
+        /**
+         * @return the json encoded content if this message was sampled, null otherwise.
+         */
+        public String getPayload() {
+            return payload;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(128);
+            sb.append(Instant.ofEpochMilli(this.timestamp))
+                    .append(' ').append(this.direction == Direction.SENT ? "->" : "<-")
+                    .append(' ').append(this.channel)
+                    .append(' ').append(this.type)
+                    .append(" id=").append(this.id);
+            if (this.parentId != null)
+                sb.append(" parent=").append(this.parentId);
+            sb.append(" content=").append(this.contentSize).append('B');
+            if (this.payload != null)
+                sb.append('\n').append("    ").append(this.payload);
+            return sb.toString();
+        }
+    }
+
+    private final int capacity;
+    private final int payloadSampleRate;
+    private final AtomicReferenceArray<Entry> entries;
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    /**
+     * @param capacity the number of most recent messages to keep
+     */
+    public WireTrace(int capacity) {
+        this(capacity, 0);
+    }
+
+    /**
+     * @param capacity          the number of most recent messages to keep
+     * @param payloadSampleRate keep the full content of every {@code payloadSampleRate}th
+     *                          message, {@code 1} to keep every message or {@code 0} to never
+     *                          keep the content
+     */
+    public WireTrace(int capacity, int payloadSampleRate) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be > 0 but was " + capacity);
+        if (payloadSampleRate < 0)
+            throw new IllegalArgumentException("payloadSampleRate must be >= 0 but was " + payloadSampleRate);
+        this.capacity = capacity;
+        this.payloadSampleRate = payloadSampleRate;
+        this.entries = new AtomicReferenceArray<>(capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getPayloadSampleRate() {
+        return payloadSampleRate;
+    }
+
+    /**
+     * @return the number of messages recorded since the trace was created.
+     */
+    public long getRecordedCount() {
+        return this.nextSequence.get();
+    }
+
+    /**
+     * Record a message.
+     *
+     * @param direction    if the message was sent or received
+     * @param channel      the name of the channel the message went through
+     * @param header       the header of the message
+     * @param parentHeader the header of the message's parent, may be null
+     * @param content      the encoded content, only read if the payload is sampled
+     */
+    public void record(Direction direction, String channel, Header<?> header, Header<?> parentHeader, ByteBuffer content) {
+        long sequence = this.nextSequence.getAndIncrement();
+
+        String payload = null;
+        if (this.payloadSampleRate > 0 && sequence % this.payloadSampleRate == 0 && header.getType() != MessageType.INPUT_REPLY)
+            payload = StandardCharsets.UTF_8.decode(content.duplicate()).toString();
+
+        Entry entry = new Entry(
+                sequence,
+                System.currentTimeMillis(),
+                direction,
+                channel,
+                header.getType() == null ? null : header.getType().getName(),
+                header.getId(),
+                parentHeader == null ? null : parentHeader.getId(),
+                content.remaining(),
+                payload
+        );
+
+        this.entries.set((int) (sequence % this.capacity), entry);
+    }
+
+    /**
+     * @return the recorded entries that are still in the buffer, oldest first.
+     */
+    public List<Entry> snapshot() {
+        long end = this.nextSequence.get();
+        long start = Math.max(0, end - this.capacity);
+        if (start == end)
+            return Collections.emptyList();
+
+        List<Entry> snapshot = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            Entry entry = this.entries.get((int) (sequence % this.capacity));
+            // Skip slots that are still being written or were overwritten since the snapshot began
+            if (entry != null && entry.sequence == sequence)
+                snapshot.add(entry);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the {@link #snapshot()} formatted with one entry per line.
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (Entry entry : this.snapshot())
+            sb.append(entry).append('\n');
+        return sb.toString();
+    }
+}
@@ -6,6 +6,7 @@ import io.github.spencerpark.jupyter.channels.JupyterConnection;
 import io.github.spencerpark.jupyter.channels.JupyterSocket;
 import io.github.spencerpark.jupyter.channels.ShellReplyEnvironment;
 import io.github.spencerpark.jupyter.kernel.comm.CommManager;
+import io.github.spencerpark.jupyter.kernel.comm.WireTraceComm;
 import io.github.spencerpark.jupyter.kernel.display.DisplayData;
 import io.github.spencerpark.jupyter.kernel.display.Renderer;
 import io.github.spencerpark.jupyter.kernel.display.common.Image;
@@ -28,6 +29,7 @@ import java.io.*;
 import java.nio.charset.Charset;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
 
 public abstract class BaseKernel {
@@ -62,6 +64,11 @@ public abstract class BaseKernel {
     private final JupyterIO io;
     private boolean shouldReplaceStdStreams;
 
+    // Guards execution instead of the kernel's monitor so that control handlers (and
+    // subclasses synchronizing on the kernel) never wait behind a running cell.
+    private final ReentrantLock executeLock = new ReentrantLock();
+    private volatile ShellReplyEnvironment currentExecution;
+
     protected CommManager commManager;
 
     protected Renderer renderer;
@@ -236,11 +243,43 @@ public abstract class BaseKernel {
     /**
      * Invoked when the kernel.json specifies an {@code interrupt_mode} of {@code message}
      * and the frontend requests an interrupt of the currently running cell.
+     * <p>
+     * This is invoked from the control channel while {@link #eval(String)} may still be
+     * running on another thread. By the time this is invoked {@link #isInterruptRequested()}
+     * already returns true and execute requests that were queued behind the running cell have
+     * been aborted.
      */
     public void interrupt() {
         //no-op
     }
 
+    /**
+     * Check if the frontend has asked to interrupt the cell that is currently executing. The
+     * flag belongs to the execution, the next execution starts without it. An execution that
+     * was still queued when the interrupt arrived doesn't run at all.
+     * <p>
+     * Interrupts are cooperative, long running evaluations should check this periodically (or
+     * call {@link #checkInterrupted()}) and stop early when it is set.
+     *
+     * @return true if an interrupt was requested during the current execution
+     */
+    public boolean isInterruptRequested() {
+        ShellReplyEnvironment env = this.currentExecution;
+        return env != null && env.isInterruptRequested();
+    }
+
+    /**
+     * Throw if the frontend has asked to interrupt the cell that is currently executing. See
+     * {@link #isInterruptRequested()}. This is meant to be sprinkled into long running
+     * evaluations, the exception is reported to the frontend like any other evaluation error.
+     *
+     * @throws InterruptedException if an interrupt was requested during the current execution
+     */
+    public void checkInterrupted() throws InterruptedException {
+        if (this.isInterruptRequested())
+            throw new InterruptedException("Execution interrupted by the frontend.");
+    }
+
     /**
      * Formats an error into a human friendly format. The default implementation prints
      * the stack trace as written by {@link Throwable#printStackTrace()} with a dividing
@@ -287,30 +326,58 @@ public abstract class BaseKernel {
         connection.setHandler(MessageType.SHUTDOWN_REQUEST, this::handleShutdownRequest);
         connection.setHandler(MessageType.INTERRUPT_REQUEST, this::handleInterruptRequest);
 
+        // Control messages are answered on their own lane so they never wait on a running cell.
+        connection.setControlHandler(MessageType.KERNEL_INFO_REQUEST, this::handleKernelInfoRequest);
+        connection.setControlHandler(MessageType.SHUTDOWN_REQUEST, this::handleShutdownRequest);
+        connection.setControlHandler(MessageType.INTERRUPT_REQUEST, this::handleInterruptRequest);
+
         this.commManager.setIOPubChannel(connection.getIOPub());
         connection.setHandler(MessageType.COMM_OPEN_COMMAND, commManager::handleCommOpenCommand);
         connection.setHandler(MessageType.COMM_MSG_COMMAND, commManager::handleCommMsgCommand);
         connection.setHandler(MessageType.COMM_CLOSE_COMMAND, commManager::handleCommCloseCommand);
         connection.setHandler(MessageType.COMM_INFO_REQUEST, commManager::handleCommInfoRequest);
+
+        // Dumps the connection's wire trace for debugging, only offered while tracing is enabled.
+        connection.onWireTraceChanged(trace -> {
+            if (trace != null)
+                this.commManager.registerTarget(WireTraceComm.TARGET_NAME, WireTraceComm.target(connection::getWireTrace));
+            else
+                this.commManager.unregisterTarget(WireTraceComm.TARGET_NAME);
+        });
     }
 
-    private void replaceOutputStreams(ShellReplyEnvironment env) {
-        PrintStream oldStdOut = System.out;
-        PrintStream oldStdErr = System.err;
-        InputStream oldStdIn = System.in;
+    private void routeStandardStreams(ShellReplyEnvironment env, boolean stdinEnabled) {
+        StandardStreamRouter.install();
 
-        System.setOut(this.io.out);
-        System.setErr(this.io.err);
-        System.setIn(this.io.in);
+        StandardStreamRouter.Route route = new StandardStreamRouter.Route(env, this.io, stdinEnabled);
+        StandardStreamRouter.Route previous = StandardStreamRouter.enter(route);
 
         env.defer(() -> {
-            System.setOut(oldStdOut);
-            System.setErr(oldStdErr);
-            System.setIn(oldStdIn);
+            route.flush();
+            route.disableInput();
+            StandardStreamRouter.exit(previous);
         });
     }
 
-    private synchronized void handleExecuteRequest(ShellReplyEnvironment env, Message<ExecuteRequest> executeRequestMessage) {
+    private void flushOutput() {
+        this.io.flush();
+        StandardStreamRouter.Route route = StandardStreamRouter.current();
+        if (route != null)
+            route.flush();
+    }
+
+    private void handleExecuteRequest(ShellReplyEnvironment env, Message<ExecuteRequest> executeRequestMessage) {
+        this.executeLock.lock();
+        try {
+            this.currentExecution = env;
+            this.executeRequest(env, executeRequestMessage);
+        } finally {
+            this.currentExecution = null;
+            this.executeLock.unlock();
+        }
+    }
+
+    private void executeRequest(ShellReplyEnvironment env, Message<ExecuteRequest> executeRequestMessage) {
         this.commManager.setMessageContext(executeRequestMessage);
 
         ExecuteRequest request = executeRequestMessage.getContent();
@@ -323,7 +390,7 @@ public abstract class BaseKernel {
         env.publish(new PublishExecuteInput(request.getCode(), count));
 
         if (this.shouldReplaceStdStreams())
-            this.replaceOutputStreams(env);
+            this.routeStandardStreams(env, request.isStdinEnabled());
 
         this.io.setEnv(env);
         env.defer(() -> this.io.retractEnv(env));
@@ -333,6 +400,9 @@ public abstract class BaseKernel {
         try {
             DisplayData out = eval(request.getCode());
 
+            // Buffered output was written before the result and should be shown above it
+            this.flushOutput();
+
             if (out != null) {
                 PublishExecuteResult result = new PublishExecuteResult(count, out);
                 env.publish(result);
@@ -342,6 +412,7 @@ public abstract class BaseKernel {
         } catch (Exception e) {
             ErrorReply error = ErrorReply.of(e);
             error.setExecutionCount(count);
+            this.flushOutput();
             env.publish(PublishError.of(e, this::formatError));
             env.defer().replyError(ExecuteReply.MESSAGE_TYPE.error(), error);
         }
@@ -459,6 +530,9 @@ public abstract class BaseKernel {
         env.setBusyDeferIdle();
         env.defer().reply(new InterruptReply());
 
+        // The connection already flagged the running execution, see isInterruptRequested()
+        // Wake up an execution that is waiting for input
+        env.cancelInputRequests();
         this.interrupt();
     }
 }
@@ -0,0 +1,144 @@
+package io.github.spencerpark.jupyter.kernel;
+
+import io.github.spencerpark.jupyter.channels.HandlerExecutors;
+import io.github.spencerpark.jupyter.channels.ShellReplyEnvironment;
+import io.github.spencerpark.jupyter.kernel.display.DisplayData;
+import io.github.spencerpark.jupyter.messages.publish.PublishDisplayData;
+import io.github.spencerpark.jupyter.messages.publish.PublishUpdateDisplayData;
+
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A display that is published once and then updated in place while a result is being produced,
+ * see {@link DisplayStream#open(DisplayData)}.
+ * <p>
+ * Each {@link #update(DisplayData) update} replaces the whole display in the frontend so only
+ * the most recent one matters. Updates are published at most once per update interval, an
+ * update made sooner is held until the interval passes and replaced by any update that comes
+ * after it. The sink therefore never holds more than one update no matter how quickly they are
+ * made. {@link #close() Closing} the sink publishes the held update right away.
+ * <p>
+ * The sink publishes to the execution that was running when it was opened, even if it is updated
+ * after that execution finished.
+ * A held update is published from a timer thread, it goes out right away even if the execution
+ * has {@link io.github.spencerpark.jupyter.channels.ReplyEnvironment#defer() deferred} its next
+ * message.
+ */
+public class DisplaySink implements AutoCloseable {
+    private final ShellReplyEnvironment env;
+    private final String displayId;
+    private final long updateIntervalNanos;
+
+    // A lock rather than a monitor so that a virtual thread updating the display parks instead
+    // of pinning its carrier thread.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Guarded by the lock
+    private DisplayData held;
+    private long lastPublished;
+    private ScheduledFuture<?> scheduledUpdate;
+    private volatile boolean closed = false;
+
+    DisplaySink(ShellReplyEnvironment env, DisplayData initial, long updateInterval, TimeUnit unit) {
+        if (updateInterval < 0)
+            throw new IllegalArgumentException("updateInterval must be >= 0 but was " + updateInterval);
+
+        this.env = env;
+        this.displayId = initial.hasDisplayId() ? initial.getDisplayId() : UUID.randomUUID().toString();
+        this.updateIntervalNanos = unit.toNanos(updateInterval);
+
+        initial.setDisplayId(this.displayId);
+        if (this.env != null)
+            this.env.publish(new PublishDisplayData(initial));
+        this.lastPublished = System.nanoTime();
+    }
+
+    public String getDisplayId() {
+        return this.displayId;
+    }
+
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Replace the content of the display. The {@code data} is given the sink's display id.
+     *
+     * @param data the new content
+     *
+     * @throws IllegalStateException if the sink is closed
+     */
+    public void update(DisplayData data) {
+        data.setDisplayId(this.displayId);
+
+        this.lock.lock();
+        try {
+            if (this.closed)
+                throw new IllegalStateException("Display " + this.displayId + " is closed.");
+
+            long wait = this.lastPublished + this.updateIntervalNanos - System.nanoTime();
+            if (wait <= 0 && this.scheduledUpdate == null) {
+                this.publish(data);
+                return;
+            }
+
+            this.held = data;
+            if (this.scheduledUpdate == null)
+                this.scheduledUpdate = HandlerExecutors.sharedScheduler().schedule(this::publishHeld, wait, TimeUnit.NANOSECONDS);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void publishHeld() {
+        this.lock.lock();
+        try {
+            // A close since this task was scheduled already published the update
+            if (this.scheduledUpdate == null)
+                return;
+            this.scheduledUpdate = null;
+
+            DisplayData data = this.held;
+            if (data != null)
+                this.publish(data);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Guarded by the lock
+    private void publish(DisplayData data) {
+        this.held = null;
+        if (this.env != null)
+            this.env.publish(new PublishUpdateDisplayData(data));
+        this.lastPublished = System.nanoTime();
+    }
+
+    /**
+     * Publish the update that is being held back, if any, and stop accepting updates. Closing a
+     * closed sink does nothing.
+     */
+    @Override
+    public void close() {
+        this.lock.lock();
+        try {
+            if (this.closed)
+                return;
+            this.closed = true;
+
+            if (this.scheduledUpdate != null) {
+                this.scheduledUpdate.cancel(false);
+                this.scheduledUpdate = null;
+            }
+
+            DisplayData data = this.held;
+            if (data != null)
+                this.publish(data);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
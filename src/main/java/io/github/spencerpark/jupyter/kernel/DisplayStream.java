@@ -5,7 +5,11 @@ import io.github.spencerpark.jupyter.kernel.display.DisplayData;
 import io.github.spencerpark.jupyter.messages.publish.PublishDisplayData;
 import io.github.spencerpark.jupyter.messages.publish.PublishUpdateDisplayData;
 
+import java.util.concurrent.TimeUnit;
+
 public class DisplayStream {
+    public static final long DEFAULT_UPDATE_INTERVAL_MILLIS = 100;
+
     private ShellReplyEnvironment env;
 
     protected void setEnv(ShellReplyEnvironment env) {
@@ -38,4 +42,37 @@ public class DisplayStream {
         data.setDisplayId(id);
         this.updateDisplay(data);
     }
+
+    /**
+     * Display {@code initial} and return a sink to update it with as a result is produced. For
+     * example an evaluation that renders a large table can show the rows rendered so far instead
+     * of building the whole table before anything is shown, and return {@code null} from
+     * {@link BaseKernel#eval(String)} once the sink is {@link DisplaySink#close() closed}.
+     * <p>
+     * Updates are published at most every {@value #DEFAULT_UPDATE_INTERVAL_MILLIS} milliseconds.
+     * <p>
+     * Each update carries the whole display, not just what was added since the last one. The
+     * sink only avoids holding on to more than one update at a time, the final display is still
+     * built in memory in full and an update of it is as large as the display itself. Output that
+     * is too large to keep in memory should be split over several displays.
+     *
+     * @param initial the content to show until the first update, it is given a display id if
+     *                it doesn't have one yet
+     *
+     * @return the sink to update the display through
+     */
+    public DisplaySink open(DisplayData initial) {
+        return this.open(initial, DEFAULT_UPDATE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Like {@link #open(DisplayData)} but with a custom update interval.
+     *
+     * @param updateInterval the minimum time between published updates, {@code 0} to publish
+     *                       every update
+     * @param unit           the unit of the {@code updateInterval}
+     */
+    public DisplaySink open(DisplayData initial, long updateInterval, TimeUnit unit) {
+        return new DisplaySink(this.env, initial, updateInterval, unit);
+    }
 }
@@ -1,5 +1,6 @@
 package io.github.spencerpark.jupyter.kernel;
 
+import io.github.spencerpark.jupyter.channels.JupyterInputReader;
 import io.github.spencerpark.jupyter.channels.JupyterInputStream;
 import io.github.spencerpark.jupyter.channels.JupyterOutputStream;
 import io.github.spencerpark.jupyter.channels.JupyterSocket;
@@ -9,8 +10,18 @@ import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * The streams a kernel writes its output to. {@link #out} and {@link #err} don't publish each
+ * line as it is written, output is buffered until {@link #getFlushThreshold() enough} of it is
+ * waiting, the oldest output has waited for the {@link #getFlushLatency(TimeUnit) flush
+ * latency}, the stream is flushed explicitly or the execution finishes.
+ */
 public class JupyterIO {
+    public static final int DEFAULT_FLUSH_THRESHOLD = 8 * 1024;
+    public static final long DEFAULT_FLUSH_LATENCY_MILLIS = 50;
+
     private final JupyterOutputStream jupyterOut;
     private final JupyterOutputStream jupyterErr;
     private final JupyterInputStream jupyterIn;
@@ -20,6 +31,14 @@ public class JupyterIO {
     public final PrintStream out;
     public final PrintStream err;
     public final InputStream in;
+    /**
+     * The same input as {@link #in} without the round trip through the encoding. The two don't
+     * share a buffer, a line is read by whichever of them asked for it.
+     */
+    public final JupyterInputReader reader;
+
+    private volatile int flushThreshold;
+    private volatile long flushLatencyNanos;
 
     public JupyterIO(Charset encoding) {
         this.jupyterOut = new JupyterOutputStream(ShellReplyEnvironment::writeToStdOut);
@@ -28,23 +47,95 @@ public class JupyterIO {
 
         this.display = new DisplayStream();
 
+        // A prompt written right before reading should be shown before the input box.
+        this.jupyterIn.setBeforeRequest(this::flush);
+        this.reader = new JupyterInputReader();
+        this.reader.setBeforeRequest(this::flush);
+
         try {
-            this.out = new PrintStream(this.jupyterOut, true, encoding.name());
-            this.err = new PrintStream(this.jupyterErr, true, encoding.name());
+            this.out = new PrintStream(this.jupyterOut, false, encoding.name());
+            this.err = new PrintStream(this.jupyterErr, false, encoding.name());
             this.in = this.jupyterIn;
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException("Couldn't lookup the charset by name even though it is already a charset...", e);
         }
+
+        this.setFlushPolicy(DEFAULT_FLUSH_THRESHOLD, DEFAULT_FLUSH_LATENCY_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     public JupyterIO() {
         this(JupyterSocket.UTF_8);
     }
 
+    public Charset getEncoding() {
+        return this.jupyterIn.getEncoding();
+    }
+
+    /**
+     * Configure when buffered output on {@link #out} and {@link #err} is published. This also
+     * applies to the standard streams of executions that start after the change.
+     *
+     * @param flushThreshold publish as soon as this many characters are buffered, or {@code 0}
+     *                       to publish once {@link JupyterOutputStream#DEFAULT_FLUSH_LIMIT}
+     *                       characters are buffered
+     * @param flushLatency   publish buffered output at most this long after it was written, or
+     *                       {@code 0} to only publish when flushed or when the execution ends
+     * @param unit           the unit of {@code flushLatency}
+     */
+    public void setFlushPolicy(int flushThreshold, long flushLatency, TimeUnit unit) {
+        this.jupyterOut.setFlushPolicy(flushThreshold, flushLatency, unit);
+        this.jupyterErr.setFlushPolicy(flushThreshold, flushLatency, unit);
+        this.flushThreshold = flushThreshold;
+        this.flushLatencyNanos = unit.toNanos(flushLatency);
+    }
+
+    public int getFlushThreshold() {
+        return this.flushThreshold;
+    }
+
+    public long getFlushLatency(TimeUnit unit) {
+        return unit.convert(this.flushLatencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Apply this io's flush policy to another stream.
+     *
+     * @param stream the stream to configure
+     */
+    protected void applyFlushPolicy(JupyterOutputStream stream) {
+        stream.setFlushPolicy(this.flushThreshold, this.flushLatencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Configure how long reads from {@link #in} and {@link #reader} wait for the frontend. This
+     * also applies to the standard input of executions that start after the change.
+     *
+     * @param timeout how long to wait before the read fails with an {@link
+     *                java.io.InterruptedIOException}, or {@code 0} to wait as long as it takes
+     * @param unit    the unit of the {@code timeout}
+     */
+    public void setInputTimeout(long timeout, TimeUnit unit) {
+        this.jupyterIn.setReadTimeout(timeout, unit);
+        this.reader.setReadTimeout(timeout, unit);
+    }
+
+    public long getInputTimeout(TimeUnit unit) {
+        return this.jupyterIn.getReadTimeout(unit);
+    }
+
+    /**
+     * Publish the output buffered on {@link #out} and {@link #err}.
+     */
+    public void flush() {
+        this.out.flush();
+        this.err.flush();
+    }
+
     public boolean isAttached() {
         return this.jupyterOut.isAttached()
                 && this.jupyterErr.isAttached()
                 && this.jupyterIn.isAttached()
+                && this.reader.isAttached()
                 && this.display.isAttached();
     }
 
@@ -52,6 +143,7 @@ public class JupyterIO {
         this.jupyterOut.setEnv(env);
         this.jupyterErr.setEnv(env);
         this.jupyterIn.setEnv(env);
+        this.reader.setEnv(env);
         this.display.setEnv(env);
     }
 
@@ -59,10 +151,12 @@ public class JupyterIO {
         this.jupyterOut.retractEnv(env);
         this.jupyterErr.retractEnv(env);
         this.jupyterIn.retractEnv(env);
+        this.reader.retractEnv(env);
         this.display.retractEnv(env);
     }
 
     protected void setJupyterInEnabled(boolean enabled) {
         this.jupyterIn.setEnabled(enabled);
+        this.reader.setEnabled(enabled);
     }
 }
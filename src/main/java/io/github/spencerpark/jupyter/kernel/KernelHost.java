@@ -0,0 +1,219 @@
+package io.github.spencerpark.jupyter.kernel;
+
+import io.github.spencerpark.jupyter.channels.HandlerExecutors;
+import io.github.spencerpark.jupyter.channels.JupyterConnection;
+import io.github.spencerpark.jupyter.channels.ReactorLoop;
+import org.zeromq.ZMQ;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs many kernels in a single JVM. Each kernel has its own {@link KernelConnectionProperties}
+ * (ports, key and signature scheme) and therefore its own session, but the kernels share a
+ * single ZMQ context and a small pool of {@link ReactorLoop}s that read from all of their
+ * sockets.
+ * <p>
+ * Handlers for each kernel run in order on that kernel's own shell and control lanes. When the
+ * JVM supports virtual threads each lane is a virtual thread. Otherwise the shell lanes are
+ * platform threads, since a cell may run for a long time, and the control lanes, whose handlers
+ * are short, share a small pool of platform threads owned by the host.
+ * <p>
+ * Kernels are removed from the host when their connection closes, either because the frontend
+ * asked the kernel to shutdown or because the kernel was {@link #shutdown(JupyterConnection)
+ * shutdown by the host}.
+ * <p>
+ * Kernels hosted together share the JVM's standard streams. Writes to them are routed by
+ * {@link StandardStreamRouter}: each one goes to the execution that the writing thread belongs to.
+ */
+public class KernelHost {
+    private static final Logger LOGGER = Logger.getLogger("KernelHost");
+
+    private static final AtomicInteger HOST_ID = new AtomicInteger();
+    private static final long REACTOR_CLOSE_TIMEOUT_MS = 5000;
+    private static final int CONTROL_POOL_SIZE = 2;
+
+    private final ZMQ.Context ctx;
+    private final List<ReactorLoop> reactors;
+    private final AtomicInteger nextReactor = new AtomicInteger();
+    // Null when control handlers run on virtual threads
+    private final ExecutorService controlPool;
+
+    private final Map<JupyterConnection, BaseKernel> kernels = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    /**
+     * Create a host that reads from the sockets of all of its kernels with {@code ioThreads}
+     * reactor threads. Kernels are assigned to reactors round-robin.
+     *
+     * @param ioThreads the number of reactor threads to share between the kernels
+     */
+    public KernelHost(int ioThreads) {
+        if (ioThreads <= 0)
+            throw new IllegalArgumentException("ioThreads must be > 0 but was " + ioThreads);
+
+        this.ctx = ZMQ.context(1);
+
+        int hostId = HOST_ID.getAndIncrement();
+        List<ReactorLoop> reactors = new ArrayList<>(ioThreads);
+        for (int i = 0; i < ioThreads; i++) {
+            ReactorLoop reactor = new ReactorLoop("KernelHost-" + hostId + "-IO-" + i, this.ctx);
+            // A reactor serves many kernels, don't let a bad message from one take down the others.
+            reactor.onError(t -> {
+                LOGGER.log(Level.SEVERE, "Error in " + reactor.getName() + ".", t);
+                return 0;
+            });
+            reactor.start();
+            reactors.add(reactor);
+        }
+        this.reactors = Collections.unmodifiableList(reactors);
+
+        this.controlPool = HandlerExecutors.isVirtualThreadSupported()
+                ? null
+                : Executors.newFixedThreadPool(CONTROL_POOL_SIZE, HandlerExecutors.platformThreadFactory("KernelHost-" + hostId + "-control"));
+    }
+
+    public KernelHost() {
+        this(1);
+    }
+
+    /**
+     * Connect a kernel to the frontend described by the {@code connProps}.
+     *
+     * @param kernel    the kernel to host
+     * @param connProps the connection properties that the frontend created for this kernel
+     *
+     * @return the kernel's connection. It may be used to configure the connection's executors
+     *         before it is connected.
+     *
+     * @throws NoSuchAlgorithmException if the signature scheme in the {@code connProps} is not supported
+     * @throws InvalidKeyException      if the key in the {@code connProps} is not valid for the signature scheme
+     * @throws IllegalStateException    if the host is closed
+     */
+    public JupyterConnection start(BaseKernel kernel, KernelConnectionProperties connProps) throws NoSuchAlgorithmException, InvalidKeyException {
+        JupyterConnection connection = this.prepare(kernel, connProps);
+        connection.connect();
+        return connection;
+    }
+
+    /**
+     * Like {@link #start(BaseKernel, KernelConnectionProperties)} but leaves connecting up to the
+     * caller which allows configuring the connection (for example its
+     * {@link JupyterConnection#setExecutionScheduler(io.github.spencerpark.jupyter.channels.ExecutionScheduler)
+     * execution scheduler}) before it starts receiving messages.
+     *
+     * @param kernel    the kernel to host
+     * @param connProps the connection properties that the frontend created for this kernel
+     *
+     * @return the kernel's connection which must be {@link JupyterConnection#connect() connected}
+     *
+     * @throws NoSuchAlgorithmException if the signature scheme in the {@code connProps} is not supported
+     * @throws InvalidKeyException      if the key in the {@code connProps} is not valid for the signature scheme
+     * @throws IllegalStateException    if the host is closed
+     */
+    public JupyterConnection prepare(BaseKernel kernel, KernelConnectionProperties connProps) throws NoSuchAlgorithmException, InvalidKeyException {
+        if (this.closed)
+            throw new IllegalStateException("Kernel host is closed.");
+
+        ReactorLoop reactor = this.reactors.get(Math.floorMod(this.nextReactor.getAndIncrement(), this.reactors.size()));
+
+        JupyterConnection connection = new JupyterConnection(connProps, this.ctx, reactor);
+        if (this.controlPool != null)
+            connection.setControlExecutor(HandlerExecutors.serial(this.controlPool));
+        kernel.becomeHandlerForConnection(connection);
+
+        this.kernels.put(connection, kernel);
+        connection.onClose(() -> {
+            this.kernels.remove(connection);
+            LOGGER.log(Level.INFO, "Kernel on " + reactor.getName() + " closed, " + this.kernels.size() + " remaining.");
+        });
+
+        return connection;
+    }
+
+    /**
+     * Shutdown a single kernel. The kernel's {@link BaseKernel#onShutdown(boolean)} hook is invoked
+     * before its connection is closed. The other kernels in the host are not affected.
+     *
+     * @param connection the connection returned when the kernel was started
+     */
+    public void shutdown(JupyterConnection connection) {
+        BaseKernel kernel = this.kernels.get(connection);
+        if (kernel == null)
+            return;
+
+        try {
+            kernel.onShutdown(false);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Kernel failed to shutdown cleanly.", e);
+        }
+        connection.close();
+    }
+
+    /**
+     * @return a snapshot of the kernels that are currently hosted.
+     */
+    public Collection<BaseKernel> getKernels() {
+        return new ArrayList<>(this.kernels.values());
+    }
+
+    public int getKernelCount() {
+        return this.kernels.size();
+    }
+
+    public int getIOThreadCount() {
+        return this.reactors.size();
+    }
+
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Shutdown all of the hosted kernels and release the shared context and reactor threads.
+     */
+    public void close() {
+        if (this.closed)
+            return;
+        this.closed = true;
+
+        new ArrayList<>(this.kernels.keySet()).forEach(this::shutdown);
+
+        for (ReactorLoop reactor : this.reactors)
+            reactor.shutdown();
+        for (ReactorLoop reactor : this.reactors) {
+            if (reactor.inLoop())
+                continue;
+            try {
+                reactor.join(REACTOR_CLOSE_TIMEOUT_MS);
+            } catch (InterruptedException ignored) { }
+        }
+
+        if (this.controlPool != null)
+            this.controlPool.shutdown();
+
+        this.ctx.close();
+    }
+
+    /**
+     * Block until the host is {@link #close() closed}.
+     */
+    public void waitUntilClose() {
+        for (ReactorLoop reactor : this.reactors) {
+            try {
+                reactor.join();
+            } catch (InterruptedException ignored) { }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package io.github.spencerpark.jupyter.kernel;
+
+import io.github.spencerpark.jupyter.channels.HandlerExecutors;
+import io.github.spencerpark.jupyter.channels.JupyterInputStream;
+import io.github.spencerpark.jupyter.channels.JupyterOutputStream;
+import io.github.spencerpark.jupyter.channels.JupyterSocket;
+import io.github.spencerpark.jupyter.channels.ShellReplyEnvironment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routes {@link System#out}, {@link System#err} and {@link System#in} to the execution that
+ * the calling thread belongs to. The routing streams are {@link #install() installed} once and
+ * stay in place, each write looks up the {@link Route} of the current thread and falls back to
+ * the streams that were in place before the router was installed if the thread has none.
+ * <p>
+ * Routes are inherited by the threads that are created while a route is {@link #enter(Route)
+ * entered}. Output from a thread started by a cell, for example an executor or a callback
+ * thread, is therefore published with the cell that started it as its parent, even after that
+ * cell finished executing. Threads that already existed (such as pooled threads created by an
+ * earlier cell) keep the route of the cell that created them. Threads created by a {@link
+ * HandlerExecutors#sharedThreadFactory(String) shared thread factory} never take a route.
+ */
+public final class StandardStreamRouter {
+    /**
+     * The streams of a single execution. Output is published through the execution's
+     * {@link ShellReplyEnvironment}.
+     */
+    public static final class Route {
+        private final JupyterOutputStream out;
+        private final JupyterOutputStream err;
+        private final JupyterInputStream in;
+
+        public Route(ShellReplyEnvironment env, Charset encoding, boolean stdinEnabled) {
+            this.out = new JupyterOutputStream(env, ShellReplyEnvironment::writeToStdOut);
+            this.err = new JupyterOutputStream(env, ShellReplyEnvironment::writeToStdErr);
+            this.in = new JupyterInputStream(encoding, env, stdinEnabled);
+            this.in.setBeforeRequest(this::flush);
+        }
+
+        /**
+         * Create a route that buffers its output according to the flush policy of {@code io} and
+         * waits for input as long as {@code io} does.
+         *
+         * @param env          the environment of the execution
+         * @param io           the io to take the encoding, flush policy and input timeout from
+         * @param stdinEnabled if the execution may ask the frontend for input
+         */
+        public Route(ShellReplyEnvironment env, JupyterIO io, boolean stdinEnabled) {
+            this(env, io.getEncoding(), stdinEnabled);
+            io.applyFlushPolicy(this.out);
+            io.applyFlushPolicy(this.err);
+            this.in.setReadTimeout(io.getInputTimeout(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Publish any buffered output.
+         */
+        public void flush() {
+            this.out.flush();
+            this.err.flush();
+        }
+
+        /**
+         * Stop asking the frontend for input. Threads that outlive the execution may still
+         * write output but input can only be requested while the execution is running.
+         */
+        public void disableInput() {
+            this.in.setEnabled(false);
+        }
+    }
+
+    private static final InheritableThreadLocal<Route> ROUTE = new InheritableThreadLocal<Route>() {
+        @Override
+        protected Route childValue(Route parentValue) {
+            // A shared thread, such as the timer thread, outlives the execution that created it
+            return HandlerExecutors.isCreatingSharedThread() ? null : parentValue;
+        }
+    };
+
+    // Guarded by the class
+    private static boolean installed = false;
+    private static PrintStream systemOut;
+    private static PrintStream systemErr;
+    private static InputStream systemIn;
+
+    private StandardStreamRouter() { }
+
+    /**
+     * Replace the standard streams with the routing streams. This is only done the first time
+     * this method is called, subsequent calls do nothing.
+     */
+    public static synchronized void install() {
+        if (installed)
+            return;
+
+        systemOut = System.out;
+        systemErr = System.err;
+        systemIn = System.in;
+
+        try {
+            // The jupyter output streams decode utf-8
+            String encoding = JupyterSocket.UTF_8.name();
+            // Not auto flushing, the route's streams decide when to publish
+            System.setOut(new PrintStream(new RoutingOutputStream(false), false, encoding));
+            System.setErr(new PrintStream(new RoutingOutputStream(true), false, encoding));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("Couldn't lookup the charset by name even though it is already a charset...", e);
+        }
+        System.setIn(new RoutingInputStream());
+
+        installed = true;
+    }
+
+    public static synchronized boolean isInstalled() {
+        return installed;
+    }
+
+    /**
+     * Route the current thread's standard streams, and those of the threads it creates, to
+     * {@code route}.
+     *
+     * @param route the route to use
+     *
+     * @return the previous route of the thread to pass to {@link #exit(Route)}
+     */
+    public static Route enter(Route route) {
+        Route previous = ROUTE.get();
+        ROUTE.set(route);
+        return previous;
+    }
+
+    /**
+     * Restore the route that was replaced by {@link #enter(Route)}.
+     *
+     * @param previous the route returned by {@code enter}
+     */
+    public static void exit(Route previous) {
+        if (previous == null)
+            ROUTE.remove();
+        else
+            ROUTE.set(previous);
+    }
+
+    /**
+     * @return the route of the current thread or null if it writes to the original streams.
+     */
+    public static Route current() {
+        return ROUTE.get();
+    }
+
+    private static final class RoutingOutputStream extends OutputStream {
+        private final boolean isErr;
+
+        private RoutingOutputStream(boolean isErr) {
+            this.isErr = isErr;
+        }
+
+        private OutputStream target() {
+            Route route = ROUTE.get();
+            if (route != null)
+                return this.isErr ? route.err : route.out;
+            return this.isErr ? systemErr : systemOut;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.target().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.target().flush();
+        }
+    }
+
+    private static final class RoutingInputStream extends InputStream {
+        private InputStream source() {
+            Route route = ROUTE.get();
+            return route != null ? route.in : systemIn;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return this.source().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return this.source().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return this.source().available();
+        }
+    }
+}
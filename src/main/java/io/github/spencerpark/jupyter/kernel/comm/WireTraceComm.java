@@ -0,0 +1,85 @@
+package io.github.spencerpark.jupyter.kernel.comm;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import io.github.spencerpark.jupyter.channels.WireTrace;
+import io.github.spencerpark.jupyter.messages.Message;
+import io.github.spencerpark.jupyter.messages.comm.CommCloseCommand;
+import io.github.spencerpark.jupyter.messages.comm.CommMsgCommand;
+
+import java.time.Instant;
+import java.util.function.Supplier;
+
+/**
+ * A comm that answers every message with a dump of the connection's {@link WireTrace}. The
+ * frontend opens a comm with the {@link #TARGET_NAME} and sends it any message to get back
+ * <pre>{@code
+ * {
+ *   "enabled": true,
+ *   "recorded": 1234,
+ *   "entries": [
+ *     { "sequence": 1200, "time": "...", "direction": "RECEIVED", "channel": "ShellChannel",
+ *       "msg_type": "execute_request", "msg_id": "...", "parent_id": "...", "content_size": 97 },
+ *     ...
+ *   ]
+ * }
+ * }</pre>
+ * with the sampled {@code payload} included on the entries that have one.
+ */
+public class WireTraceComm extends Comm {
+    public static final String TARGET_NAME = "jupyter.wire_trace";
+
+    /**
+     * @param trace looks up the trace to dump each time a dump is requested, it may return null if
+     *              tracing is disabled
+     *
+     * @return a target that creates comms dumping the trace
+     */
+    public static CommTarget target(Supplier<WireTrace> trace) {
+        return (manager, id, targetName, msg) -> new WireTraceComm(manager, id, targetName, trace);
+    }
+
+    private final Supplier<WireTrace> trace;
+
+    public WireTraceComm(CommManager manager, String id, String targetName, Supplier<WireTrace> trace) {
+        super(manager, id, targetName);
+        this.trace = trace;
+    }
+
+    @Override
+    protected void onMessage(Message<CommMsgCommand> message) {
+        super.send(toJson(this.trace.get()));
+    }
+
+    @Override
+    protected void onClose(Message<CommCloseCommand> closeMessage, boolean sending) { }
+
+    public static JsonObject toJson(WireTrace trace) {
+        JsonObject dump = new JsonObject();
+        dump.addProperty("enabled", trace != null);
+        if (trace == null)
+            return dump;
+
+        dump.addProperty("recorded", trace.getRecordedCount());
+
+        JsonArray entries = new JsonArray();
+        for (WireTrace.Entry entry : trace.snapshot()) {
+            JsonObject json = new JsonObject();
+            json.addProperty("sequence", entry.getSequence());
+            json.addProperty("time", Instant.ofEpochMilli(entry.getTimestamp()).toString());
+            json.addProperty("direction", entry.getDirection().name());
+            json.addProperty("channel", entry.getChannel());
+            json.addProperty("msg_type", entry.getType());
+            json.addProperty("msg_id", entry.getId());
+            if (entry.getParentId() != null)
+                json.addProperty("parent_id", entry.getParentId());
+            json.addProperty("content_size", entry.getContentSize());
+            if (entry.getPayload() != null)
+                json.addProperty("payload", entry.getPayload());
+            entries.add(json);
+        }
+        dump.add("entries", entries);
+
+        return dump;
+    }
+}
@@ -3,10 +3,19 @@ package io.github.spencerpark.jupyter.messages;
 import io.github.spencerpark.jupyter.channels.JupyterSocket;
 
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+/**
+ * Signs and verifies messages. The generator is shared by all of a connection's sockets and is
+ * safe to use from many threads at once, each signature is computed with a {@link Mac} borrowed
+ * from a pool rather than by taking turns on a single instance.
+ */
 public class HMACGenerator {
     private static final int MASK_INT_TO_BYTE = 0xFF;
     private static final int MASK_BYTE_LOWER = 0x0F;
@@ -16,27 +25,200 @@ public class HMACGenerator {
         public String calculateSignature(byte[]... messageParts) {
             return "";
         }
+
+        @Override
+        public String calculateSignature(ByteBuffer... messageParts) {
+            return "";
+        }
+
+        @Override
+        public int calculateSignature(byte[] hex, int offset, ByteBuffer... messageParts) {
+            return 0;
+        }
+
+        @Override
+        public boolean verifySignature(ByteBuffer signature, ByteBuffer... messageParts) {
+            return !signature.hasRemaining();
+        }
+
+        @Override
+        public int getSignatureLength() {
+            return 0;
+        }
     };
 
-    private final Mac mac;
+    /**
+     * A mac and a buffer for its output. Only used by one thread at a time.
+     */
+    private static class Signer {
+        private final Mac mac;
+        private final byte[] digest;
+
+        private Signer(Mac mac) {
+            this.mac = mac;
+            this.digest = new byte[mac.getMacLength()];
+        }
+
+        private byte[] sign(ByteBuffer... messageParts) {
+            for (ByteBuffer part : messageParts)
+                this.mac.update(part.duplicate());
+            try {
+                this.mac.doFinal(this.digest, 0);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException("Digest buffer is smaller than the mac length.", e);
+            }
+            return this.digest;
+        }
+
+        private byte[] sign(byte[]... messageParts) {
+            for (byte[] part : messageParts)
+                this.mac.update(part);
+            try {
+                this.mac.doFinal(this.digest, 0);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException("Digest buffer is smaller than the mac length.", e);
+            }
+            return this.digest;
+        }
+    }
+
+    private final String algorithm;
+    private final SecretKeySpec key;
+    private final Mac prototype;
+    private final Queue<Signer> signers;
 
     public HMACGenerator(String algorithm, String key) throws NoSuchAlgorithmException, InvalidKeyException {
-        this.mac = Mac.getInstance(algorithm.replace("-", ""));
-        this.mac.init(new SecretKeySpec(key.getBytes(JupyterSocket.ASCII), algorithm));
+        this.algorithm = algorithm.replace("-", "");
+        this.key = new SecretKeySpec(key.getBytes(JupyterSocket.ASCII), algorithm);
+        this.prototype = Mac.getInstance(this.algorithm);
+        this.prototype.init(this.key);
+        this.signers = new ConcurrentLinkedQueue<>();
     }
 
     private HMACGenerator() {
-        this.mac = null;
+        this.algorithm = null;
+        this.key = null;
+        this.prototype = null;
+        this.signers = null;
     }
 
     private final static char[] HEX_CHAR = "0123456789abcdef".toCharArray();
+    private final static byte[] HEX_BYTE = "0123456789abcdef".getBytes(JupyterSocket.ASCII);
+
+    private Signer borrow() {
+        Signer signer = this.signers.poll();
+        if (signer != null)
+            return signer;
+
+        Mac mac;
+        try {
+            mac = (Mac) this.prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            // Not all providers support cloning, fall back to a fresh instance.
+            try {
+                mac = Mac.getInstance(this.algorithm);
+                mac.init(this.key);
+            } catch (NoSuchAlgorithmException | InvalidKeyException e1) {
+                // Both were already checked when the prototype was created.
+                throw new IllegalStateException(e1);
+            }
+        }
+        return new Signer(mac);
+    }
+
+    private void release(Signer signer) {
+        this.signers.offer(signer);
+    }
+
+    /**
+     * @return the length, in bytes, of a hex encoded signature.
+     */
+    public int getSignatureLength() {
+        return this.prototype.getMacLength() * 2;
+    }
+
+    public String calculateSignature(byte[]... messageParts) {
+        Signer signer = this.borrow();
+        try {
+            return toHex(signer.sign(messageParts));
+        } finally {
+            this.release(signer);
+        }
+    }
+
+    /**
+     * Calculate the signature of a message from views over its parts. The positions of the
+     * buffers are not modified.
+     *
+     * @param messageParts the header, parent header, metadata and content of the message
+     *
+     * @return the hex encoded signature
+     */
+    public String calculateSignature(ByteBuffer... messageParts) {
+        Signer signer = this.borrow();
+        try {
+            return toHex(signer.sign(messageParts));
+        } finally {
+            this.release(signer);
+        }
+    }
 
-    public synchronized String calculateSignature(byte[]... messageParts) {
-        for (byte[] part : messageParts)
-            this.mac.update(part);
+    /**
+     * Calculate the signature of a message and write it, hex encoded as ascii, into {@code hex}.
+     *
+     * @param hex          the buffer to write the signature into. Must have room for
+     *                     {@link #getSignatureLength()} bytes after the {@code offset}.
+     * @param offset       the index in {@code hex} to start writing at
+     * @param messageParts the header, parent header, metadata and content of the message
+     *
+     * @return the number of bytes written
+     */
+    public int calculateSignature(byte[] hex, int offset, ByteBuffer... messageParts) {
+        Signer signer = this.borrow();
+        try {
+            byte[] sig = signer.sign(messageParts);
+            for (int j = 0; j < sig.length; j++) {
+                int b = sig[j] & MASK_INT_TO_BYTE;
+                hex[offset + j * 2] = HEX_BYTE[b >>> 4];
+                hex[offset + j * 2 + 1] = HEX_BYTE[b & MASK_BYTE_LOWER];
+            }
+            return sig.length * 2;
+        } finally {
+            this.release(signer);
+        }
+    }
+
+    /**
+     * Check that a received signature matches the one calculated for the message. The comparison
+     * takes the same amount of time no matter where the signatures differ so that it doesn't leak
+     * how much of a forged signature is correct.
+     *
+     * @param signature    the hex encoded signature that was received with the message
+     * @param messageParts the header, parent header, metadata and content of the message
+     *
+     * @return true if the signature is valid
+     */
+    public boolean verifySignature(ByteBuffer signature, ByteBuffer... messageParts) {
+        Signer signer = this.borrow();
+        try {
+            byte[] sig = signer.sign(messageParts);
+            if (signature.remaining() != sig.length * 2)
+                return false;
 
-        byte[] sig = this.mac.doFinal();
+            int start = signature.position();
+            int diff = 0;
+            for (int j = 0; j < sig.length; j++) {
+                int b = sig[j] & MASK_INT_TO_BYTE;
+                diff |= HEX_BYTE[b >>> 4] ^ signature.get(start + j * 2);
+                diff |= HEX_BYTE[b & MASK_BYTE_LOWER] ^ signature.get(start + j * 2 + 1);
+            }
+            return diff == 0;
+        } finally {
+            this.release(signer);
+        }
+    }
 
+    private static String toHex(byte[] sig) {
         char[] hex = new char[sig.length * 2];
         for (int j = 0; j < sig.length; j++) {
             int b = sig[j] & MASK_INT_TO_BYTE;
@@ -2,12 +2,34 @@ package io.github.spencerpark.jupyter.messages;
 
 import com.google.gson.annotations.SerializedName;
 
-import java.util.UUID;
+import java.nio.ByteBuffer;
 
 public class Header<T> {
     public static final String KERNEL_USERNAME = "kernel";
     public static final String PROTOCOL_VERISON = "5.3";
 
+    private static volatile MessageIdGenerator idGenerator = MessageIdGenerator.sequential();
+
+    /**
+     * Set the generator for the ids of headers created by the kernel without a
+     * {@link MessageContext}. Headers created in a context take their id from the
+     * {@link MessageContext#getIdGenerator() context's generator}, which for messages received by
+     * a connection is the connection's own generator. The default is a
+     * {@link MessageIdGenerator#sequential() sequential} generator.
+     *
+     * @param generator the generator to use for new headers without a context
+     */
+    public static void setIdGenerator(MessageIdGenerator generator) {
+        if (generator == null)
+            throw new NullPointerException("generator");
+        Header.idGenerator = generator;
+    }
+
+    public static MessageIdGenerator getIdGenerator() {
+        return Header.idGenerator;
+    }
+
+    @SerializedName("msg_id")
     private final String id;
     private final String username;
 
@@ -22,13 +44,19 @@ public class Header<T> {
 
     private final String version;
 
+    /**
+     * The json that a received header was parsed from. Replies copy it into their parent header
+     * instead of serializing the header again.
+     */
+    private transient volatile ByteBuffer rawJson;
+
     public Header(MessageType<T> type) {
         this("", type);
     }
 
     public Header(String sessionId, MessageType<T> type) {
         this(
-                UUID.randomUUID().toString(),
+                idGenerator.nextId(),
                 KERNEL_USERNAME,
                 sessionId,
                 KernelTimestamp.now(),
@@ -39,7 +67,7 @@ public class Header<T> {
 
     public Header(MessageContext ctx, MessageType<T> type) {
         this(
-                UUID.randomUUID().toString(),
+                ctx != null ? ctx.getIdGenerator().nextId() : idGenerator.nextId(),
                 ctx != null ? ctx.getHeader().getUsername() : KERNEL_USERNAME,
                 ctx != null ? ctx.getHeader().getSessionId() : null,
                 KernelTimestamp.now(),
@@ -80,4 +108,23 @@ public class Header<T> {
     public String getVersion() {
         return version;
     }
+
+    /**
+     * @return a view over the json that this header was received as or {@code null} if the
+     *         header was not received.
+     */
+    public ByteBuffer getRawJson() {
+        ByteBuffer raw = this.rawJson;
+        return raw != null ? raw.duplicate() : null;
+    }
+
+    /**
+     * Remember the json that this header was received as. The json must be the encoding of
+     * exactly this header, it is sent as is in place of the header.
+     *
+     * @param rawJson the utf-8 encoded json, the buffer's contents must not be modified afterwards
+     */
+    public void setRawJson(ByteBuffer rawJson) {
+        this.rawJson = rawJson != null ? rawJson.asReadOnlyBuffer() : null;
+    }
 }
@@ -1,45 +1,278 @@
 package io.github.spencerpark.jupyter.messages;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
 import java.util.Date;
-import java.util.TimeZone;
 
 /**
- * A lazy date parser
+ * A lazy date parser. Timestamps are ISO-8601 strings in UTC with microsecond precision, for
+ * example {@code 2019-03-14T15:09:26.535897Z}. Received timestamps are kept as strings until
+ * they are first inspected and timestamps that are created by the kernel are formatted only when
+ * they are serialized.
+ * <p>
+ * Formatting and parsing are done by hand, neither allocates anything other than the formatted
+ * string.
  */
 public class KernelTimestamp {
+    /**
+     * The length of a formatted timestamp, {@code yyyy-MM-ddTHH:mm:ss.SSSSSSZ}.
+     */
+    public static final int FORMATTED_LENGTH = 27;
+
+    private static final int SECONDS_PER_DAY = 86400;
+    private static final int NANOS_PER_MICRO = 1000;
+
     public static KernelTimestamp now() {
-        return new KernelTimestamp(new Date());
+        return new KernelTimestamp(Instant.now());
     }
 
-    private static final ThreadLocal<DateFormat> DATE_FORMAT = ThreadLocal.withInitial(() -> {
-        DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mmZ");
-        format.setTimeZone(TimeZone.getTimeZone("UTC"));
-        return format;
-    });
+    private volatile String serialized;
 
-    private String serialized;
-    private Date date;
+    private volatile boolean parsed;
+    private long epochSecond;
+    private int nano;
 
     public KernelTimestamp(String serialized) {
         this.serialized = serialized;
+        this.parsed = false;
+    }
+
+    public KernelTimestamp(long epochSecond, int nano) {
+        this.epochSecond = epochSecond;
+        this.nano = nano;
+        this.parsed = true;
+    }
+
+    public KernelTimestamp(Instant instant) {
+        this(instant.getEpochSecond(), instant.getNano());
     }
 
     public KernelTimestamp(Date date) {
-        this.date = date;
+        this(Math.floorDiv(date.getTime(), 1000), (int) Math.floorMod(date.getTime(), 1000) * 1_000_000);
+    }
+
+    private void ensureParsed() {
+        if (!this.parsed)
+            this.parse(this.serialized);
+    }
+
+    public long getEpochSecond() {
+        this.ensureParsed();
+        return this.epochSecond;
+    }
+
+    public int getNano() {
+        this.ensureParsed();
+        return this.nano;
+    }
+
+    public Instant getInstant() {
+        this.ensureParsed();
+        return Instant.ofEpochSecond(this.epochSecond, this.nano);
     }
 
     public Date getDate() {
+        this.ensureParsed();
+        return new Date(this.epochSecond * 1000 + this.nano / 1_000_000);
+    }
+
+    public String getDateString() {
+        String serialized = this.serialized;
+        if (serialized == null) {
+            char[] buf = new char[FORMATTED_LENGTH];
+            this.formatTo(buf, 0);
+            this.serialized = serialized = new String(buf);
+        }
+        return serialized;
+    }
+
+    /**
+     * Write the timestamp in the {@code yyyy-MM-ddTHH:mm:ss.SSSSSSZ} format. Unlike
+     * {@link #getDateString()} this ignores the string that the timestamp was parsed from.
+     *
+     * @param buf    the buffer to write to, must have room for {@link #FORMATTED_LENGTH} characters
+     * @param offset the index in {@code buf} to start writing at
+     *
+     * @return the number of characters written
+     *
+     * @throws IllegalArgumentException if the year is not between 0 and 9999
+     */
+    public int formatTo(char[] buf, int offset) {
+        this.ensureParsed();
+
+        long epochDay = Math.floorDiv(this.epochSecond, SECONDS_PER_DAY);
+        int secondOfDay = (int) Math.floorMod(this.epochSecond, SECONDS_PER_DAY);
+
+        // Civil from days, see http://howardhinnant.github.io/date_algorithms.html
+        long z = epochDay + 719468;
+        long era = Math.floorDiv(z, 146097);
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year < 0 || year > 9999)
+            throw new IllegalArgumentException("Year " + year + " cannot be formatted as a 4 digit year.");
+
+        int i = offset;
+        i = writeDigits(buf, i, (int) year, 4);
+        buf[i++] = '-';
+        i = writeDigits(buf, i, month, 2);
+        buf[i++] = '-';
+        i = writeDigits(buf, i, day, 2);
+        buf[i++] = 'T';
+        i = writeDigits(buf, i, secondOfDay / 3600, 2);
+        buf[i++] = ':';
+        i = writeDigits(buf, i, (secondOfDay / 60) % 60, 2);
+        buf[i++] = ':';
+        i = writeDigits(buf, i, secondOfDay % 60, 2);
+        buf[i++] = '.';
+        i = writeDigits(buf, i, this.nano / NANOS_PER_MICRO, 6);
+        buf[i++] = 'Z';
+
+        return i - offset;
+    }
+
+    private static int writeDigits(char[] buf, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            buf[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + width;
+    }
+
+    /**
+     * Parse {@code yyyy-MM-ddTHH:mm[:ss[.fraction]][offset]} where the offset is one of {@code Z},
+     * {@code +HH:mm}, {@code +HHmm} or {@code +HH} (or with a {@code -}). A timestamp without an
+     * offset is assumed to be in UTC. A space is accepted in place of the {@code T}.
+     */
+    private synchronized void parse(String s) {
+        if (this.parsed)
+            return;
+
         try {
-            return date != null ? date : (date = DATE_FORMAT.get().parse(serialized));
-        } catch (ParseException e) {
-            throw new RuntimeException("Invalid date string '" + serialized + "'", e);
+            int len = s.length();
+            int year = readDigits(s, 0, 4);
+            expect(s, 4, '-');
+            int month = readDigits(s, 5, 2);
+            expect(s, 7, '-');
+            int day = readDigits(s, 8, 2);
+            if (len <= 10 || (s.charAt(10) != 'T' && s.charAt(10) != 't' && s.charAt(10) != ' '))
+                throw invalid(s);
+            int hour = readDigits(s, 11, 2);
+            expect(s, 13, ':');
+            int minute = readDigits(s, 14, 2);
+
+            int i = 16;
+            int second = 0;
+            int nano = 0;
+            if (i < len && s.charAt(i) == ':') {
+                second = readDigits(s, i + 1, 2);
+                i += 3;
+
+                if (i < len && (s.charAt(i) == '.' || s.charAt(i) == ',')) {
+                    i++;
+                    int digits = 0;
+                    while (i < len && isDigit(s.charAt(i))) {
+                        if (digits < 9)
+                            nano = nano * 10 + (s.charAt(i) - '0');
+                        digits++;
+                        i++;
+                    }
+                    if (digits == 0)
+                        throw invalid(s);
+                    for (int d = digits; d < 9; d++)
+                        nano *= 10;
+                }
+            }
+
+            int offsetSeconds = 0;
+            if (i < len) {
+                char c = s.charAt(i);
+                if (c == 'Z' || c == 'z') {
+                    i++;
+                } else if (c == '+' || c == '-') {
+                    int sign = c == '+' ? 1 : -1;
+                    int offsetHours = readDigits(s, i + 1, 2);
+                    i += 3;
+                    int offsetMinutes = 0;
+                    if (i < len) {
+                        if (s.charAt(i) == ':')
+                            i++;
+                        offsetMinutes = readDigits(s, i, 2);
+                        i += 2;
+                    }
+                    if (offsetHours > 18 || offsetMinutes > 59)
+                        throw invalid(s);
+                    offsetSeconds = sign * (offsetHours * 3600 + offsetMinutes * 60);
+                }
+            }
+
+            if (i != len
+                    || month < 1 || month > 12
+                    || day < 1 || day > daysInMonth(year, month)
+                    || hour > 23 || minute > 59 || second > 60)
+                throw invalid(s);
+
+            // Days from civil, see http://howardhinnant.github.io/date_algorithms.html
+            int y = month <= 2 ? year - 1 : year;
+            int era = Math.floorDiv(y, 400);
+            int yearOfEra = y - era * 400;
+            int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+            int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+            long epochDay = (long) era * 146097 + dayOfEra - 719468;
+
+            this.epochSecond = epochDay * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second - offsetSeconds;
+            this.nano = nano;
+            this.parsed = true;
+        } catch (IndexOutOfBoundsException e) {
+            throw new RuntimeException("Invalid date string '" + s + "'", e);
         }
     }
 
-    public String getDateString() {
-        return serialized != null ? serialized : (serialized = DATE_FORMAT.get().format(date));
+    private static boolean isDigit(char c) {
+        return '0' <= c && c <= '9';
+    }
+
+    private static int readDigits(String s, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c))
+                throw invalid(s);
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void expect(String s, int offset, char c) {
+        if (s.charAt(offset) != c)
+            throw invalid(s);
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static RuntimeException invalid(String s) {
+        return new RuntimeException("Invalid date string '" + s + "'");
+    }
+
+    @Override
+    public String toString() {
+        return this.getDateString();
     }
 }
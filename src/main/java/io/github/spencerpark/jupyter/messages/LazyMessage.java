@@ -0,0 +1,112 @@
+package io.github.spencerpark.jupyter.messages;
+
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * A received message that keeps its metadata and content as raw json until they are first
+ * requested with {@link #getMetadata()} or {@link #getContent()}. Messages that are never
+ * handled, filtered out, or routed by their header alone never pay for deserializing their
+ * content.
+ * <p>
+ * The raw json is a view over the frame it was received in and is released once decoded.
+ *
+ * @param <T> the type of the message content
+ */
+public class LazyMessage<T> extends Message<T> {
+    private static final Type METADATA_TYPE = new TypeToken<Map<String, Object>>() {
+    }.getType();
+
+    private final transient BiFunction<ByteBuffer, Type, Object> decoder;
+
+    private transient volatile ByteBuffer rawMetadata;
+    private transient volatile ByteBuffer rawContent;
+
+    /**
+     * @param identities   the zmq identities of the sender
+     * @param header       the message's header
+     * @param parentHeader the header of the message that caused this one, may be {@code null}
+     * @param rawMetadata  the json encoded metadata
+     * @param rawContent   the json encoded content
+     * @param blobBuffers  read-only views over the raw binary buffers attached to the message
+     * @param decoder      a function for deserializing json into an instance of a type, invoked
+     *                     at most once for the metadata and once for the content
+     */
+    public LazyMessage(List<byte[]> identities, Header<T> header, Header<?> parentHeader, ByteBuffer rawMetadata, ByteBuffer rawContent, List<ByteBuffer> blobBuffers, BiFunction<ByteBuffer, Type, Object> decoder) {
+        super(identities, header, parentHeader, null, null, null);
+        this.rawMetadata = rawMetadata;
+        this.rawContent = rawContent;
+        this.decoder = decoder;
+        super.setBlobBuffers(blobBuffers);
+    }
+
+    /**
+     * @return true if the content has been deserialized.
+     */
+    public boolean isContentDecoded() {
+        return this.rawContent == null;
+    }
+
+    /**
+     * Get the json encoded content without deserializing it. Useful for forwarding a message
+     * as is.
+     *
+     * @return a view over the raw content or {@code null} if the content has already been decoded
+     */
+    public ByteBuffer getRawContent() {
+        ByteBuffer raw = this.rawContent;
+        return raw != null ? raw.duplicate() : null;
+    }
+
+    /**
+     * Get the json encoded metadata without deserializing it.
+     *
+     * @return a view over the raw metadata or {@code null} if the metadata has already been decoded
+     */
+    public ByteBuffer getRawMetadata() {
+        ByteBuffer raw = this.rawMetadata;
+        return raw != null ? raw.duplicate() : null;
+    }
+
+    @Override
+    public boolean hasMetadata() {
+        return this.rawMetadata != null || super.hasMetadata();
+    }
+
+    @Override
+    public Map<String, Object> getMetadata() {
+        if (this.rawMetadata != null)
+            this.decodeMetadata();
+        return super.getMetadata();
+    }
+
+    @Override
+    public T getContent() {
+        if (this.rawContent != null)
+            this.decodeContent();
+        return super.getContent();
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void decodeMetadata() {
+        ByteBuffer raw = this.rawMetadata;
+        if (raw == null)
+            return;
+        super.setMetadata((Map<String, Object>) this.decoder.apply(raw, METADATA_TYPE));
+        this.rawMetadata = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void decodeContent() {
+        ByteBuffer raw = this.rawContent;
+        if (raw == null)
+            return;
+        super.setContent((T) this.decoder.apply(raw, super.getHeader().getType().getContentType()));
+        this.rawContent = null;
+    }
+}
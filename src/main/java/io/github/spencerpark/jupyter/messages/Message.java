@@ -1,5 +1,6 @@
 package io.github.spencerpark.jupyter.messages;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class Message<T> implements MessageContext {
@@ -20,6 +21,18 @@ public class Message<T> implements MessageContext {
 
     private List<byte[]> blobs;
 
+    /**
+     * The blobs as views over the frames they were received in. Either this or {@link #blobs}
+     * is set on creation and the other is derived from it when first requested.
+     */
+    private transient List<ByteBuffer> blobBuffers;
+
+    /**
+     * The generator for messages created in the context of this one, inherited from the context
+     * this message was created in or set by the connection that received it.
+     */
+    private transient MessageIdGenerator idGenerator;
+
     public Message(MessageContext ctx, MessageType<T> type, T content) {
         this(ctx, type, content, null, null);
     }
@@ -33,6 +46,8 @@ public class Message<T> implements MessageContext {
                 content,
                 blobs
         );
+        if (ctx != null)
+            this.idGenerator = ctx.getIdGenerator();
     }
 
     public Message(Header<T> header, T content) {
@@ -56,6 +71,38 @@ public class Message<T> implements MessageContext {
         this.blobs = blobs;
     }
 
+    /**
+     * Create a message with blobs that are views over the frames that they were received in
+     * rather than copies of them. See {@link #getBlobBuffers()}.
+     *
+     * @param identities   the zmq identities of the sender
+     * @param header       the message's header
+     * @param parentHeader the header of the message that caused this one, may be {@code null}
+     * @param metadata     the message's metadata
+     * @param content      the message's content
+     * @param blobBuffers  read-only views over the raw binary buffers attached to the message
+     * @param <T>          the type of the message content
+     *
+     * @return the message
+     */
+    public static <T> Message<T> withBlobBuffers(List<byte[]> identities, Header<T> header, Header<?> parentHeader, Map<String, Object> metadata, T content, List<ByteBuffer> blobBuffers) {
+        Message<T> message = new Message<>(identities, header, parentHeader, metadata, content, null);
+        message.setBlobBuffers(blobBuffers);
+        return message;
+    }
+
+    void setBlobBuffers(List<ByteBuffer> blobBuffers) {
+        this.blobBuffers = blobBuffers;
+    }
+
+    void setMetadata(Map<String, Object> metadata) {
+        this.metadata = metadata;
+    }
+
+    void setContent(T content) {
+        this.content = content;
+    }
+
     @Override
     public List<byte[]> getIdentities() {
         return identities;
@@ -66,6 +113,20 @@ public class Message<T> implements MessageContext {
         return header;
     }
 
+    @Override
+    public MessageIdGenerator getIdGenerator() {
+        MessageIdGenerator generator = this.idGenerator;
+        return generator != null ? generator : Header.getIdGenerator();
+    }
+
+    /**
+     * @param idGenerator the generator for the ids of messages created in the context of this
+     *                    one or {@code null} to use the {@link Header#getIdGenerator() shared generator}
+     */
+    public void setIdGenerator(MessageIdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+
     public boolean hasParentHeader() {
         return parentHeader != null;
     }
@@ -93,10 +154,42 @@ public class Message<T> implements MessageContext {
         return content;
     }
 
+    /**
+     * Get the raw binary buffers attached to the message. For received messages this
+     * copies the buffers out of the frames they were received in the first time it is called,
+     * prefer {@link #getBlobBuffers()} for reading large buffers.
+     *
+     * @return the blobs or {@code null} if the message has none
+     */
     public List<byte[]> getBlobs() {
+        if (this.blobs == null && this.blobBuffers != null) {
+            List<byte[]> blobs = new ArrayList<>(this.blobBuffers.size());
+            for (ByteBuffer buffer : this.blobBuffers) {
+                byte[] blob = new byte[buffer.remaining()];
+                buffer.duplicate().get(blob);
+                blobs.add(blob);
+            }
+            this.blobs = blobs;
+        }
         return blobs;
     }
 
+    /**
+     * Get the raw binary buffers attached to the message without copying them. The returned
+     * buffers should be treated as read only.
+     *
+     * @return the blobs as buffers or {@code null} if the message has none
+     */
+    public List<ByteBuffer> getBlobBuffers() {
+        if (this.blobBuffers == null && this.blobs != null) {
+            List<ByteBuffer> buffers = new ArrayList<>(this.blobs.size());
+            for (byte[] blob : this.blobs)
+                buffers.add(ByteBuffer.wrap(blob));
+            this.blobBuffers = buffers;
+        }
+        return blobBuffers;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("Message {\n");
@@ -106,11 +199,11 @@ public class Message<T> implements MessageContext {
         sb.append("\t]\n");
         sb.append("\theader = ").append(header).append("\n");
         sb.append("\tparentHeader = ").append(parentHeader).append("\n");
-        sb.append("\tmetadata = ").append(metadata).append("\n");
-        sb.append("\tcontent = ").append(content).append("\n");
+        sb.append("\tmetadata = ").append(getMetadata()).append("\n");
+        sb.append("\tcontent = ").append(getContent()).append("\n");
         sb.append("\tblobs = [\n");
-        if (blobs != null)
-            for (byte[] blob : blobs)
+        if (getBlobs() != null)
+            for (byte[] blob : getBlobs())
                 sb.append("\t\t").append(Arrays.toString(blob)).append("\n");
         sb.append("\t]\n");
         sb.append("}\n");
@@ -6,4 +6,12 @@ public interface MessageContext {
     public List<byte[]> getIdentities();
 
     public Header getHeader();
+
+    /**
+     * @return the generator for the ids of messages created in this context, such as replies to
+     *         it. Defaults to the {@link Header#getIdGenerator() shared generator}.
+     */
+    default MessageIdGenerator getIdGenerator() {
+        return Header.getIdGenerator();
+    }
 }
@@ -0,0 +1,46 @@
+package io.github.spencerpark.jupyter.messages;
+
+import java.util.UUID;
+
+/**
+ * Creates the {@code msg_id}s for the headers of messages sent by the kernel. The ids must be
+ * unique, within a session at least, but don't need to be unpredictable.
+ * <p>
+ * Each connection has its own generator, see
+ * {@link io.github.spencerpark.jupyter.channels.JupyterConnection#setIdGenerator(MessageIdGenerator)}.
+ *
+ * @see Header#setIdGenerator(MessageIdGenerator)
+ */
+@FunctionalInterface
+public interface MessageIdGenerator {
+    String nextId();
+
+    /**
+     * Create a generator for ids made of a random prefix, chosen when the generator is created,
+     * and a counter. This is much cheaper than creating a {@link UUID#randomUUID() random UUID}
+     * for each message which draws from a {@link java.security.SecureRandom}.
+     *
+     * @return the generator
+     */
+    static MessageIdGenerator sequential() {
+        return new SequentialMessageIdGenerator(UUID.randomUUID().toString().replace("-", ""));
+    }
+
+    /**
+     * Create a generator for ids made of the given {@code prefix} and a counter.
+     *
+     * @param prefix the prefix of every id, should be unique to the session
+     *
+     * @return the generator
+     */
+    static MessageIdGenerator sequential(String prefix) {
+        return new SequentialMessageIdGenerator(prefix);
+    }
+
+    /**
+     * @return a generator that creates a new {@link UUID#randomUUID() random UUID} for each id.
+     */
+    static MessageIdGenerator randomUUID() {
+        return () -> UUID.randomUUID().toString();
+    }
+}
@@ -86,10 +86,28 @@ public class MessageType<T> {
         }
     }
 
+    /**
+     * Get the number of message types. Every type has an {@link #getId() id} that is less than
+     * this which makes the ids suitable for indexing into an array of per-type data.
+     *
+     * @return the number of message types, including the {@link #error() error} variants
+     */
+    public static int getTypeCount() {
+        return NEXT_ID.get();
+    }
+
     public String getName() {
         return this.name;
     }
 
+    /**
+     * @return a small, dense, unique id for this type between 0 (inclusive) and
+     *         {@link #getTypeCount()} (exclusive).
+     */
+    public int getId() {
+        return this.id;
+    }
+
     public Class<T> getContentType() {
         return this.contentType;
     }
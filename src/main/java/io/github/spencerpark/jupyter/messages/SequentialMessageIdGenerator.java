@@ -0,0 +1,50 @@
+package io.github.spencerpark.jupyter.messages;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates ids of the form {@code <prefix>_<n>} where {@code n} counts up from 1. The ids are
+ * written into a scratch buffer so that the only allocation is the id itself.
+ */
+public class SequentialMessageIdGenerator implements MessageIdGenerator {
+    // Long.MAX_VALUE has 19 digits
+    private static final int MAX_COUNTER_DIGITS = 19;
+
+    private final char[] prefix;
+    private final AtomicLong counter = new AtomicLong();
+    private final ThreadLocal<char[]> scratch;
+
+    public SequentialMessageIdGenerator(String prefix) {
+        this.prefix = (prefix + "_").toCharArray();
+        this.scratch = ThreadLocal.withInitial(() -> {
+            char[] buf = new char[this.prefix.length + MAX_COUNTER_DIGITS];
+            System.arraycopy(this.prefix, 0, buf, 0, this.prefix.length);
+            return buf;
+        });
+    }
+
+    @Override
+    public String nextId() {
+        long n = this.counter.incrementAndGet();
+
+        char[] buf = this.scratch.get();
+        int digits = 1;
+        for (long v = n / 10; v > 0; v /= 10)
+            digits++;
+
+        int end = this.prefix.length + digits;
+        for (int i = end - 1; i >= this.prefix.length; i--) {
+            buf[i] = (char) ('0' + n % 10);
+            n /= 10;
+        }
+
+        return new String(buf, 0, end);
+    }
+
+    /**
+     * @return the number of ids generated so far.
+     */
+    public long getCount() {
+        return this.counter.get();
+    }
+}
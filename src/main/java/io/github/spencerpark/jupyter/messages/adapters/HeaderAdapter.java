@@ -7,6 +7,11 @@ import io.github.spencerpark.jupyter.messages.MessageType;
 
 import java.lang.reflect.Type;
 
+/**
+ * @deprecated headers are read and written by the streaming adapter from
+ *             {@link MessageContentAdapterFactory}, this adapter is no longer registered.
+ */
+@Deprecated
 public class HeaderAdapter implements JsonSerializer<Header>, JsonDeserializer<Header> {
     public static final HeaderAdapter INSTANCE = new HeaderAdapter();
 
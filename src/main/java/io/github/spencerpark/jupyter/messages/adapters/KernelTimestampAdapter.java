@@ -5,6 +5,11 @@ import io.github.spencerpark.jupyter.messages.KernelTimestamp;
 
 import java.lang.reflect.Type;
 
+/**
+ * @deprecated timestamps are read and written by the streaming adapter from
+ *             {@link MessageContentAdapterFactory}, this adapter is no longer registered.
+ */
+@Deprecated
 public class KernelTimestampAdapter implements JsonSerializer<KernelTimestamp>, JsonDeserializer<KernelTimestamp> {
     public static final KernelTimestampAdapter INSTANCE = new KernelTimestampAdapter();
 
@@ -0,0 +1,422 @@
+package io.github.spencerpark.jupyter.messages.adapters;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import io.github.spencerpark.jupyter.kernel.ExpressionValue;
+import io.github.spencerpark.jupyter.messages.Header;
+import io.github.spencerpark.jupyter.messages.KernelTimestamp;
+import io.github.spencerpark.jupyter.messages.MessageType;
+import io.github.spencerpark.jupyter.messages.publish.PublishStatus;
+import io.github.spencerpark.jupyter.messages.publish.PublishStream;
+import io.github.spencerpark.jupyter.messages.reply.ExecuteReply;
+import io.github.spencerpark.jupyter.messages.request.ExecuteRequest;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Streaming {@link TypeAdapter}s for the headers and the few message contents that are sent or
+ * received on every execution: {@link ExecuteRequest}, {@link PublishStatus},
+ * {@link PublishStream} and {@link ExecuteReply}. These read from and write to the json stream
+ * directly instead of going through reflection or an intermediate tree. Every other content
+ * type is left to gson's reflective adapters so that new fields are picked up without having
+ * to touch this class.
+ * <p>
+ * The written json is the same as gson's reflective output: fields are written in declaration
+ * order and {@code null} fields are left out. Only the exact classes are handled, subclasses
+ * fall back to the next adapter that gson finds. Reply contents are only written by the kernel
+ * so their adapters defer reading to that next adapter as well.
+ */
+public class MessageContentAdapterFactory implements TypeAdapterFactory {
+    public static final MessageContentAdapterFactory INSTANCE = new MessageContentAdapterFactory();
+
+    private static final Type STRING_MAP = new TypeToken<Map<String, String>>() {}.getType();
+    private static final Type EXPRESSION_VALUE_MAP = new TypeToken<Map<String, ExpressionValue>>() {}.getType();
+
+    private final Map<Class<?>, Function<Gson, TypeAdapter<?>>> adapters = new HashMap<>();
+    private final Map<Class<?>, Function<Gson, TypeAdapter<?>>> writeOnlyAdapters = new HashMap<>();
+
+    private MessageContentAdapterFactory() {
+        this.adapters.put(KernelTimestamp.class, gson -> new KernelTimestampStreamAdapter());
+        this.adapters.put(MessageType.class, gson -> new MessageTypeStreamAdapter());
+        this.adapters.put(Header.class, gson -> new HeaderStreamAdapter());
+
+        this.adapters.put(ExecuteRequest.class, ExecuteRequestAdapter::new);
+
+        this.adapters.put(PublishStatus.class, gson -> new PublishStatusStreamAdapter());
+        this.adapters.put(PublishStream.class, gson -> new PublishStreamAdapter());
+
+        this.writeOnlyAdapters.put(ExecuteReply.class, ExecuteReplyWriter::new);
+    }
+
+    /**
+     * @return the classes that have a hand-written adapter, both read-write and write-only.
+     */
+    Set<Class<?>> getHandledTypes() {
+        Set<Class<?>> types = new HashSet<>(this.adapters.keySet());
+        types.addAll(this.writeOnlyAdapters.keySet());
+        return Collections.unmodifiableSet(types);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+
+        Function<Gson, TypeAdapter<?>> adapter = this.adapters.get(rawType);
+        if (adapter != null)
+            return ((TypeAdapter<T>) adapter.apply(gson)).nullSafe();
+
+        Function<Gson, TypeAdapter<?>> writer = this.writeOnlyAdapters.get(rawType);
+        if (writer != null)
+            return new WriteOnlyAdapter<>((TypeAdapter<T>) writer.apply(gson), gson.getDelegateAdapter(this, type));
+
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Helpers
+    // ---------------------------------------------------------------------------------------------
+
+    private static String readString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    private static boolean readBoolean(JsonReader in) throws IOException {
+        switch (in.peek()) {
+            case NULL:
+                in.nextNull();
+                return false;
+            case STRING:
+                return Boolean.parseBoolean(in.nextString());
+            default:
+                return in.nextBoolean();
+        }
+    }
+
+    private static final class WriteOnlyAdapter<T> extends TypeAdapter<T> {
+        private final TypeAdapter<T> writer;
+        private final TypeAdapter<T> reader;
+
+        private WriteOnlyAdapter(TypeAdapter<T> writer, TypeAdapter<T> reader) {
+            this.writer = writer;
+            this.reader = reader;
+        }
+
+        @Override
+        public void write(JsonWriter out, T value) throws IOException {
+            if (value == null)
+                out.nullValue();
+            else
+                this.writer.write(out, value);
+        }
+
+        @Override
+        public T read(JsonReader in) throws IOException {
+            return this.reader.read(in);
+        }
+    }
+
+    private static abstract class Writer<T> extends TypeAdapter<T> {
+        @Override
+        public T read(JsonReader in) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Headers
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class KernelTimestampStreamAdapter extends TypeAdapter<KernelTimestamp> {
+        @Override
+        public void write(JsonWriter out, KernelTimestamp value) throws IOException {
+            out.value(value.getDateString());
+        }
+
+        @Override
+        public KernelTimestamp read(JsonReader in) throws IOException {
+            return new KernelTimestamp(in.nextString());
+        }
+    }
+
+    private static final class MessageTypeStreamAdapter extends TypeAdapter<MessageType> {
+        @Override
+        public void write(JsonWriter out, MessageType value) throws IOException {
+            out.value(value.getName());
+        }
+
+        @Override
+        public MessageType read(JsonReader in) throws IOException {
+            return MessageType.getType(in.nextString());
+        }
+    }
+
+    private static final class HeaderStreamAdapter extends TypeAdapter<Header> {
+        @Override
+        public void write(JsonWriter out, Header value) throws IOException {
+            out.beginObject();
+            out.name("msg_id").value(value.getId());
+            out.name("username").value(value.getUsername());
+            out.name("session").value(value.getSessionId());
+            KernelTimestamp timestamp = value.getTimestamp();
+            out.name("date").value(timestamp == null ? null : timestamp.getDateString());
+            MessageType<?> type = value.getType();
+            out.name("msg_type").value(type == null ? null : type.getName());
+            out.name("version").value(value.getVersion());
+            out.endObject();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Header read(JsonReader in) throws IOException {
+            String id = null;
+            String username = null;
+            String session = null;
+            KernelTimestamp timestamp = null;
+            MessageType<?> type = null;
+            String version = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "msg_id":
+                        id = readString(in);
+                        break;
+                    case "username":
+                        username = readString(in);
+                        break;
+                    case "session":
+                        session = readString(in);
+                        break;
+                    case "date":
+                        String date = readString(in);
+                        timestamp = date == null ? null : new KernelTimestamp(date);
+                        break;
+                    case "msg_type":
+                        String name = readString(in);
+                        type = name == null ? null : MessageType.getType(name);
+                        break;
+                    case "version":
+                        version = readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new Header(id, username, session, timestamp, type, version);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Requests
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class ExecuteRequestAdapter extends TypeAdapter<ExecuteRequest> {
+        private final TypeAdapter<Map<String, String>> userExprAdapter;
+
+        @SuppressWarnings("unchecked")
+        private ExecuteRequestAdapter(Gson gson) {
+            this.userExprAdapter = (TypeAdapter<Map<String, String>>) gson.getAdapter(TypeToken.get(STRING_MAP));
+        }
+
+        @Override
+        public void write(JsonWriter out, ExecuteRequest value) throws IOException {
+            out.beginObject();
+            out.name("code").value(value.getCode());
+            out.name("silent").value(value.isSilent());
+            out.name("store_history").value(value.shouldStoreHistory());
+            out.name("user_expressions");
+            this.userExprAdapter.write(out, value.getUserExpr());
+            out.name("allow_stdin").value(value.isStdinEnabled());
+            out.name("stop_on_error").value(value.shouldStopOnError());
+            out.endObject();
+        }
+
+        @Override
+        public ExecuteRequest read(JsonReader in) throws IOException {
+            String code = null;
+            boolean silent = false;
+            boolean storeHistory = false;
+            Map<String, String> userExpr = null;
+            boolean stdinEnabled = false;
+            boolean stopOnError = false;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "code":
+                        code = readString(in);
+                        break;
+                    case "silent":
+                        silent = readBoolean(in);
+                        break;
+                    case "store_history":
+                        storeHistory = readBoolean(in);
+                        break;
+                    case "user_expressions":
+                        userExpr = this.userExprAdapter.read(in);
+                        break;
+                    case "allow_stdin":
+                        stdinEnabled = readBoolean(in);
+                        break;
+                    case "stop_on_error":
+                        stopOnError = readBoolean(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new ExecuteRequest(code, silent, storeHistory, userExpr, stdinEnabled, stopOnError);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Publish
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class PublishStatusStreamAdapter extends TypeAdapter<PublishStatus> {
+        @Override
+        public void write(JsonWriter out, PublishStatus value) throws IOException {
+            out.beginObject();
+            out.name("execution_state");
+            PublishStatus.State state = value.getState();
+            if (state == null) {
+                out.nullValue();
+            } else {
+                switch (state) {
+                    case BUSY:
+                        out.value("busy");
+                        break;
+                    case IDLE:
+                        out.value("idle");
+                        break;
+                    case STARTING:
+                        out.value("starting");
+                        break;
+                }
+            }
+            out.endObject();
+        }
+
+        @Override
+        public PublishStatus read(JsonReader in) throws IOException {
+            PublishStatus status = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                if (!in.nextName().equals("execution_state")) {
+                    in.skipValue();
+                    continue;
+                }
+
+                String state = readString(in);
+                if (state == null)
+                    continue;
+                switch (state) {
+                    case "busy":
+                        status = PublishStatus.BUSY;
+                        break;
+                    case "idle":
+                        status = PublishStatus.IDLE;
+                        break;
+                    case "starting":
+                        status = PublishStatus.STARTING;
+                        break;
+                }
+            }
+            in.endObject();
+
+            return status;
+        }
+    }
+
+    private static final class PublishStreamAdapter extends TypeAdapter<PublishStream> {
+        @Override
+        public void write(JsonWriter out, PublishStream value) throws IOException {
+            out.beginObject();
+            out.name("name");
+            PublishStream.StreamType type = value.getStreamType();
+            if (type == null)
+                out.nullValue();
+            else
+                out.value(type == PublishStream.StreamType.OUT ? "stdout" : "stderr");
+            out.name("text").value(value.getText());
+            out.endObject();
+        }
+
+        @Override
+        public PublishStream read(JsonReader in) throws IOException {
+            PublishStream.StreamType type = null;
+            String text = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "name":
+                        String name = readString(in);
+                        if ("stdout".equals(name))
+                            type = PublishStream.StreamType.OUT;
+                        else if ("stderr".equals(name))
+                            type = PublishStream.StreamType.ERR;
+                        break;
+                    case "text":
+                        text = readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new PublishStream(type, text);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Replies
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class ExecuteReplyWriter extends Writer<ExecuteReply> {
+        private final TypeAdapter<Map<String, ExpressionValue>> userExprAdapter;
+
+        @SuppressWarnings("unchecked")
+        private ExecuteReplyWriter(Gson gson) {
+            this.userExprAdapter = (TypeAdapter<Map<String, ExpressionValue>>) gson.getAdapter(TypeToken.get(EXPRESSION_VALUE_MAP));
+        }
+
+        @Override
+        public void write(JsonWriter out, ExecuteReply value) throws IOException {
+            out.beginObject();
+            out.name("status");
+            ExecuteReply.Status status = value.getStatus();
+            if (status == null)
+                out.nullValue();
+            else
+                out.value(status == ExecuteReply.Status.OK ? "ok" : "error");
+            out.name("execution_count").value(value.getExecutionCount());
+            out.name("user_expressions");
+            this.userExprAdapter.write(out, value.getEvaluatedUserExpr());
+            out.endObject();
+        }
+    }
+}
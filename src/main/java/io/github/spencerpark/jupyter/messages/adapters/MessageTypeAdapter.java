@@ -5,6 +5,11 @@ import io.github.spencerpark.jupyter.messages.MessageType;
 
 import java.lang.reflect.Type;
 
+/**
+ * @deprecated message types are read and written by the streaming adapter from
+ *             {@link MessageContentAdapterFactory}, this adapter is no longer registered.
+ */
+@Deprecated
 public class MessageTypeAdapter implements JsonSerializer<MessageType<?>>, JsonDeserializer<MessageType<?>> {
     public static final MessageTypeAdapter INSTANCE = new MessageTypeAdapter();
 
@@ -5,6 +5,13 @@ import io.github.spencerpark.jupyter.messages.publish.PublishStatus;
 
 import java.lang.reflect.Type;
 
+/**
+ * @deprecated status messages are read and written by the streaming adapter from
+ *             {@link MessageContentAdapterFactory}, this adapter is no longer registered. It
+ *             also reads the state from {@code execution_result} rather than
+ *             {@code execution_state}.
+ */
+@Deprecated
 public class PublishStatusAdapter implements JsonDeserializer<PublishStatus> {
     public static final PublishStatusAdapter INSTANCE = new PublishStatusAdapter();
 
@@ -46,6 +46,10 @@ public class ErrorReply implements ReplyType<Object> {
         this.count = count;
     }
 
+    public Integer getExecutionCount() {
+        return count;
+    }
+
     public String getStatus() {
         return status;
     }
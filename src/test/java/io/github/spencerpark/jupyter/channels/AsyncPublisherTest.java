@@ -0,0 +1,145 @@
+package io.github.spencerpark.jupyter.channels;
+
+import io.github.spencerpark.jupyter.messages.Header;
+import io.github.spencerpark.jupyter.messages.Message;
+import io.github.spencerpark.jupyter.messages.MessageType;
+import io.github.spencerpark.jupyter.messages.publish.PublishStatus;
+import io.github.spencerpark.jupyter.messages.publish.PublishStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncPublisherTest {
+    private List<Message<?>> sent;
+    private CountDownLatch release;
+    private CountDownLatch firstTaken;
+    private AsyncPublisher publisher;
+
+    @Before
+    public void setUp() {
+        this.sent = new CopyOnWriteArrayList<>();
+        this.release = new CountDownLatch(0);
+        this.firstTaken = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        this.release.countDown();
+        if (this.publisher != null)
+            this.publisher.close(5, TimeUnit.SECONDS);
+    }
+
+    private AsyncPublisher create(int capacity, AsyncPublisher.OverflowPolicy policy) {
+        this.publisher = new AsyncPublisher(m -> {
+            this.firstTaken.countDown();
+            try {
+                this.release.await();
+            } catch (InterruptedException ignored) { }
+            this.sent.add(m);
+        }, capacity, policy, HandlerExecutors.platformThreadFactory("AsyncPublisherTest"));
+        return this.publisher;
+    }
+
+    private static Message<PublishStream> stream(String text) {
+        return new Message<>(Collections.emptyList(), new Header<>(MessageType.PUBLISH_STREAM), null, null,
+                new PublishStream(PublishStream.StreamType.OUT, text), null);
+    }
+
+    private static Message<PublishStatus> idle() {
+        return new Message<>(Collections.emptyList(), new Header<>(MessageType.PUBLISH_STATUS), null, null, PublishStatus.IDLE, null);
+    }
+
+    @Test
+    public void sendsInOrder() {
+        AsyncPublisher publisher = create(100, AsyncPublisher.OverflowPolicy.BLOCK);
+        List<Message<?>> expected = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Message<?> m = stream("" + i);
+            expected.add(m);
+            publisher.publish(m);
+        }
+        Message<?> idle = idle();
+        expected.add(idle);
+        publisher.publish(idle);
+
+        assertTrue(publisher.awaitSent(5, TimeUnit.SECONDS));
+        assertEquals(expected, this.sent);
+        assertEquals(51, publisher.getPublishedCount());
+    }
+
+    @Test
+    public void dropsWhenFullButKeepsStatus() throws InterruptedException {
+        this.release = new CountDownLatch(1);
+        AsyncPublisher publisher = create(2, AsyncPublisher.OverflowPolicy.DROP);
+
+        // The first is taken by the sender which then waits on the release.
+        assertTrue(publisher.publish(stream("taken")));
+        assertTrue(this.firstTaken.await(5, TimeUnit.SECONDS));
+
+        assertTrue(publisher.publish(stream("a")));
+        assertTrue(publisher.publish(stream("b")));
+        assertFalse(publisher.publish(stream("dropped")));
+        Message<?> idle = idle();
+        assertTrue(publisher.publish(idle));
+
+        this.release.countDown();
+        assertTrue(publisher.awaitSent(5, TimeUnit.SECONDS));
+
+        assertEquals(4, this.sent.size());
+        assertSame(idle, this.sent.get(3));
+        assertEquals(1, publisher.getDroppedCount());
+    }
+
+    @Test
+    public void blocksWhenFull() throws InterruptedException {
+        this.release = new CountDownLatch(1);
+        AsyncPublisher publisher = create(1, AsyncPublisher.OverflowPolicy.BLOCK);
+
+        publisher.publish(stream("taken"));
+        assertTrue(this.firstTaken.await(5, TimeUnit.SECONDS));
+        publisher.publish(stream("queued"));
+
+        AtomicBoolean published = new AtomicBoolean(false);
+        Thread producer = new Thread(() -> {
+            publisher.publish(stream("blocked"));
+            published.set(true);
+        });
+        producer.start();
+
+        producer.join(100);
+        assertFalse(published.get());
+
+        this.release.countDown();
+        producer.join(5000);
+        assertTrue(published.get());
+
+        assertTrue(publisher.awaitSent(5, TimeUnit.SECONDS));
+        assertEquals(3, this.sent.size());
+        assertEquals(0, publisher.getDroppedCount());
+    }
+
+    @Test
+    public void closeDrainsQueue() {
+        AsyncPublisher publisher = create(100, AsyncPublisher.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 20; i++)
+            publisher.publish(stream("" + i));
+
+        assertTrue(publisher.close(5, TimeUnit.SECONDS));
+        assertEquals(20, this.sent.size());
+
+        assertFalse(publisher.publish(stream("late")));
+    }
+}
@@ -0,0 +1,72 @@
+package io.github.spencerpark.jupyter.channels;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class ByteBufferReaderTest {
+    private static String readAll(Reader reader, int chunkSize) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[chunkSize];
+        int read;
+        while ((read = reader.read(buf, 0, buf.length)) != -1)
+            sb.append(buf, 0, read);
+        return sb.toString();
+    }
+
+    private static ByteBuffer utf8(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void readsAscii() throws IOException {
+        assertEquals("{\"a\": 1}", readAll(new ByteBufferReader(utf8("{\"a\": 1}"), StandardCharsets.UTF_8), 64));
+    }
+
+    @Test
+    public void readsEmpty() throws IOException {
+        assertEquals(-1, new ByteBufferReader(ByteBuffer.allocate(0), StandardCharsets.UTF_8).read(new char[4], 0, 4));
+    }
+
+    @Test
+    public void readsMultiByteCharacters() throws IOException {
+        String text = "h\u00e9llo \u4e16\u754c \ud83d\ude00!";
+        assertEquals(text, readAll(new ByteBufferReader(utf8(text), StandardCharsets.UTF_8), 64));
+    }
+
+    @Test
+    public void splitsSurrogatePairsAcrossReads() throws IOException {
+        String text = "\ud83d\ude00a\ud83d\ude01";
+        assertEquals(text, readAll(new ByteBufferReader(utf8(text), StandardCharsets.UTF_8), 1));
+    }
+
+    @Test
+    public void readsOnlyTheRemainingBytes() throws IOException {
+        ByteBuffer buffer = utf8("xx{}yy");
+        buffer.position(2).limit(4);
+
+        assertEquals("{}", readAll(new ByteBufferReader(buffer, StandardCharsets.UTF_8), 8));
+        assertEquals("The source buffer's position should not move", 2, buffer.position());
+    }
+
+    @Test
+    public void replacesMalformedInput() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{ 'a', (byte) 0xC3, 'b', (byte) 0xE4, (byte) 0xB8 });
+        String expected = new String(buffer.array(), StandardCharsets.UTF_8);
+
+        assertEquals(expected, readAll(new ByteBufferReader(buffer, StandardCharsets.UTF_8), 3));
+    }
+
+    @Test
+    public void feedsJsonReader() {
+        JsonObject obj = new JsonParser().parse(new ByteBufferReader(utf8("{\"text\": \"\u00fcber \ud83d\ude00\"}"), StandardCharsets.UTF_8)).getAsJsonObject();
+        assertEquals("\u00fcber \ud83d\ude00", obj.get("text").getAsString());
+    }
+}
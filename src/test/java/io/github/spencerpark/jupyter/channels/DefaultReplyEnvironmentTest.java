@@ -0,0 +1,119 @@
+package io.github.spencerpark.jupyter.channels;
+
+import io.github.spencerpark.jupyter.messages.HMACGenerator;
+import io.github.spencerpark.jupyter.messages.Message;
+import io.github.spencerpark.jupyter.messages.MessageType;
+import io.github.spencerpark.jupyter.messages.reply.InterruptReply;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class DefaultReplyEnvironmentTest {
+    private ZMQ.Context ctx;
+    private ShellChannel shell;
+    private IOPubChannel iopub;
+    private ShellReplyEnvironment env;
+
+    // Written to by the flush timer, the channel and message type of everything sent
+    private List<String> sent;
+    private AtomicInteger replies;
+    private volatile boolean recordStreams;
+
+    @Before
+    public void setUp() {
+        this.ctx = ZMQ.context(1);
+        this.sent = new CopyOnWriteArrayList<>();
+        this.replies = new AtomicInteger();
+        this.recordStreams = true;
+        this.shell = new ShellChannel(this.ctx, HMACGenerator.NO_AUTH_INSTANCE, false, null) {
+            @Override
+            public void sendMessage(Message<?> message) {
+                replies.incrementAndGet();
+                sent.add("shell " + message.getHeader().getType().getName());
+            }
+        };
+        this.iopub = new IOPubChannel(this.ctx, HMACGenerator.NO_AUTH_INSTANCE) {
+            @Override
+            public void sendMessage(Message<?> message) {
+                if (recordStreams || message.getHeader().getType() != MessageType.PUBLISH_STREAM)
+                    sent.add("iopub " + message.getHeader().getType().getName());
+            }
+        };
+        this.env = new ShellReplyEnvironment(this.shell, null, this.iopub, null);
+    }
+
+    @After
+    public void tearDown() {
+        this.shell.close();
+        this.iopub.close();
+        this.ctx.close();
+    }
+
+    private void awaitSent(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (this.sent.size() < count && System.nanoTime() < deadline)
+            Thread.sleep(5);
+    }
+
+    @Test
+    public void defersInLifoOrder() {
+        this.env.setBusyDeferIdle();
+        this.env.defer().reply(new InterruptReply());
+        assertEquals(Arrays.asList("iopub status"), this.sent);
+
+        this.env.resolveDeferrals();
+        assertEquals(Arrays.asList("iopub status", "shell interrupt_reply", "iopub status"), this.sent);
+    }
+
+    @Test
+    public void timedFlushDoesNotTakeTheDeferral() throws InterruptedException {
+        JupyterOutputStream out = new JupyterOutputStream(this.env, ShellReplyEnvironment::writeToStdOut);
+        out.setFlushPolicy(0, 1, TimeUnit.MILLISECONDS);
+
+        // The timer publishes between the handler's defer() and its reply
+        this.env.defer();
+        out.write("printed".getBytes(StandardCharsets.UTF_8), 0, 7);
+        this.awaitSent(1);
+        assertEquals(Arrays.asList("iopub " + MessageType.PUBLISH_STREAM.getName()), this.sent);
+
+        this.env.reply(new InterruptReply());
+        assertEquals(1, this.sent.size());
+
+        this.env.resolveDeferrals();
+        assertEquals(Arrays.asList("iopub " + MessageType.PUBLISH_STREAM.getName(), "shell interrupt_reply"), this.sent);
+    }
+
+    @Test
+    public void concurrentFlushesAndDeferrals() throws InterruptedException {
+        this.recordStreams = false;
+        JupyterOutputStream out = new JupyterOutputStream(this.env, ShellReplyEnvironment::writeToStdOut);
+        out.setFlushPolicy(0, 1, TimeUnit.MICROSECONDS);
+
+        Thread printer = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted())
+                out.write('.');
+        });
+        printer.start();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                this.env.defer().reply(new InterruptReply());
+                assertEquals("The reply was sent before its deferral was resolved", i, this.replies.get());
+                this.env.resolveDeferrals();
+                assertEquals(i + 1, this.replies.get());
+            }
+        } finally {
+            printer.interrupt();
+            printer.join();
+        }
+    }
+}
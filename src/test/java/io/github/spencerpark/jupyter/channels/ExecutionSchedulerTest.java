@@ -0,0 +1,97 @@
+package io.github.spencerpark.jupyter.channels;
+
+import io.github.spencerpark.jupyter.kernel.KernelConnectionProperties;
+import io.github.spencerpark.jupyter.messages.Message;
+import io.github.spencerpark.jupyter.messages.MessageType;
+import io.github.spencerpark.jupyter.messages.reply.ErrorReply;
+import io.github.spencerpark.jupyter.messages.reply.InterruptReply;
+import io.github.spencerpark.jupyter.messages.request.ExecuteRequest;
+import io.github.spencerpark.jupyter.messages.request.InterruptRequest;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExecutionSchedulerTest {
+    private static final long TIMEOUT_MS = 2000;
+
+    @Test
+    public void rejectsWhenFullWithoutBlocking() throws InterruptedException {
+        ExecutionScheduler scheduler = new ExecutionScheduler("test", 1);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            scheduler.execute(() -> {
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) { }
+            });
+            assertTrue(running.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+            // Waits behind the running task and fills the queue
+            scheduler.execute(() -> { });
+            try {
+                scheduler.execute(() -> { });
+                fail("Expected the full scheduler to reject the task");
+            } catch (RejectedExecutionException expected) { }
+
+            assertEquals(1, scheduler.getRejectedCount());
+            assertEquals(2, scheduler.getSubmittedCount());
+        } finally {
+            release.countDown();
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void fullQueueDoesNotBlockOtherChannels() throws Exception {
+        KernelConnectionProperties connProps = TestKernelClient.localConnection();
+        JupyterConnection connection = new JupyterConnection(connProps, JupyterConnection.IOMode.MULTIPLEXED);
+        connection.setExecutionScheduler(new ExecutionScheduler("Execute", 1));
+
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        connection.setHandler(MessageType.EXECUTE_REQUEST, (env, msg) -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignored) { }
+        });
+        connection.setControlHandler(MessageType.INTERRUPT_REQUEST, (env, msg) -> env.reply(new InterruptReply()));
+        connection.connect();
+
+        TestKernelClient client = new TestKernelClient(connProps);
+        try {
+            ExecuteRequest request = new ExecuteRequest("", false, false, Collections.emptyMap(), false, false);
+            client.sendShell(MessageType.EXECUTE_REQUEST, request);
+            assertTrue(running.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            client.sendShell(MessageType.EXECUTE_REQUEST, request);
+            String rejected = client.sendShell(MessageType.EXECUTE_REQUEST, request);
+
+            Message<?> reply = client.receiveShell(TIMEOUT_MS);
+            assertNotNull("The rejected request was not answered", reply);
+            assertEquals(rejected, reply.getParentHeader().getId());
+            assertEquals(MessageType.EXECUTE_REPLY.error(), reply.getHeader().getType());
+            assertEquals("ExecutionRejected", ((ErrorReply) reply.getContent()).getErrorName());
+
+            assertTrue("Heartbeat was not echoed", client.ping(TIMEOUT_MS));
+
+            client.sendControl(MessageType.INTERRUPT_REQUEST, new InterruptRequest());
+            Message<?> controlReply = client.receiveControl(TIMEOUT_MS);
+            assertNotNull("Control request was not answered", controlReply);
+            assertEquals(MessageType.INTERRUPT_REPLY, controlReply.getHeader().getType());
+        } finally {
+            release.countDown();
+            client.close();
+            connection.close();
+        }
+    }
+}
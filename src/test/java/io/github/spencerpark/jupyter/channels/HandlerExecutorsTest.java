@@ -0,0 +1,112 @@
+package io.github.spencerpark.jupyter.channels;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HandlerExecutorsTest {
+    @Test
+    public void serialLanesRunInOrderOnSharedPool() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            int lanes = 3;
+            int tasks = 200;
+            List<List<Integer>> results = new ArrayList<>();
+            CountDownLatch done = new CountDownLatch(lanes * tasks);
+            for (int l = 0; l < lanes; l++) {
+                List<Integer> result = new CopyOnWriteArrayList<>();
+                results.add(result);
+                HandlerExecutor lane = HandlerExecutors.serial(pool);
+                for (int i = 0; i < tasks; i++) {
+                    int n = i;
+                    lane.execute(() -> {
+                        result.add(n);
+                        done.countDown();
+                    });
+                }
+            }
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            for (List<Integer> result : results) {
+                for (int i = 0; i < tasks; i++)
+                    assertEquals(i, (int) result.get(i));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void serialLaneKeepsRunningAfterFailure() throws InterruptedException {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            HandlerExecutor lane = HandlerExecutors.serial(pool);
+            CountDownLatch ran = new CountDownLatch(1);
+            lane.execute(() -> {
+                throw new IllegalStateException("expected");
+            });
+            lane.execute(ran::countDown);
+
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void serialLaneRejectsAfterShutdown() {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            HandlerExecutor lane = HandlerExecutors.serial(pool);
+            lane.shutdown();
+            lane.execute(() -> { });
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void sharedThreadsDoNotInheritExecutionState() throws InterruptedException {
+        InheritableThreadLocal<String> route = new InheritableThreadLocal<String>() {
+            @Override
+            protected String childValue(String parentValue) {
+                return HandlerExecutors.isCreatingSharedThread() ? null : parentValue;
+            }
+        };
+        route.set("cell");
+        try {
+            AtomicReference<String> inShared = new AtomicReference<>("unset");
+            Thread shared = HandlerExecutors.sharedThreadFactory("shared").newThread(() -> inShared.set(route.get()));
+            shared.start();
+            shared.join();
+            assertNull(inShared.get());
+
+            AtomicReference<String> inPlatform = new AtomicReference<>();
+            Thread platform = HandlerExecutors.platformThreadFactory("platform").newThread(() -> inPlatform.set(route.get()));
+            platform.start();
+            platform.join();
+            assertEquals("cell", inPlatform.get());
+        } finally {
+            route.remove();
+        }
+    }
+
+    @Test
+    public void sharedSchedulerRunsTasks() throws InterruptedException {
+        CountDownLatch ran = new CountDownLatch(1);
+        HandlerExecutors.sharedScheduler().schedule(ran::countDown, 1, TimeUnit.MILLISECONDS);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+}
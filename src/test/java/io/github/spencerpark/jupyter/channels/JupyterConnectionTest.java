@@ -0,0 +1,63 @@
+package io.github.spencerpark.jupyter.channels;
+
+import io.github.spencerpark.jupyter.kernel.KernelConnectionProperties;
+import io.github.spencerpark.jupyter.kernel.LanguageInfo;
+import io.github.spencerpark.jupyter.messages.Message;
+import io.github.spencerpark.jupyter.messages.MessageType;
+import io.github.spencerpark.jupyter.messages.reply.KernelInfoReply;
+import io.github.spencerpark.jupyter.messages.request.KernelInfoRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JupyterConnectionTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    private KernelConnectionProperties connProps;
+    private JupyterConnection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        this.connProps = TestKernelClient.localConnection();
+        this.connection = new JupyterConnection(this.connProps, JupyterConnection.IOMode.MULTIPLEXED);
+        this.connection.setHandler(MessageType.KERNEL_INFO_REQUEST, (env, msg) ->
+                env.reply(new KernelInfoReply("5.3", "test", "1.0",
+                        new LanguageInfo("test", "1.0", "text/plain", ".txt", null, null, null),
+                        "", Collections.emptyList())));
+        this.connection.connect();
+    }
+
+    @After
+    public void tearDown() {
+        this.connection.close();
+    }
+
+    @Test
+    public void multiplexedReactorSurvivesBadSignature() throws Exception {
+        KernelConnectionProperties wrongKey = new KernelConnectionProperties(this.connProps.getIp(),
+                this.connProps.getControlPort(), this.connProps.getShellPort(), this.connProps.getStdinPort(),
+                this.connProps.getHbPort(), this.connProps.getIopubPort(), this.connProps.getTransport(),
+                this.connProps.getSignatureScheme(), "wrong-key");
+        try (TestKernelClient intruder = new TestKernelClient(wrongKey)) {
+            intruder.sendShell(MessageType.KERNEL_INFO_REQUEST, new KernelInfoRequest());
+            assertNull(intruder.receiveShell(200));
+        }
+
+        try (TestKernelClient client = new TestKernelClient(this.connProps)) {
+            assertTrue("The reactor stopped answering heartbeats", client.ping(TIMEOUT_MS));
+
+            String id = client.sendShell(MessageType.KERNEL_INFO_REQUEST, new KernelInfoRequest());
+            Message<?> reply = client.receiveShell(TIMEOUT_MS);
+            assertNotNull("The reactor stopped handling shell requests", reply);
+            assertEquals(MessageType.KERNEL_INFO_REPLY, reply.getHeader().getType());
+            assertEquals(id, reply.getParentHeader().getId());
+        }
+    }
+}
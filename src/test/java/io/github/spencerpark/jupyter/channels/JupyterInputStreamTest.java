@@ -0,0 +1,154 @@
+package io.github.spencerpark.jupyter.channels;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JupyterInputStreamTest {
+    private static final String NL = System.lineSeparator();
+
+    private static class FakeEnvironment extends ShellReplyEnvironment {
+        private final Deque<CompletableFuture<String>> replies = new ArrayDeque<>();
+        private int requests = 0;
+        private long lastTimeoutNanos = 0;
+
+        private FakeEnvironment(String... lines) {
+            super(null, null, null, null);
+            for (String line : lines)
+                this.replies.add(CompletableFuture.completedFuture(line));
+        }
+
+        @Override
+        public CompletableFuture<String> requestInput(String prompt, boolean isPassword) {
+            this.requests++;
+            return this.replies.remove();
+        }
+
+        @Override
+        public CompletableFuture<String> requestInput(String prompt, boolean isPassword, long timeout, TimeUnit unit) {
+            this.lastTimeoutNanos = unit.toNanos(timeout);
+            return this.requestInput(prompt, isPassword);
+        }
+    }
+
+    @Test
+    public void bulkReadTakesOnlyWhatIsBuffered() throws IOException {
+        FakeEnvironment env = new FakeEnvironment("hello", "world");
+        JupyterInputStream in = new JupyterInputStream(env, true);
+
+        byte[] buf = new byte[64];
+        int n = in.read(buf, 0, buf.length);
+        assertEquals("hello" + NL, new String(buf, 0, n, StandardCharsets.UTF_8));
+        assertEquals(1, env.requests);
+
+        n = in.read(buf, 0, 3);
+        assertEquals("wor", new String(buf, 0, n, StandardCharsets.UTF_8));
+        assertEquals(2 + NL.length(), in.available());
+        assertEquals(2, env.requests);
+    }
+
+    @Test
+    public void singleByteReadsAreUnsigned() throws IOException {
+        // U+00E9 encodes to 0xC3 0xA9
+        JupyterInputStream in = new JupyterInputStream(new FakeEnvironment("\u00e9"), true);
+
+        assertEquals(0xC3, in.read());
+        assertEquals(0xA9, in.read());
+    }
+
+    @Test
+    public void endOfStreamWhenDisabled() throws IOException {
+        FakeEnvironment env = new FakeEnvironment("unused");
+        JupyterInputStream in = new JupyterInputStream(env, false);
+
+        assertEquals(-1, in.read());
+        assertEquals(-1, in.read(new byte[4], 0, 4));
+        assertEquals(0, env.requests);
+    }
+
+    @Test
+    public void runsBeforeRequest() throws IOException {
+        FakeEnvironment env = new FakeEnvironment("a");
+        JupyterInputStream in = new JupyterInputStream(env, true);
+        int[] calls = { 0 };
+        in.setBeforeRequest(() -> calls[0]++);
+
+        in.read(new byte[8], 0, 8);
+        assertEquals(1, calls[0]);
+    }
+
+    @Test
+    public void timeoutFailsRead() throws IOException {
+        FakeEnvironment env = new FakeEnvironment();
+        CompletableFuture<String> timedOut = new CompletableFuture<>();
+        timedOut.completeExceptionally(new TimeoutException("too slow"));
+        env.replies.add(timedOut);
+
+        JupyterInputStream in = new JupyterInputStream(env, true);
+        in.setReadTimeout(5, TimeUnit.SECONDS);
+        try {
+            in.read();
+            fail("Expected the read to time out");
+        } catch (InterruptedIOException e) {
+            assertEquals("too slow", e.getMessage());
+        }
+        assertEquals(TimeUnit.SECONDS.toNanos(5), env.lastTimeoutNanos);
+    }
+
+    @Test
+    public void cancelledRequestFailsRead() throws IOException {
+        FakeEnvironment env = new FakeEnvironment();
+        CompletableFuture<String> cancelled = new CompletableFuture<>();
+        cancelled.cancel(false);
+        env.replies.add(cancelled);
+
+        JupyterInputReader reader = new JupyterInputReader(env, true);
+        try {
+            reader.read();
+            fail("Expected the read to be cancelled");
+        } catch (InterruptedIOException expected) { }
+    }
+
+    @Test
+    public void readerReadsLines() throws IOException {
+        FakeEnvironment env = new FakeEnvironment("first line", "second");
+        JupyterInputReader reader = new JupyterInputReader(env, true);
+
+        char[] buf = new char[5];
+        assertEquals(5, reader.read(buf, 0, buf.length));
+        assertEquals("first", new String(buf));
+        assertTrue(reader.ready());
+
+        assertEquals(" line", reader.readLine());
+        assertFalse(reader.ready());
+        assertEquals("second", reader.readLine());
+
+        reader.setEnabled(false);
+        assertNull(reader.readLine());
+        assertEquals(2, env.requests);
+    }
+
+    @Test
+    public void readerCopiesWholeLine() throws IOException {
+        char[] line = new char[10_000];
+        Arrays.fill(line, 'x');
+        JupyterInputReader reader = new JupyterInputReader(new FakeEnvironment(new String(line)), true);
+
+        char[] buf = new char[20_000];
+        assertEquals(line.length + NL.length(), reader.read(buf, 0, buf.length));
+    }
+}
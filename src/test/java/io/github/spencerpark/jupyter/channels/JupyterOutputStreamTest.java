@@ -0,0 +1,207 @@
+package io.github.spencerpark.jupyter.channels;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JupyterOutputStreamTest {
+    private List<String> published;
+    private JupyterOutputStream out;
+
+    @Before
+    public void setUp() {
+        // Written to by the flush timer in the latency tests
+        this.published = new CopyOnWriteArrayList<>();
+        ShellReplyEnvironment env = new ShellReplyEnvironment(null, null, null, null);
+        this.out = new JupyterOutputStream(env, (e, text) -> this.published.add(text));
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void publishesOnFlush() {
+        this.out.write(utf8("hello "), 0, 6);
+        this.out.write('!');
+        assertTrue(this.published.isEmpty());
+
+        this.out.flush();
+        assertEquals(1, this.published.size());
+        assertEquals("hello !", this.published.get(0));
+
+        // Nothing new was written
+        this.out.flush();
+        assertEquals(1, this.published.size());
+    }
+
+    @Test
+    public void keepsCharacterSplitAcrossFlushes() {
+        // U+4E16 and U+1F600 are 3 and 4 bytes
+        byte[] bytes = utf8("a\u4e16\ud83d\ude00");
+
+        this.out.write(bytes, 0, 2);
+        this.out.flush();
+        this.out.write(bytes, 2, 3);
+        this.out.flush();
+        this.out.write(bytes, 5, bytes.length - 5);
+        this.out.flush();
+
+        assertEquals(3, this.published.size());
+        assertEquals("a", this.published.get(0));
+        assertEquals("\u4e16", this.published.get(1));
+        assertEquals("\ud83d\ude00", this.published.get(2));
+    }
+
+    @Test
+    public void writesMoreThanAChunk() {
+        StringBuilder expected = new StringBuilder();
+        while (expected.length() < 50_000)
+            expected.append("line \u00e9\u4e16\ud83d\ude00\n");
+        byte[] bytes = utf8(expected.toString());
+
+        // Uneven writes that split characters at chunk boundaries
+        for (int i = 0; i < bytes.length; i += 1001)
+            this.out.write(bytes, i, Math.min(1001, bytes.length - i));
+        this.out.flush();
+
+        assertEquals(1, this.published.size());
+        assertEquals(expected.toString(), this.published.get(0));
+    }
+
+    @Test
+    public void dropsOutputWithoutEnv() {
+        JupyterOutputStream detached = new JupyterOutputStream((e, text) -> this.published.add(text));
+        detached.write(utf8("lost"), 0, 4);
+        detached.flush();
+        assertTrue(this.published.isEmpty());
+        assertEquals(0, detached.size());
+    }
+
+    @Test
+    public void publishesAtThreshold() {
+        this.out.setFlushPolicy(10, 0, TimeUnit.MILLISECONDS);
+
+        this.out.write(utf8("12345"), 0, 5);
+        assertTrue(this.published.isEmpty());
+
+        this.out.write(utf8("67890ab"), 0, 7);
+        assertEquals(1, this.published.size());
+        assertEquals("1234567890ab", this.published.get(0));
+        assertEquals(0, this.out.size());
+    }
+
+    @Test
+    public void publishesAfterLatency() throws InterruptedException {
+        this.out.setFlushPolicy(0, 20, TimeUnit.MILLISECONDS);
+
+        this.out.write(utf8("a"), 0, 1);
+        this.out.write(utf8("b"), 0, 1);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (this.published.isEmpty() && System.nanoTime() < deadline)
+            Thread.sleep(5);
+
+        assertEquals(1, this.published.size());
+        assertEquals("ab", this.published.get(0));
+    }
+
+    @Test
+    public void explicitFlushCancelsLatencyFlush() throws InterruptedException {
+        this.out.setFlushPolicy(0, 20, TimeUnit.MILLISECONDS);
+
+        this.out.write(utf8("a"), 0, 1);
+        this.out.flush();
+        Thread.sleep(60);
+
+        assertEquals(1, this.published.size());
+    }
+
+    @Test
+    public void retractPublishesBufferedOutput() {
+        ShellReplyEnvironment env = new ShellReplyEnvironment(null, null, null, null);
+        JupyterOutputStream stream = new JupyterOutputStream(env, (e, text) -> this.published.add(text));
+
+        stream.write(utf8("done"), 0, 4);
+        stream.retractEnv(env);
+
+        assertEquals(1, this.published.size());
+        assertEquals("done", this.published.get(0));
+        assertTrue(!stream.isAttached());
+    }
+
+    @Test
+    public void publishesAtDefaultLimitWithoutThreshold() {
+        byte[] line = utf8("0123456789abcdef");
+        int written = 0;
+        while (written < 3 * JupyterOutputStream.DEFAULT_FLUSH_LIMIT) {
+            this.out.write(line, 0, line.length);
+            written += line.length;
+            assertTrue(this.out.size() < JupyterOutputStream.DEFAULT_FLUSH_LIMIT);
+        }
+        assertEquals(3, this.published.size());
+
+        this.out.flush();
+        assertEquals(written, String.join("", this.published).length());
+    }
+
+    @Test
+    public void publishesLargeWriteInPieces() {
+        StringBuilder expected = new StringBuilder();
+        while (expected.length() < 4 * JupyterOutputStream.DEFAULT_FLUSH_LIMIT)
+            expected.append("line \u00e9\u4e16\ud83d\ude00\n");
+        byte[] bytes = utf8(expected.toString());
+
+        this.out.write(bytes, 0, bytes.length);
+        this.out.flush();
+
+        assertTrue(this.published.size() > 1);
+        for (String text : this.published)
+            assertTrue(text.length() < 2 * JupyterOutputStream.DEFAULT_FLUSH_LIMIT);
+        assertEquals(expected.toString(), String.join("", this.published));
+    }
+
+    @Test
+    public void writesWhileOutputIsBeingPublished() throws InterruptedException {
+        CountDownLatch publishing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ShellReplyEnvironment env = new ShellReplyEnvironment(null, null, null, null);
+        JupyterOutputStream stream = new JupyterOutputStream(env, (e, text) -> {
+            publishing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignored) { }
+            this.published.add(text);
+        });
+
+        stream.write(utf8("first"), 0, 5);
+        Thread flusher = new Thread(stream::flush);
+        flusher.start();
+        try {
+            assertTrue(publishing.await(5, TimeUnit.SECONDS));
+
+            // Does not wait for the blocked publish
+            Thread writer = new Thread(() -> stream.write(utf8("second"), 0, 6));
+            writer.start();
+            writer.join(5000);
+            assertTrue("Write blocked on the publish callback", !writer.isAlive());
+            assertEquals(6, stream.size());
+        } finally {
+            release.countDown();
+            flusher.join(5000);
+        }
+
+        stream.flush();
+        assertEquals(2, this.published.size());
+        assertEquals("first", this.published.get(0));
+        assertEquals("second", this.published.get(1));
+    }
+}
@@ -0,0 +1,165 @@
+package io.github.spencerpark.jupyter.channels;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OutputRateLimiterTest {
+    private long now;
+
+    @Before
+    public void setUp() {
+        this.now = 0;
+    }
+
+    private void advanceMillis(long millis) {
+        this.now += millis * 1_000_000L;
+    }
+
+    @Test
+    public void limitsMessages() {
+        OutputRateLimiter limiter = new OutputRateLimiter(10, 0, () -> this.now);
+
+        for (int i = 0; i < 10; i++)
+            assertEquals(5, limiter.admit(5));
+        assertFalse(limiter.isLimited());
+
+        assertEquals(0, limiter.admit(5));
+        assertEquals(0, limiter.admit(7));
+        assertTrue(limiter.isLimited());
+        assertEquals(2, limiter.getDroppedMessageCount());
+        assertEquals(12, limiter.getDroppedByteCount());
+
+        // One message worth of tokens is not enough to resume
+        advanceMillis(100);
+        assertEquals(0, limiter.admit(5));
+
+        // Output keeps coming in faster than the limit
+        for (int i = 0; i < 10; i++) {
+            advanceMillis(50);
+            assertEquals(0, limiter.admit(5));
+        }
+
+        // Half a second without output refills half of the bucket
+        advanceMillis(500);
+        assertEquals(5, limiter.admit(5));
+        assertFalse(limiter.isLimited());
+    }
+
+    @Test
+    public void truncatesToAvailableChars() {
+        OutputRateLimiter limiter = new OutputRateLimiter(0, 100, () -> this.now);
+
+        assertEquals(60, limiter.admit(60));
+        assertEquals(40, limiter.admit(60));
+        assertTrue(limiter.isLimited());
+        assertEquals(0, limiter.getDroppedMessageCount());
+        assertEquals(20, limiter.getDroppedByteCount());
+
+        assertEquals(0, limiter.admit(10));
+        assertEquals(1, limiter.getDroppedMessageCount());
+
+        advanceMillis(500);
+        assertEquals(50, limiter.admit(50));
+        assertFalse(limiter.isLimited());
+    }
+
+    @Test
+    public void burstIsCappedAtOneSecond() {
+        OutputRateLimiter limiter = new OutputRateLimiter(0, 100, () -> this.now);
+
+        advanceMillis(10_000);
+        assertEquals(100, limiter.admit(1000));
+    }
+
+    @Test
+    public void noticeOncePerLimitedPeriod() {
+        OutputRateLimiter limiter = new OutputRateLimiter(1, 0, () -> this.now);
+
+        limiter.admit(1);
+        assertFalse(limiter.claimNotice());
+
+        limiter.admit(1);
+        limiter.admit(1);
+        assertTrue(limiter.claimNotice());
+        limiter.admit(1);
+        assertFalse(limiter.claimNotice());
+
+        advanceMillis(1000);
+        limiter.admit(1);
+        assertFalse(limiter.claimNotice());
+        limiter.admit(1);
+        assertTrue(limiter.claimNotice());
+    }
+
+    @Test
+    public void countsEncodedBytes() {
+        OutputRateLimiter limiter = new OutputRateLimiter(0, 10, () -> this.now);
+
+        // Each U+00E9 is 2 bytes in UTF-8
+        assertEquals(5, limiter.admit("\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9"));
+        assertEquals(2, limiter.getDroppedByteCount());
+    }
+
+    @Test
+    public void neverSplitsSurrogatePairs() {
+        OutputRateLimiter limiter = new OutputRateLimiter(0, 6, () -> this.now);
+
+        // "a" is 1 byte and each U+1F600 is a 4 byte surrogate pair
+        assertEquals(3, limiter.admit("a\ud83d\ude00\ud83d\ude00"));
+        assertEquals(4, limiter.getDroppedByteCount());
+    }
+
+    @Test
+    public void nothingChargedWhenNothingFits() {
+        OutputRateLimiter limiter = new OutputRateLimiter(1, 3, () -> this.now);
+
+        // A surrogate pair needs 4 bytes, only 3 are available
+        assertEquals(0, limiter.admit("\ud83d\ude00"));
+        assertEquals(1, limiter.getDroppedMessageCount());
+
+        // Neither the message nor the byte tokens were spent on the dropped message
+        assertEquals(3, limiter.admit("abc"));
+    }
+
+    @Test
+    public void fractionalRatePublishes() {
+        OutputRateLimiter limiter = new OutputRateLimiter(0.5, 0, () -> this.now);
+
+        assertEquals(1, limiter.admit(1));
+        assertEquals(0, limiter.admit(1));
+
+        advanceMillis(1000);
+        assertEquals(0, limiter.admit(1));
+
+        advanceMillis(1000);
+        assertEquals(1, limiter.admit(1));
+    }
+
+    @Test
+    public void rejectsRatesThatNeverPublish() {
+        double[] invalid = { Double.NaN, Double.POSITIVE_INFINITY, -1 };
+        for (double rate : invalid) {
+            try {
+                new OutputRateLimiter(rate, 0);
+                fail("Expected " + rate + " messages/s to be rejected");
+            } catch (IllegalArgumentException expected) { }
+            try {
+                new OutputRateLimiter(0, rate);
+                fail("Expected " + rate + " bytes/s to be rejected");
+            } catch (IllegalArgumentException expected) { }
+        }
+    }
+
+    @Test
+    public void unlimited() {
+        OutputRateLimiter limiter = new OutputRateLimiter(0, 0, () -> this.now);
+        for (int i = 0; i < 10_000; i++)
+            assertEquals(1000, limiter.admit(1000));
+        assertFalse(limiter.claimNotice());
+    }
+}
@@ -0,0 +1,68 @@
+package io.github.spencerpark.jupyter.channels;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertTrue;
+
+public class ReactorLoopTest {
+    private ZMQ.Context ctx;
+    private ReactorLoop reactor;
+
+    @Before
+    public void setUp() {
+        this.ctx = ZMQ.context(1);
+        // A long poll timeout so that a missed wake-up shows up as a slow task
+        this.reactor = new ReactorLoop("test", this.ctx, 5000);
+        this.reactor.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        this.reactor.shutdown();
+        this.reactor.join(5000);
+        this.ctx.close();
+    }
+
+    @Test
+    public void doNextIsFastWithConcurrentCallers() throws InterruptedException {
+        int threads = 4;
+        int iterations = 5000;
+        AtomicLong slowest = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(threads);
+
+        List<Thread> callers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread caller = new Thread(() -> {
+                try {
+                    // Stop early once a wake-up was missed, every later task would be slow too
+                    for (int i = 0; i < iterations && slowest.get() < TimeUnit.SECONDS.toNanos(1); i++) {
+                        CountDownLatch ran = new CountDownLatch(1);
+                        long start = System.nanoTime();
+                        this.reactor.doNext(ran::countDown);
+                        ran.await(10, TimeUnit.SECONDS);
+                        slowest.accumulateAndGet(System.nanoTime() - start, Math::max);
+                    }
+                    done.countDown();
+                } catch (InterruptedException ignored) { }
+            });
+            callers.add(caller);
+            caller.start();
+        }
+
+        assertTrue("Callers did not finish", done.await(60, TimeUnit.SECONDS));
+        for (Thread caller : callers)
+            caller.join();
+
+        long slowestMs = TimeUnit.NANOSECONDS.toMillis(slowest.get());
+        assertTrue("The slowest doNext took " + slowestMs + "ms", slowestMs < 1000);
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.spencerpark.jupyter.channels;
+
+import io.github.spencerpark.jupyter.kernel.KernelConnectionProperties;
+import io.github.spencerpark.jupyter.messages.Message;
+import io.github.spencerpark.jupyter.messages.MessageType;
+import io.github.spencerpark.jupyter.messages.reply.InterruptReply;
+import io.github.spencerpark.jupyter.messages.request.InterruptRequest;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class ShellChannelTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    @Test
+    public void replySentWhenLoopStopsBeforeItIsQueued() throws Exception {
+        KernelConnectionProperties connProps = TestKernelClient.localConnection();
+        ZMQ.Context ctx = ZMQ.context(1);
+
+        // Stops between the sender's isRunning() check and the reply being queued, after the
+        // reactor ran its queue for the last time.
+        AtomicBoolean stopBeforeQueueing = new AtomicBoolean(false);
+        ReactorLoop reactor = new ReactorLoop("test", ctx) {
+            @Override
+            public void doNext(Runnable next) {
+                if (stopBeforeQueueing.get() && Thread.currentThread() != this) {
+                    this.shutdown();
+                    try {
+                        this.join(TIMEOUT_MS);
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+                super.doNext(next);
+            }
+        };
+
+        JupyterConnection connection = new JupyterConnection(connProps, ctx, reactor);
+        connection.setHandler(MessageType.INTERRUPT_REQUEST, (env, msg) -> {
+            stopBeforeQueueing.set(true);
+            env.reply(new InterruptReply());
+        });
+        connection.connect();
+        reactor.start();
+
+        try (TestKernelClient client = new TestKernelClient(connProps)) {
+            String id = client.sendShell(MessageType.INTERRUPT_REQUEST, new InterruptRequest());
+            Message<?> reply = client.receiveShell(TIMEOUT_MS);
+            assertNotNull("The reply was lost", reply);
+            assertEquals(id, reply.getParentHeader().getId());
+        } finally {
+            connection.close();
+            reactor.shutdown();
+            reactor.join(TIMEOUT_MS);
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.spencerpark.jupyter.channels;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import io.github.spencerpark.jupyter.messages.Header;
+import io.github.spencerpark.jupyter.messages.KernelTimestamp;
+import io.github.spencerpark.jupyter.messages.Message;
+import io.github.spencerpark.jupyter.messages.MessageType;
+import io.github.spencerpark.jupyter.messages.adapters.HeaderAdapter;
+import io.github.spencerpark.jupyter.messages.adapters.KernelTimestampAdapter;
+import io.github.spencerpark.jupyter.messages.adapters.MessageTypeAdapter;
+import io.github.spencerpark.jupyter.messages.publish.PublishStatus;
+import io.github.spencerpark.jupyter.messages.publish.PublishStream;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StatusMessageEncoderTest {
+    // The deprecated tree adapters are the reference the streaming ones are compared against
+    @SuppressWarnings("deprecation")
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(KernelTimestamp.class, KernelTimestampAdapter.INSTANCE)
+            .registerTypeAdapter(Header.class, HeaderAdapter.INSTANCE)
+            .registerTypeAdapter(MessageType.class, MessageTypeAdapter.INSTANCE)
+            .create();
+
+    private static JsonElement parse(Utf8Buffer out) {
+        return new JsonParser().parse(new String(out.array(), 0, out.size(), StandardCharsets.UTF_8));
+    }
+
+    private static void assertEncodesLikeGson(Header<PublishStatus> header) {
+        Utf8Buffer out = new Utf8Buffer();
+        new StatusMessageEncoder().encodeHeader(out, header);
+
+        assertEquals(GSON.toJsonTree(header, Header.class), parse(out));
+    }
+
+    private static Header<PublishStatus> header(String id, String username, String session) {
+        return new Header<>(id, username, session, new KernelTimestamp(Instant.parse("2019-03-14T15:09:26.535897Z")), MessageType.PUBLISH_STATUS, Header.PROTOCOL_VERISON);
+    }
+
+    @Test
+    public void encodesHeader() {
+        assertEncodesLikeGson(header("abc_1", "kernel", "session-id"));
+        assertEncodesLikeGson(new Header<>(MessageType.PUBLISH_STATUS));
+    }
+
+    @Test
+    public void leavesOutNullFields() {
+        assertEncodesLikeGson(header("abc_1", "kernel", null));
+        assertEncodesLikeGson(new Header<>("abc_1", "kernel", "s", null, MessageType.PUBLISH_STATUS, null));
+    }
+
+    @Test
+    public void escapesStrings() {
+        assertEncodesLikeGson(header("a\"b\\c", "new\nline\ttab\u0001", "\u00e9\u4e16\ud83d\ude00\u2028"));
+    }
+
+    @Test
+    public void encodesContent() {
+        StatusMessageEncoder encoder = new StatusMessageEncoder();
+        for (PublishStatus status : new PublishStatus[]{ PublishStatus.BUSY, PublishStatus.IDLE, PublishStatus.STARTING }) {
+            Utf8Buffer out = new Utf8Buffer();
+            encoder.encodeContent(out, status);
+            assertEquals(GSON.toJsonTree(status), parse(out));
+        }
+    }
+
+    @Test
+    public void onlyEncodesStatus() {
+        assertTrue(StatusMessageEncoder.canEncode(new Message<>(null, PublishStatus.MESSAGE_TYPE, PublishStatus.IDLE)));
+        assertFalse(StatusMessageEncoder.canEncode(new Message<>(null, PublishStream.MESSAGE_TYPE, new PublishStream(PublishStream.StreamType.OUT, ""))));
+    }
+}
@@ -0,0 +1,64 @@
+package io.github.spencerpark.jupyter.channels;
+
+import io.github.spencerpark.jupyter.kernel.KernelConnectionProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StdinChannelTest {
+    private ZMQ.Context ctx;
+    private StdinChannel stdin;
+
+    @Before
+    public void setUp() throws Exception {
+        KernelConnectionProperties connProps = TestKernelClient.localConnection();
+        this.ctx = ZMQ.context(1);
+        this.stdin = new StdinChannel(this.ctx, connProps.createHMACGenerator());
+        this.stdin.setLinger(0);
+        this.stdin.bind(connProps);
+    }
+
+    @After
+    public void tearDown() {
+        this.stdin.close();
+        this.ctx.close();
+    }
+
+    private static long stdinThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().startsWith("Stdin-"))
+                .count();
+    }
+
+    @Test
+    public void startsReactorOnFirstRequest() {
+        long before = stdinThreads();
+
+        // Binding alone does not start a thread
+        assertEquals(before, stdinThreads());
+
+        CompletableFuture<String> reply = this.stdin.requestInput(null, "prompt", false);
+        assertEquals(before + 1, stdinThreads());
+
+        // Later requests share the reactor
+        CompletableFuture<String> next = this.stdin.requestInput(null, "prompt", false);
+        assertEquals(before + 1, stdinThreads());
+
+        this.stdin.cancelPendingInput();
+        assertTrue(reply.isCancelled());
+        assertTrue(next.isCancelled());
+    }
+
+    @Test
+    public void closeWithoutRequestingInput() {
+        long before = stdinThreads();
+        this.stdin.close();
+        assertEquals(before, stdinThreads());
+    }
+}
@@ -0,0 +1,125 @@
+package io.github.spencerpark.jupyter.channels;
+
+import io.github.spencerpark.jupyter.messages.Header;
+import io.github.spencerpark.jupyter.messages.Message;
+import io.github.spencerpark.jupyter.messages.MessageType;
+import io.github.spencerpark.jupyter.messages.publish.PublishStatus;
+import io.github.spencerpark.jupyter.messages.publish.PublishStream;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StreamCoalescerTest {
+    private List<Message<?>> sent;
+    private StreamCoalescer coalescer;
+
+    private final Header<?> parentA = new Header<>(MessageType.EXECUTE_REQUEST);
+    private final Header<?> parentB = new Header<>(MessageType.EXECUTE_REQUEST);
+
+    @Before
+    public void setUp() {
+        this.sent = new CopyOnWriteArrayList<>();
+        this.coalescer = new StreamCoalescer(this.sent::add, 1, TimeUnit.HOURS, 100);
+    }
+
+    private static Message<PublishStream> stream(Header<?> parent, PublishStream.StreamType type, String text) {
+        return new Message<>(Collections.emptyList(), new Header<>(MessageType.PUBLISH_STREAM), parent, null, new PublishStream(type, text), null);
+    }
+
+    private static Message<PublishStatus> idle(Header<?> parent) {
+        return new Message<>(Collections.emptyList(), new Header<>(MessageType.PUBLISH_STATUS), parent, null, PublishStatus.IDLE, null);
+    }
+
+    private String textOf(int i) {
+        return ((PublishStream) this.sent.get(i).getContent()).getText();
+    }
+
+    @Test
+    public void mergesConsecutiveStreams() {
+        Message<PublishStream> first = stream(parentA, PublishStream.StreamType.OUT, "a");
+        this.coalescer.accept(first);
+        this.coalescer.accept(stream(parentA, PublishStream.StreamType.OUT, "b"));
+        this.coalescer.accept(stream(parentA, PublishStream.StreamType.OUT, "c"));
+
+        assertTrue(this.sent.isEmpty());
+        this.coalescer.flush();
+
+        assertEquals(1, this.sent.size());
+        assertEquals("abc", textOf(0));
+        assertSame(first.getHeader(), this.sent.get(0).getHeader());
+        assertSame(parentA, this.sent.get(0).getParentHeader());
+    }
+
+    @Test
+    public void singleStreamIsSentAsIs() {
+        Message<PublishStream> only = stream(parentA, PublishStream.StreamType.OUT, "a");
+        this.coalescer.accept(only);
+        this.coalescer.flush();
+
+        assertEquals(1, this.sent.size());
+        assertSame(only, this.sent.get(0));
+    }
+
+    @Test
+    public void otherMessagesFlushFirst() {
+        Message<PublishStatus> idle = idle(parentA);
+        this.coalescer.accept(stream(parentA, PublishStream.StreamType.OUT, "a"));
+        this.coalescer.accept(stream(parentA, PublishStream.StreamType.OUT, "b"));
+        this.coalescer.accept(idle);
+
+        assertEquals(2, this.sent.size());
+        assertEquals("ab", textOf(0));
+        assertSame(idle, this.sent.get(1));
+        assertFalse(this.coalescer.hasPending());
+    }
+
+    @Test
+    public void doesNotMergeDifferentStreams() {
+        this.coalescer.accept(stream(parentA, PublishStream.StreamType.OUT, "a"));
+        this.coalescer.accept(stream(parentA, PublishStream.StreamType.ERR, "b"));
+        this.coalescer.accept(stream(parentB, PublishStream.StreamType.ERR, "c"));
+        this.coalescer.accept(stream(parentB, PublishStream.StreamType.ERR, "d"));
+        this.coalescer.flush();
+
+        assertEquals(3, this.sent.size());
+        assertEquals("a", textOf(0));
+        assertEquals("b", textOf(1));
+        assertEquals("cd", textOf(2));
+    }
+
+    @Test
+    public void flushesWhenFull() {
+        char[] chunk = new char[60];
+        java.util.Arrays.fill(chunk, 'x');
+        this.coalescer.accept(stream(parentA, PublishStream.StreamType.OUT, new String(chunk)));
+        assertTrue(this.sent.isEmpty());
+
+        this.coalescer.accept(stream(parentA, PublishStream.StreamType.OUT, new String(chunk)));
+        assertEquals(1, this.sent.size());
+        assertEquals(120, textOf(0).length());
+        assertFalse(this.coalescer.hasPending());
+    }
+
+    @Test
+    public void flushesWhenWindowCloses() throws InterruptedException {
+        StreamCoalescer coalescer = new StreamCoalescer(this.sent::add, 10, TimeUnit.MILLISECONDS, 100);
+        coalescer.accept(stream(parentA, PublishStream.StreamType.OUT, "a"));
+        coalescer.accept(stream(parentA, PublishStream.StreamType.OUT, "b"));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.sent.isEmpty() && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+
+        assertEquals(1, this.sent.size());
+        assertEquals("ab", textOf(0));
+    }
+}
@@ -0,0 +1,129 @@
+package io.github.spencerpark.jupyter.channels;
+
+import io.github.spencerpark.jupyter.kernel.KernelConnectionProperties;
+import io.github.spencerpark.jupyter.messages.Message;
+import io.github.spencerpark.jupyter.messages.MessageType;
+import org.zeromq.SocketType;
+import org.zeromq.ZMQ;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Logger;
+
+/**
+ * A minimal frontend for tests that talk to a kernel over real sockets. Only the shell, control
+ * and heartbeat channels are connected.
+ */
+public class TestKernelClient implements AutoCloseable {
+    private static class ClientSocket extends JupyterSocket {
+        private ClientSocket(ZMQ.Context context, KernelConnectionProperties connProps, int port) throws NoSuchAlgorithmException, InvalidKeyException {
+            super(context, SocketType.DEALER, connProps.createHMACGenerator(), Logger.getLogger("TestKernelClient"));
+            super.setLinger(0);
+            super.connect(JupyterSocket.formatAddress(connProps.getTransport(), connProps.getIp(), port));
+        }
+
+        @Override
+        public void bind(KernelConnectionProperties connProps) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * @return properties for a connection on the loopback interface using ports that are free
+     *         right now.
+     */
+    public static KernelConnectionProperties localConnection() throws IOException {
+        int[] ports = new int[5];
+        ServerSocket[] sockets = new ServerSocket[ports.length];
+        try {
+            for (int i = 0; i < ports.length; i++) {
+                sockets[i] = new ServerSocket(0);
+                ports[i] = sockets[i].getLocalPort();
+            }
+        } finally {
+            for (ServerSocket socket : sockets)
+                if (socket != null)
+                    socket.close();
+        }
+        return new KernelConnectionProperties("127.0.0.1", ports[0], ports[1], ports[2], ports[3], ports[4],
+                "tcp", "hmac-sha256", "test-key");
+    }
+
+    private final ZMQ.Context ctx;
+    private final ClientSocket shell;
+    private final ClientSocket control;
+    private final ZMQ.Socket heartbeat;
+
+    public TestKernelClient(KernelConnectionProperties connProps) throws NoSuchAlgorithmException, InvalidKeyException {
+        this.ctx = ZMQ.context(1);
+        this.shell = new ClientSocket(this.ctx, connProps, connProps.getShellPort());
+        this.control = new ClientSocket(this.ctx, connProps, connProps.getControlPort());
+        this.heartbeat = this.ctx.socket(SocketType.REQ);
+        this.heartbeat.connect(JupyterSocket.formatAddress(connProps.getTransport(), connProps.getIp(), connProps.getHbPort()));
+    }
+
+    public <T> String sendShell(MessageType<T> type, T content) {
+        return send(this.shell, type, content);
+    }
+
+    public <T> String sendControl(MessageType<T> type, T content) {
+        return send(this.control, type, content);
+    }
+
+    private static <T> String send(ClientSocket socket, MessageType<T> type, T content) {
+        Message<T> message = new Message<>(null, type, content);
+        socket.sendMessage(message);
+        return message.getHeader().getId();
+    }
+
+    /**
+     * @return the next message on the shell channel or {@code null} if none arrives in time.
+     */
+    public Message<?> receiveShell(long timeoutMs) {
+        return receive(this.shell, timeoutMs);
+    }
+
+    /**
+     * @return the next message on the control channel or {@code null} if none arrives in time.
+     */
+    public Message<?> receiveControl(long timeoutMs) {
+        return receive(this.control, timeoutMs);
+    }
+
+    private Message<?> receive(ClientSocket socket, long timeoutMs) {
+        ZMQ.Poller poller = this.ctx.poller(1);
+        try {
+            poller.register(socket, ZMQ.Poller.POLLIN);
+            if (poller.poll(timeoutMs) <= 0)
+                return null;
+            return socket.readMessage();
+        } finally {
+            poller.close();
+        }
+    }
+
+    /**
+     * Send a heartbeat and wait for the echo.
+     *
+     * @return true if the kernel echoed the ping in time
+     */
+    public boolean ping(long timeoutMs) {
+        byte[] ping = "ping".getBytes(StandardCharsets.UTF_8);
+        this.heartbeat.send(ping);
+        this.heartbeat.setReceiveTimeOut((int) timeoutMs);
+        byte[] echo = this.heartbeat.recv();
+        return echo != null && new String(echo, StandardCharsets.UTF_8).equals("ping");
+    }
+
+    @Override
+    public void close() {
+        this.shell.close();
+        this.control.close();
+        this.heartbeat.setLinger(0);
+        this.heartbeat.close();
+        this.ctx.close();
+    }
+}
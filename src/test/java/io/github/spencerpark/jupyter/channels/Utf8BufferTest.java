@@ -0,0 +1,102 @@
+package io.github.spencerpark.jupyter.channels;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Utf8BufferTest {
+    private Utf8Buffer buffer;
+
+    @Before
+    public void setUp() {
+        this.buffer = new Utf8Buffer(4);
+    }
+
+    private byte[] contents() {
+        return Arrays.copyOf(this.buffer.array(), this.buffer.size());
+    }
+
+    private void assertEncodes(String expected) {
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), contents());
+    }
+
+    @Test
+    public void encodesAscii() {
+        this.buffer.write("{\"a\": 1}");
+        assertEncodes("{\"a\": 1}");
+    }
+
+    @Test
+    public void encodesMultiByteCharacters() {
+        String text = "h\u00e9llo \u4e16\u754c \ud83d\ude00!";
+        this.buffer.write(text);
+        assertEncodes(text);
+    }
+
+    @Test
+    public void encodesCharArrays() {
+        char[] text = "a\u00e9\ud83d\ude00b".toCharArray();
+        this.buffer.write(text, 1, text.length - 2);
+        assertEncodes("\u00e9\ud83d\ude00");
+    }
+
+    @Test
+    public void joinsSurrogatePairsAcrossWrites() {
+        this.buffer.write("a\ud83d");
+        this.buffer.write('\ude00');
+        this.buffer.write("b");
+        assertEncodes("a\ud83d\ude00b");
+    }
+
+    @Test
+    public void replacesUnpairedSurrogates() {
+        String text = "\ude00a\ud83db\ud83d";
+        this.buffer.write(text);
+        assertEncodes(text);
+    }
+
+    @Test
+    public void appendsRawBytes() {
+        this.buffer.write("\u00e9");
+        this.buffer.write(new byte[]{ '{', '}' });
+        assertEncodes("\u00e9{}");
+    }
+
+    @Test
+    public void slicesShareTheBackingArray() {
+        this.buffer.write("abcdef");
+        ByteBuffer slice = this.buffer.slice(2, 4);
+
+        assertEquals(2, slice.remaining());
+        assertEquals('c', slice.get(slice.position()));
+        assertEquals(this.buffer.array(), slice.array());
+    }
+
+    @Test
+    public void resetKeepsTheArray() {
+        this.buffer.write("a long string that grows the buffer");
+        byte[] array = this.buffer.array();
+
+        this.buffer.reset();
+        this.buffer.write("x");
+
+        assertEquals(array, this.buffer.array());
+        assertEncodes("x");
+    }
+
+    @Test
+    public void detachStartsOver() {
+        this.buffer.write("a long string that grows the buffer");
+        byte[] detached = this.buffer.detach();
+
+        assertEquals("a long string", new String(detached, 0, 13, StandardCharsets.UTF_8));
+        assertEquals(0, this.buffer.size());
+        assertEquals(4, this.buffer.capacity());
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.spencerpark.jupyter.channels;
+
+import io.github.spencerpark.jupyter.messages.Header;
+import io.github.spencerpark.jupyter.messages.KernelTimestamp;
+import io.github.spencerpark.jupyter.messages.MessageType;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WireTraceTest {
+    private static Header<?> header(String id) {
+        return new Header<>(id, "user", "session", KernelTimestamp.now(), MessageType.PUBLISH_STREAM, Header.PROTOCOL_VERISON);
+    }
+
+    private static ByteBuffer content(String json) {
+        return ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void keepsMostRecent() {
+        WireTrace trace = new WireTrace(3);
+        for (int i = 0; i < 5; i++)
+            trace.record(WireTrace.Direction.SENT, "IOPubChannel", header("m" + i), header("p"), content("{}"));
+
+        List<WireTrace.Entry> entries = trace.snapshot();
+        assertEquals(3, entries.size());
+        assertEquals("m2", entries.get(0).getId());
+        assertEquals("m4", entries.get(2).getId());
+        assertEquals(4, entries.get(2).getSequence());
+        assertEquals("p", entries.get(2).getParentId());
+        assertEquals("stream", entries.get(2).getType());
+        assertEquals(5, trace.getRecordedCount());
+    }
+
+    @Test
+    public void samplesPayloads() {
+        WireTrace trace = new WireTrace(10, 2);
+        ByteBuffer json = content("{\"text\":\"hi\"}");
+        for (int i = 0; i < 4; i++)
+            trace.record(WireTrace.Direction.RECEIVED, "ShellChannel", header("m" + i), null, json);
+
+        List<WireTrace.Entry> entries = trace.snapshot();
+        assertEquals("{\"text\":\"hi\"}", entries.get(0).getPayload());
+        assertNull(entries.get(1).getPayload());
+        assertEquals("{\"text\":\"hi\"}", entries.get(2).getPayload());
+        assertEquals(13, entries.get(1).getContentSize());
+        // The content buffer is left as is
+        assertEquals(0, json.position());
+    }
+
+    @Test
+    public void neverSamplesInputReplies() {
+        WireTrace trace = new WireTrace(10, 1);
+        Header<?> reply = new Header<>("r", "user", "session", KernelTimestamp.now(), MessageType.INPUT_REPLY, Header.PROTOCOL_VERISON);
+        trace.record(WireTrace.Direction.RECEIVED, "StdinChannel", reply, header("p"), content("{\"value\":\"hunter2\"}"));
+        trace.record(WireTrace.Direction.SENT, "IOPubChannel", header("m"), null, content("{}"));
+
+        List<WireTrace.Entry> entries = trace.snapshot();
+        assertNull(entries.get(0).getPayload());
+        assertEquals(19, entries.get(0).getContentSize());
+        assertEquals("{}", entries.get(1).getPayload());
+    }
+
+    @Test
+    public void dumpsOneLinePerEntry() {
+        WireTrace trace = new WireTrace(10);
+        trace.record(WireTrace.Direction.SENT, "IOPubChannel", header("a"), null, content("{}"));
+        trace.record(WireTrace.Direction.RECEIVED, "ShellChannel", header("b"), null, content("{}"));
+
+        String[] lines = trace.dump().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("-> IOPubChannel stream id=a"));
+        assertTrue(lines[1].contains("<- ShellChannel stream id=b"));
+    }
+}
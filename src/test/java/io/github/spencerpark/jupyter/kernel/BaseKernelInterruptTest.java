@@ -0,0 +1,127 @@
+package io.github.spencerpark.jupyter.kernel;
+
+import io.github.spencerpark.jupyter.channels.ExecutionScheduler;
+import io.github.spencerpark.jupyter.channels.JupyterConnection;
+import io.github.spencerpark.jupyter.channels.TestKernelClient;
+import io.github.spencerpark.jupyter.kernel.display.DisplayData;
+import io.github.spencerpark.jupyter.messages.Message;
+import io.github.spencerpark.jupyter.messages.MessageType;
+import io.github.spencerpark.jupyter.messages.reply.ErrorReply;
+import io.github.spencerpark.jupyter.messages.request.ExecuteRequest;
+import io.github.spencerpark.jupyter.messages.request.InterruptRequest;
+import io.github.spencerpark.jupyter.messages.request.KernelInfoRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class BaseKernelInterruptTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    private static class BlockingKernel extends BaseKernel {
+        private final CountDownLatch blocking = new CountDownLatch(1);
+        private final List<String> evaluated = new CopyOnWriteArrayList<>();
+
+        @Override
+        public DisplayData eval(String expr) throws Exception {
+            this.evaluated.add(expr);
+            if (expr.equals("block")) {
+                this.blocking.countDown();
+                while (!this.isInterruptRequested())
+                    Thread.sleep(5);
+                this.checkInterrupted();
+            }
+            return new DisplayData(expr);
+        }
+
+        @Override
+        public LanguageInfo getLanguageInfo() {
+            return new LanguageInfo("test", "1.0", "text/plain", ".txt", null, null, null);
+        }
+    }
+
+    private JupyterConnection connection;
+    private TestKernelClient client;
+    private BlockingKernel kernel;
+
+    @Before
+    public void setUp() throws Exception {
+        KernelConnectionProperties connProps = TestKernelClient.localConnection();
+        this.connection = new JupyterConnection(connProps, JupyterConnection.IOMode.MULTIPLEXED);
+        this.connection.setExecutionScheduler(new ExecutionScheduler("Execute", 4));
+        this.kernel = new BlockingKernel();
+        this.kernel.setShouldReplaceStdStreams(false);
+        this.kernel.becomeHandlerForConnection(this.connection);
+        this.connection.connect();
+
+        this.client = new TestKernelClient(connProps);
+    }
+
+    @After
+    public void tearDown() {
+        this.client.close();
+        this.connection.close();
+    }
+
+    private static ExecuteRequest execute(String code) {
+        return new ExecuteRequest(code, false, false, Collections.emptyMap(), false, false);
+    }
+
+    private Message<?> awaitShellReply(String parentId) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            Message<?> reply = this.client.receiveShell(deadline - System.currentTimeMillis());
+            if (reply != null && reply.getParentHeader() != null && parentId.equals(reply.getParentHeader().getId()))
+                return reply;
+        }
+        throw new AssertionError("No reply to " + parentId + " within " + TIMEOUT_MS + "ms");
+    }
+
+    @Test
+    public void interruptAbortsQueuedExecutions() throws InterruptedException {
+        String first = this.client.sendShell(MessageType.EXECUTE_REQUEST, execute("block"));
+        assertTrue(this.kernel.blocking.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        String second = this.client.sendShell(MessageType.EXECUTE_REQUEST, execute("second"));
+        // The shell is read in order so once this is answered the second execution is queued.
+        String info = this.client.sendShell(MessageType.KERNEL_INFO_REQUEST, new KernelInfoRequest());
+        this.awaitShellReply(info);
+
+        this.client.sendControl(MessageType.INTERRUPT_REQUEST, new InterruptRequest());
+        Message<?> interruptReply = this.client.receiveControl(TIMEOUT_MS);
+        assertNotNull(interruptReply);
+        assertEquals(MessageType.INTERRUPT_REPLY, interruptReply.getHeader().getType());
+
+        Message<?> firstReply = this.awaitShellReply(first);
+        assertEquals(MessageType.EXECUTE_REPLY.error(), firstReply.getHeader().getType());
+
+        Message<?> secondReply = this.awaitShellReply(second);
+        assertEquals(MessageType.EXECUTE_REPLY.error(), secondReply.getHeader().getType());
+        assertEquals("ExecutionAborted", ((ErrorReply) secondReply.getContent()).getErrorName());
+
+        assertEquals(Collections.singletonList("block"), this.kernel.evaluated);
+    }
+
+    @Test
+    public void interruptDoesNotCarryOverToNextExecution() throws InterruptedException {
+        String first = this.client.sendShell(MessageType.EXECUTE_REQUEST, execute("block"));
+        assertTrue(this.kernel.blocking.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        this.client.sendControl(MessageType.INTERRUPT_REQUEST, new InterruptRequest());
+        assertNotNull(this.client.receiveControl(TIMEOUT_MS));
+        this.awaitShellReply(first);
+
+        String next = this.client.sendShell(MessageType.EXECUTE_REQUEST, execute("next"));
+        Message<?> nextReply = this.awaitShellReply(next);
+        assertEquals(MessageType.EXECUTE_REPLY, nextReply.getHeader().getType());
+    }
+}
@@ -0,0 +1,145 @@
+package io.github.spencerpark.jupyter.kernel;
+
+import io.github.spencerpark.jupyter.channels.IOPubChannel;
+import io.github.spencerpark.jupyter.channels.ShellChannel;
+import io.github.spencerpark.jupyter.channels.ShellReplyEnvironment;
+import io.github.spencerpark.jupyter.kernel.display.DisplayData;
+import io.github.spencerpark.jupyter.kernel.display.mime.MIMEType;
+import io.github.spencerpark.jupyter.messages.HMACGenerator;
+import io.github.spencerpark.jupyter.messages.Message;
+import io.github.spencerpark.jupyter.messages.MessageType;
+import io.github.spencerpark.jupyter.messages.reply.InterruptReply;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DisplaySinkTest {
+    // Written to by the update timer
+    private List<Message<?>> published;
+    private ShellReplyEnvironment env;
+
+    @Before
+    public void setUp() {
+        this.published = new CopyOnWriteArrayList<>();
+        this.env = new ShellReplyEnvironment(null, null, null, null) {
+            @Override
+            public void publish(Message<?> msg) {
+                published.add(msg);
+            }
+        };
+    }
+
+    private String text(int index) {
+        return (String) ((DisplayData) this.published.get(index).getContent()).getData(MIMEType.TEXT_PLAIN);
+    }
+
+    @Test
+    public void publishesDisplayThenUpdates() {
+        DisplaySink sink = new DisplaySink(this.env, new DisplayData("0 rows"), 0, TimeUnit.MILLISECONDS);
+        sink.update(new DisplayData("10 rows"));
+        sink.close();
+
+        assertEquals(2, this.published.size());
+        assertEquals(MessageType.PUBLISH_DISPLAY_DATA, this.published.get(0).getHeader().getType());
+        assertEquals(MessageType.PUBLISH_UPDATE_DISPLAY_DATA, this.published.get(1).getHeader().getType());
+        assertEquals("10 rows", this.text(1));
+
+        String id = sink.getDisplayId();
+        assertEquals(id, ((DisplayData) this.published.get(0).getContent()).getDisplayId());
+        assertEquals(id, ((DisplayData) this.published.get(1).getContent()).getDisplayId());
+    }
+
+    @Test
+    public void keepsOnlyTheLatestUpdateWithinInterval() {
+        DisplaySink sink = new DisplaySink(this.env, new DisplayData("start"), 1, TimeUnit.HOURS);
+        for (int i = 0; i < 1000; i++)
+            sink.update(new DisplayData("row " + i));
+        assertEquals(1, this.published.size());
+
+        sink.close();
+        assertEquals(2, this.published.size());
+        assertEquals("row 999", this.text(1));
+    }
+
+    @Test
+    public void publishesHeldUpdateAfterInterval() throws InterruptedException {
+        DisplaySink sink = new DisplaySink(this.env, new DisplayData("start"), 20, TimeUnit.MILLISECONDS);
+        sink.update(new DisplayData("a"));
+        sink.update(new DisplayData("b"));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (this.published.size() < 2 && System.nanoTime() < deadline)
+            Thread.sleep(5);
+
+        assertEquals(2, this.published.size());
+        assertEquals("b", this.text(1));
+
+        // Nothing is held so closing publishes nothing
+        sink.close();
+        assertEquals(2, this.published.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsUpdatesAfterClose() {
+        DisplaySink sink = new DisplaySink(this.env, new DisplayData("start"), 0, TimeUnit.MILLISECONDS);
+        sink.close();
+        assertTrue(sink.isClosed());
+        sink.update(new DisplayData("late"));
+    }
+
+    @Test
+    public void keepsGivenDisplayId() {
+        DisplayData initial = new DisplayData("start");
+        initial.setDisplayId("my-id");
+        DisplaySink sink = new DisplaySink(this.env, initial, 0, TimeUnit.MILLISECONDS);
+
+        assertEquals("my-id", sink.getDisplayId());
+    }
+
+    @Test
+    public void heldUpdateDoesNotTakeTheDeferral() throws InterruptedException {
+        List<String> sent = new CopyOnWriteArrayList<>();
+        ZMQ.Context ctx = ZMQ.context(1);
+        ShellChannel shell = new ShellChannel(ctx, HMACGenerator.NO_AUTH_INSTANCE, false, null) {
+            @Override
+            public void sendMessage(Message<?> message) {
+                sent.add(message.getHeader().getType().getName());
+            }
+        };
+        IOPubChannel iopub = new IOPubChannel(ctx, HMACGenerator.NO_AUTH_INSTANCE) {
+            @Override
+            public void sendMessage(Message<?> message) {
+                sent.add(message.getHeader().getType().getName());
+            }
+        };
+        try {
+            ShellReplyEnvironment env = new ShellReplyEnvironment(shell, null, iopub, null) { };
+            DisplaySink sink = new DisplaySink(env, new DisplayData("start"), 20, TimeUnit.MILLISECONDS);
+
+            // The timer publishes the held update between the handler's defer() and its reply
+            env.defer();
+            sink.update(new DisplayData("a"));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (sent.size() < 2 && System.nanoTime() < deadline)
+                Thread.sleep(5);
+
+            env.reply(new InterruptReply());
+            assertEquals(Arrays.asList(MessageType.PUBLISH_DISPLAY_DATA.getName(), MessageType.PUBLISH_UPDATE_DISPLAY_DATA.getName()), sent);
+
+            env.resolveDeferrals();
+            assertEquals(MessageType.INTERRUPT_REPLY.getName(), sent.get(2));
+        } finally {
+            shell.close();
+            iopub.close();
+            ctx.close();
+        }
+    }
+}
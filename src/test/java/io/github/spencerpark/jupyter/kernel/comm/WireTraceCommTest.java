@@ -0,0 +1,57 @@
+package io.github.spencerpark.jupyter.kernel.comm;
+
+import io.github.spencerpark.jupyter.channels.JupyterConnection;
+import io.github.spencerpark.jupyter.channels.TestKernelClient;
+import io.github.spencerpark.jupyter.channels.WireTrace;
+import io.github.spencerpark.jupyter.kernel.BaseKernel;
+import io.github.spencerpark.jupyter.kernel.LanguageInfo;
+import io.github.spencerpark.jupyter.kernel.display.DisplayData;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class WireTraceCommTest {
+    private static class NoopKernel extends BaseKernel {
+        @Override
+        public DisplayData eval(String expr) {
+            return null;
+        }
+
+        @Override
+        public LanguageInfo getLanguageInfo() {
+            return new LanguageInfo("test", "1.0", "text/plain", ".txt", null, null, null);
+        }
+    }
+
+    @Test
+    public void targetOnlyRegisteredWhileTracing() throws Exception {
+        JupyterConnection connection = new JupyterConnection(TestKernelClient.localConnection());
+        try {
+            BaseKernel kernel = new NoopKernel();
+            kernel.becomeHandlerForConnection(connection);
+            assertNull(kernel.getCommManager().getTarget(WireTraceComm.TARGET_NAME));
+
+            connection.setWireTrace(new WireTrace(16));
+            assertNotNull(kernel.getCommManager().getTarget(WireTraceComm.TARGET_NAME));
+
+            connection.setWireTrace(null);
+            assertNull(kernel.getCommManager().getTarget(WireTraceComm.TARGET_NAME));
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void targetRegisteredIfTracingBeforeHandling() throws Exception {
+        JupyterConnection connection = new JupyterConnection(TestKernelClient.localConnection());
+        try {
+            connection.setWireTrace(new WireTrace(16));
+            BaseKernel kernel = new NoopKernel();
+            kernel.becomeHandlerForConnection(connection);
+            assertNotNull(kernel.getCommManager().getTarget(WireTraceComm.TARGET_NAME));
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package io.github.spencerpark.jupyter.messages;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HMACGeneratorTest {
+    // HMAC-SHA256("key", "The quick brown fox jumps over the lazy dog")
+    private static final String EXPECTED = "f7bc83f430538424b13298e6aa6fb143ef4d59a14946175997479dbc2d1a3cd8";
+
+    private HMACGenerator generator;
+
+    @Before
+    public void setUp() throws Exception {
+        this.generator = new HMACGenerator("hmac-sha256", "key");
+    }
+
+    private static ByteBuffer bytes(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer[] parts() {
+        return new ByteBuffer[]{
+                bytes("The quick "), bytes("brown fox "), bytes("jumps over "), bytes("the lazy dog")
+        };
+    }
+
+    @Test
+    public void signsParts() {
+        assertEquals(EXPECTED, this.generator.calculateSignature(parts()));
+        assertEquals(EXPECTED, this.generator.calculateSignature(
+                "The quick brown fox ".getBytes(StandardCharsets.UTF_8),
+                "jumps over the lazy dog".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void signsIntoBuffer() {
+        byte[] hex = new byte[this.generator.getSignatureLength() + 2];
+        int length = this.generator.calculateSignature(hex, 2, parts());
+
+        assertEquals(64, length);
+        assertEquals(EXPECTED, new String(hex, 2, length, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void doesNotMovePartPositions() {
+        ByteBuffer[] parts = parts();
+        this.generator.calculateSignature(parts);
+        for (ByteBuffer part : parts)
+            assertEquals(0, part.position());
+    }
+
+    @Test
+    public void verifiesSignature() {
+        ByteBuffer signature = ByteBuffer.wrap(("xx" + EXPECTED).getBytes(StandardCharsets.US_ASCII));
+        signature.position(2);
+
+        assertTrue(this.generator.verifySignature(signature, parts()));
+        assertEquals(2, signature.position());
+    }
+
+    @Test
+    public void rejectsTamperedSignature() {
+        byte[] sig = EXPECTED.getBytes(StandardCharsets.US_ASCII);
+        sig[sig.length - 1] = '9';
+
+        assertFalse(this.generator.verifySignature(ByteBuffer.wrap(sig), parts()));
+        assertFalse(this.generator.verifySignature(bytes(EXPECTED.toUpperCase()), parts()));
+        assertFalse(this.generator.verifySignature(bytes(EXPECTED.substring(1)), parts()));
+        assertFalse(this.generator.verifySignature(bytes(""), parts()));
+    }
+
+    @Test
+    public void signsConcurrently() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++)
+                results.add(pool.submit(() -> this.generator.calculateSignature(parts())));
+            for (Future<String> result : results)
+                assertEquals(EXPECTED, result.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void noAuthOnlyAcceptsEmptySignature() {
+        HMACGenerator noAuth = HMACGenerator.NO_AUTH_INSTANCE;
+
+        assertEquals("", noAuth.calculateSignature(parts()));
+        assertEquals(0, noAuth.getSignatureLength());
+        assertEquals(0, noAuth.calculateSignature(new byte[0], 0, parts()));
+        assertTrue(noAuth.verifySignature(bytes(""), parts()));
+        assertFalse(noAuth.verifySignature(bytes(EXPECTED), parts()));
+    }
+}
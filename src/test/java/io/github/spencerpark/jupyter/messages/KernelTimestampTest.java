@@ -0,0 +1,108 @@
+package io.github.spencerpark.jupyter.messages;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class KernelTimestampTest {
+    private static void assertParses(String expected, String serialized) {
+        assertEquals(Instant.parse(expected), new KernelTimestamp(serialized).getInstant());
+    }
+
+    private static void assertInvalid(String serialized) {
+        KernelTimestamp timestamp = new KernelTimestamp(serialized);
+        try {
+            timestamp.getInstant();
+            fail("Expected '" + serialized + "' to be invalid.");
+        } catch (RuntimeException expected) {
+        }
+    }
+
+    @Test
+    public void formatsWithMicroseconds() {
+        KernelTimestamp timestamp = new KernelTimestamp(Instant.parse("2019-03-14T15:09:26.535897123Z"));
+        assertEquals("2019-03-14T15:09:26.535897Z", timestamp.getDateString());
+    }
+
+    @Test
+    public void formatsPadded() {
+        assertEquals("0001-02-03T04:05:06.000007Z", new KernelTimestamp(Instant.parse("0001-02-03T04:05:06.000007Z")).getDateString());
+        assertEquals("1970-01-01T00:00:00.000000Z", new KernelTimestamp(0, 0).getDateString());
+        assertEquals("1969-12-31T23:59:59.999999Z", new KernelTimestamp(-1, 999_999_999).getDateString());
+    }
+
+    @Test
+    public void formatsLeapDays() {
+        assertEquals("2020-02-29T12:00:00.000000Z", new KernelTimestamp(Instant.parse("2020-02-29T12:00:00Z")).getDateString());
+        assertEquals("2000-03-01T00:00:00.000000Z", new KernelTimestamp(Instant.parse("2000-03-01T00:00:00Z")).getDateString());
+    }
+
+    @Test
+    public void formatsInto() {
+        char[] buf = new char[KernelTimestamp.FORMATTED_LENGTH + 1];
+        int written = new KernelTimestamp(Instant.parse("2019-03-14T15:09:26.5Z")).formatTo(buf, 1);
+
+        assertEquals(KernelTimestamp.FORMATTED_LENGTH, written);
+        assertEquals("2019-03-14T15:09:26.500000Z", new String(buf, 1, written));
+    }
+
+    @Test
+    public void parsesUtc() {
+        assertParses("2019-03-14T15:09:26.535897Z", "2019-03-14T15:09:26.535897Z");
+        assertParses("2019-03-14T15:09:26.535897123Z", "2019-03-14T15:09:26.535897123Z");
+        assertParses("2019-03-14T15:09:26.5Z", "2019-03-14T15:09:26.5Z");
+        assertParses("2019-03-14T15:09:26Z", "2019-03-14T15:09:26Z");
+    }
+
+    @Test
+    public void parsesOffsets() {
+        assertParses("2019-03-14T15:09:26.535897Z", "2019-03-14T15:09:26.535897+00:00");
+        assertParses("2019-03-14T20:09:26Z", "2019-03-14T15:09:26-05:00");
+        assertParses("2019-03-14T13:39:26Z", "2019-03-14T15:09:26+0130");
+        assertParses("2019-03-14T13:09:26Z", "2019-03-14T15:09:26+02");
+    }
+
+    @Test
+    public void parsesWithoutOffsetAsUtc() {
+        assertParses("2019-03-14T15:09:26.535897Z", "2019-03-14T15:09:26.535897");
+        assertParses("2019-03-14T15:09:26Z", "2019-03-14 15:09:26");
+    }
+
+    @Test
+    public void parsesMinutePrecision() {
+        // The format previously written by the kernel
+        assertParses("2019-03-14T15:09:00Z", "2019-03-14T15:09+0000");
+    }
+
+    @Test
+    public void rejectsInvalid() {
+        assertInvalid("");
+        assertInvalid("2019-03-14");
+        assertInvalid("2019-13-14T15:09:26Z");
+        assertInvalid("2019-02-29T15:09:26Z");
+        assertInvalid("2019-03-14T24:09:26Z");
+        assertInvalid("2019-03-14T15:09:26.Z");
+        assertInvalid("2019-03-14T15:09:26Zjunk");
+        assertInvalid("2019/03/14T15:09:26Z");
+    }
+
+    @Test
+    public void keepsReceivedString() {
+        String received = "2019-03-14T15:09:26.535897+00:00";
+        assertEquals(received, new KernelTimestamp(received).getDateString());
+    }
+
+    @Test
+    public void convertsDates() {
+        Date date = new Date(1552576166535L);
+        KernelTimestamp timestamp = new KernelTimestamp(date);
+
+        assertEquals("2019-03-14T15:09:26.535000Z", timestamp.getDateString());
+        assertEquals(date, timestamp.getDate());
+        assertEquals(date, new KernelTimestamp(timestamp.getDateString()).getDate());
+    }
+}
@@ -0,0 +1,91 @@
+package io.github.spencerpark.jupyter.messages;
+
+import com.google.gson.Gson;
+import io.github.spencerpark.jupyter.messages.request.ExecuteRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LazyMessageTest {
+    private static final Gson GSON = new Gson();
+
+    private AtomicInteger decodes;
+    private BiFunction<ByteBuffer, Type, Object> decoder;
+
+    @Before
+    public void setUp() {
+        this.decodes = new AtomicInteger();
+        this.decoder = (json, type) -> {
+            this.decodes.incrementAndGet();
+            return GSON.fromJson(StandardCharsets.UTF_8.decode(json.duplicate()).toString(), type);
+        };
+    }
+
+    private static ByteBuffer json(String json) {
+        return ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private LazyMessage<ExecuteRequest> executeRequest() {
+        return new LazyMessage<>(
+                Collections.emptyList(),
+                new Header<>(MessageType.EXECUTE_REQUEST),
+                null,
+                json("{\"tag\": \"t\"}"),
+                json("{\"code\": \"1 + 1\", \"silent\": true}"),
+                Collections.emptyList(),
+                this.decoder
+        );
+    }
+
+    @Test
+    public void doesNotDecodeUntilRequested() {
+        LazyMessage<ExecuteRequest> message = executeRequest();
+
+        assertEquals(MessageType.EXECUTE_REQUEST, message.getHeader().getType());
+        assertTrue(message.hasMetadata());
+        assertFalse(message.isContentDecoded());
+        assertEquals(0, this.decodes.get());
+    }
+
+    @Test
+    public void decodesContentOnce() {
+        LazyMessage<ExecuteRequest> message = executeRequest();
+
+        assertEquals("1 + 1", message.getContent().getCode());
+        assertTrue(message.getContent().isSilent());
+        assertTrue(message.isContentDecoded());
+        assertNull(message.getRawContent());
+        assertEquals(1, this.decodes.get());
+    }
+
+    @Test
+    public void decodesMetadataSeparately() {
+        LazyMessage<ExecuteRequest> message = executeRequest();
+
+        assertEquals("t", message.getMetadata().get("tag"));
+        assertEquals("t", message.getNonNullMetadata().get("tag"));
+        assertFalse(message.isContentDecoded());
+        assertEquals(1, this.decodes.get());
+    }
+
+    @Test
+    public void rawContentIsAView() {
+        LazyMessage<ExecuteRequest> message = executeRequest();
+
+        ByteBuffer raw = message.getRawContent();
+        raw.position(raw.limit());
+
+        assertEquals("1 + 1", message.getContent().getCode());
+    }
+}
@@ -0,0 +1,31 @@
+package io.github.spencerpark.jupyter.messages;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MessageTypeTest {
+    @Test
+    public void idsAreDenseAndUnique() throws IllegalAccessException {
+        Set<Integer> ids = new HashSet<>();
+        for (Field field : MessageType.class.getFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) || field.getType() != MessageType.class)
+                continue;
+            MessageType<?> type = (MessageType<?>) field.get(null);
+            assertTrue(ids.add(type.getId()));
+            if (type != MessageType.UNKNOWN)
+                assertTrue(ids.add(type.error().getId()));
+        }
+
+        for (int id : ids)
+            assertTrue(id >= 0 && id < MessageType.getTypeCount());
+        // UNKNOWN also has an error variant
+        assertEquals(MessageType.getTypeCount(), ids.size() + 1);
+    }
+}
@@ -0,0 +1,65 @@
+package io.github.spencerpark.jupyter.messages;
+
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SequentialMessageIdGeneratorTest {
+    @Test
+    public void countsUp() {
+        SequentialMessageIdGenerator generator = new SequentialMessageIdGenerator("abc");
+        assertEquals("abc_1", generator.nextId());
+        assertEquals("abc_2", generator.nextId());
+        for (int i = 3; i <= 1000; i++)
+            assertEquals("abc_" + i, generator.nextId());
+        assertEquals(1000, generator.getCount());
+    }
+
+    @Test
+    public void uniqueAcrossThreads() throws InterruptedException {
+        SequentialMessageIdGenerator generator = new SequentialMessageIdGenerator("abc");
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            pool.execute(() -> {
+                for (int i = 0; i < 10_000; i++)
+                    ids.add(generator.nextId());
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(40_000, ids.size());
+    }
+
+    @Test
+    public void repliesUseTheContextsGenerator() {
+        Message<Object> request = new Message<>(new Header<>("request", "user", "session", KernelTimestamp.now(), MessageType.UNKNOWN, Header.PROTOCOL_VERISON), null);
+        request.setIdGenerator(MessageIdGenerator.sequential("session-a"));
+
+        Message<Object> reply = new Message<>(request, MessageType.UNKNOWN, null);
+        assertEquals("session-a_1", reply.getHeader().getId());
+
+        // Messages created in the context of the reply share its generator
+        Message<Object> next = new Message<>(reply, MessageType.UNKNOWN, null);
+        assertEquals("session-a_2", next.getHeader().getId());
+    }
+
+    @Test
+    public void randomPrefixPerGenerator() {
+        String a = MessageIdGenerator.sequential().nextId();
+        String b = MessageIdGenerator.sequential().nextId();
+
+        assertTrue(a.endsWith("_1"));
+        assertNotEquals(a, b);
+    }
+}
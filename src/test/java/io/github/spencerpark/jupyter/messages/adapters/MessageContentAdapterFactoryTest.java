@@ -0,0 +1,183 @@
+package io.github.spencerpark.jupyter.messages.adapters;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.annotations.SerializedName;
+import io.github.spencerpark.jupyter.kernel.ExpressionValue;
+import io.github.spencerpark.jupyter.messages.Header;
+import io.github.spencerpark.jupyter.messages.KernelTimestamp;
+import io.github.spencerpark.jupyter.messages.MessageType;
+import io.github.spencerpark.jupyter.messages.publish.PublishStatus;
+import io.github.spencerpark.jupyter.messages.publish.PublishStream;
+import io.github.spencerpark.jupyter.messages.reply.ExecuteReply;
+import io.github.spencerpark.jupyter.messages.request.ExecuteRequest;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class MessageContentAdapterFactoryTest {
+    // The deprecated tree adapters are the reference the streaming ones are compared against
+    @SuppressWarnings("deprecation")
+    private static final Gson reflective = new GsonBuilder()
+            .registerTypeAdapter(KernelTimestamp.class, KernelTimestampAdapter.INSTANCE)
+            .registerTypeAdapter(Header.class, HeaderAdapter.INSTANCE)
+            .registerTypeAdapter(MessageType.class, MessageTypeAdapter.INSTANCE)
+            .create();
+    private static final Gson streaming = new GsonBuilder()
+            .registerTypeAdapterFactory(MessageContentAdapterFactory.INSTANCE)
+            .create();
+
+    // Written as a single json string rather than an object of fields
+    private static final Set<Class<?>> VALUE_TYPES = new HashSet<>(Arrays.asList(KernelTimestamp.class, MessageType.class));
+
+    private static final Set<Class<?>> WRITE_ONLY_TYPES = Collections.singleton(ExecuteReply.class);
+
+    /**
+     * One instance of every handled object type with every field set, so that each declared
+     * field shows up in the json.
+     */
+    private static Map<Class<?>, Object> samples() {
+        Map<String, String> userExpr = new LinkedHashMap<>();
+        userExpr.put("a", "1 + 1");
+        userExpr.put("b", null);
+
+        Map<String, ExpressionValue> evaluated = new LinkedHashMap<>();
+        evaluated.put("a", new ExpressionValue.Error("Err", "msg", Collections.singletonList("trace")));
+
+        Map<Class<?>, Object> samples = new LinkedHashMap<>();
+        samples.put(Header.class, new Header<>("id", "user", "session",
+                new KernelTimestamp("2019-03-14T15:09:26.535897Z"), MessageType.EXECUTE_REQUEST, "5.3"));
+        samples.put(ExecuteRequest.class, new ExecuteRequest("print(\"hi\")\n", false, true, userExpr, true, false));
+        samples.put(PublishStatus.class, PublishStatus.BUSY);
+        samples.put(PublishStream.class, new PublishStream(PublishStream.StreamType.OUT, "caf\u00e9 \ud83d\ude00\n\u2028"));
+        samples.put(ExecuteReply.class, new ExecuteReply(4, evaluated));
+        return samples;
+    }
+
+    private static List<Field> serializedFields(Class<?> type) {
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass())
+            hierarchy.add(0, c);
+
+        List<Field> fields = new ArrayList<>();
+        for (Class<?> c : hierarchy) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic())
+                    continue;
+                field.setAccessible(true);
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    private static String serializedName(Field field) {
+        SerializedName name = field.getAnnotation(SerializedName.class);
+        return name == null ? field.getName() : name.value();
+    }
+
+    private static Object get(Field field, Object target) {
+        try {
+            return field.get(target);
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void everyHandledTypeIsCovered() {
+        Set<Class<?>> covered = new HashSet<>(samples().keySet());
+        covered.addAll(VALUE_TYPES);
+        assertEquals("Add a sample for each type with a hand-written adapter",
+                covered, MessageContentAdapterFactory.INSTANCE.getHandledTypes());
+    }
+
+    @Test
+    public void writesEveryDeclaredField() {
+        for (Map.Entry<Class<?>, Object> sample : samples().entrySet()) {
+            Class<?> type = sample.getKey();
+            List<String> expected = new ArrayList<>();
+            for (Field field : serializedFields(type)) {
+                assertNotNull("The " + type.getSimpleName() + " sample must set " + field.getName(), get(field, sample.getValue()));
+                expected.add(serializedName(field));
+            }
+
+            JsonObject written = new JsonParser().parse(streaming.toJson(sample.getValue())).getAsJsonObject();
+            assertEquals("Fields written for " + type.getSimpleName(), expected, new ArrayList<>(written.keySet()));
+        }
+    }
+
+    @Test
+    public void readsEveryDeclaredField() {
+        for (Map.Entry<Class<?>, Object> sample : samples().entrySet()) {
+            Class<?> type = sample.getKey();
+            if (WRITE_ONLY_TYPES.contains(type))
+                continue;
+
+            Object read = streaming.fromJson(streaming.toJson(sample.getValue()), type);
+            for (Field field : serializedFields(type))
+                assertEquals("Field " + type.getSimpleName() + "." + field.getName(),
+                        reflective.toJsonTree(get(field, sample.getValue())),
+                        reflective.toJsonTree(get(field, read)));
+        }
+    }
+
+    @Test
+    public void writesSameJsonAsReflective() {
+        for (Object sample : samples().values())
+            assertEquals(reflective.toJson(sample), streaming.toJson(sample));
+
+        assertEquals(reflective.toJson(new ExecuteReply(5)), streaming.toJson(new ExecuteReply(5)));
+        ExecuteRequest nulls = new ExecuteRequest(null, true, false, null, false, true);
+        assertEquals(reflective.toJson(nulls), streaming.toJson(nulls));
+        PublishStream quoted = new PublishStream(PublishStream.StreamType.ERR, "\u0000\t\"quoted\"");
+        assertEquals(reflective.toJson(quoted), streaming.toJson(quoted));
+    }
+
+    @Test
+    public void headerMatchesTreeAdapter() {
+        Header<?> header = new Header<>("id", "user", "session",
+                new KernelTimestamp("2019-03-14T15:09:26.535897Z"), MessageType.EXECUTE_REQUEST, "5.3");
+
+        Header<?> read = streaming.fromJson(reflective.toJson(header), Header.class);
+        assertEquals("id", read.getId());
+        assertEquals("user", read.getUsername());
+        assertEquals("session", read.getSessionId());
+        assertEquals("2019-03-14T15:09:26.535897Z", read.getTimestamp().getDateString());
+        assertSame(MessageType.EXECUTE_REQUEST, read.getType());
+        assertEquals("5.3", read.getVersion());
+    }
+
+    @Test
+    public void ignoresUnknownFields() {
+        ExecuteRequest request = streaming.fromJson(
+                "{\"code\":\"x\",\"extra\":{\"nested\":[1,2]},\"silent\":true,\"cursor_pos\":null}",
+                ExecuteRequest.class);
+        assertEquals("x", request.getCode());
+        assertEquals(true, request.isSilent());
+        assertNull(request.getUserExpr());
+    }
+
+    @Test
+    public void readsSingletons() {
+        assertSame(PublishStatus.IDLE, streaming.fromJson("{\"execution_state\":\"idle\"}", PublishStatus.class));
+        assertSame(PublishStatus.STARTING, streaming.fromJson("{\"execution_state\":\"starting\"}", PublishStatus.class));
+    }
+}